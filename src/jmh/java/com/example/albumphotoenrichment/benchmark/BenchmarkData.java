@@ -0,0 +1,54 @@
+package com.example.albumphotoenrichment.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.PhotoView;
+
+/**
+ * Datos sinteticos para los benchmarks, con la forma de los del upstream: 50
+ * fotos por album, 10 albumes por usuario e ids consecutivos desde 1.
+ */
+final class BenchmarkData {
+
+	static final int PHOTOS_PER_ALBUM = 50;
+	static final int ALBUMS_PER_USER = 10;
+
+	/** Fotos ordenadas por album, como las devuelve el upstream */
+	static final String ORDER_GROUPED = "grouped";
+	/** Fotos en orden aleatorio, como al unir varias particiones o fuentes */
+	static final String ORDER_SHUFFLED = "shuffled";
+
+	private BenchmarkData() {
+	}
+
+	static List<AlbumView> albums(int photoCount) {
+		int albumCount = Math.max(photoCount / PHOTOS_PER_ALBUM, 1);
+		List<AlbumView> albums = new ArrayList<>(albumCount);
+		for (long id = 1; id <= albumCount; id++) {
+			albums.add(new AlbumView(id, (id - 1) / ALBUMS_PER_USER + 1, "album " + id));
+		}
+		return albums;
+	}
+
+	static List<PhotoView> photos(int photoCount, String order) {
+		int albumCount = Math.max(photoCount / PHOTOS_PER_ALBUM, 1);
+		List<PhotoView> photos = new ArrayList<>(photoCount);
+		for (long id = 1; id <= photoCount; id++) {
+			long albumId = Math.min((id - 1) / PHOTOS_PER_ALBUM + 1, albumCount);
+			photos.add(new PhotoView(id, albumId, "photo " + id, "https://via.placeholder.com/600/" + Long.toHexString(id),
+					"https://via.placeholder.com/150/" + Long.toHexString(id)));
+		}
+		if (ORDER_SHUFFLED.equals(order)) {
+			Collections.shuffle(photos, new Random(42));
+		}
+		return photos;
+	}
+
+	static AlbumView enrich(AlbumView album, List<PhotoView> photos) {
+		return album.withPhotos(photos == null ? List.of() : photos);
+	}
+}
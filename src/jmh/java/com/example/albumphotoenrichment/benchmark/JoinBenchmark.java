@@ -0,0 +1,165 @@
+package com.example.albumphotoenrichment.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.PhotoColumns;
+import com.example.albumphotoenrichment.model.PhotoView;
+
+/**
+ * Compara estrategias para agrupar las fotos por album y unirlas con sus
+ * albumes. Cada benchmark devuelve los albumes enriquecidos:
+ * <ul>
+ * <li>{@code parallelGroupingByConcurrent}: la estrategia original,
+ * {@code parallelStream().collect(groupingByConcurrent(...))}.</li>
+ * <li>{@code sequentialHashMap}: agrupacion secuencial en un HashMap, la que
+ * hace {@code UpstreamClient} mientras lee el cuerpo.</li>
+ * <li>{@code sortMerge}: ordena las fotos por album y recorre albumes y fotos a
+ * la vez.</li>
+ * <li>{@code arrayBucketing}: cuenta las fotos de cada album en un array
+ * indexado por id y las coloca en un unico array de fotos con sumas de
+ * prefijos, sin listas ni objetos por album.</li>
+ * <li>{@code photoColumns}: el almacen en columnas {@link PhotoColumns} que
+ * usa {@code UpstreamClient}.</li>
+ * </ul>
+ * Con {@code -prof gc} se obtiene ademas la tasa de asignacion de memoria.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+@State(Scope.Benchmark)
+public class JoinBenchmark {
+
+	@Param({ "5000", "100000", "1000000", "10000000" })
+	private int photoCount;
+
+	@Param({ BenchmarkData.ORDER_GROUPED, BenchmarkData.ORDER_SHUFFLED })
+	private String order;
+
+	private List<AlbumView> albums;
+	private List<PhotoView> photos;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		albums = BenchmarkData.albums(photoCount);
+		photos = BenchmarkData.photos(photoCount, order);
+	}
+
+	@Benchmark
+	public List<AlbumView> parallelGroupingByConcurrent() {
+		ConcurrentMap<Long, List<PhotoView>> photosByAlbum = photos.parallelStream()
+				.collect(Collectors.groupingByConcurrent(PhotoView::albumId));
+		return join(photosByAlbum);
+	}
+
+	@Benchmark
+	public List<AlbumView> sequentialHashMap() {
+		Map<Long, List<PhotoView>> photosByAlbum = new HashMap<>();
+		for (PhotoView photo : photos) {
+			photosByAlbum.computeIfAbsent(photo.albumId(), albumId -> new ArrayList<>()).add(photo);
+		}
+		return join(photosByAlbum);
+	}
+
+	@Benchmark
+	public List<AlbumView> sortMerge() {
+		List<PhotoView> sortedPhotos = new ArrayList<>(photos);
+		sortedPhotos.sort(Comparator.comparing(PhotoView::albumId));
+		List<AlbumView> sortedAlbums = new ArrayList<>(albums);
+		sortedAlbums.sort(Comparator.comparing(AlbumView::id));
+
+		List<AlbumView> enriched = new ArrayList<>(sortedAlbums.size());
+		int from = 0;
+		for (AlbumView album : sortedAlbums) {
+			long albumId = album.id();
+			while (from < sortedPhotos.size() && sortedPhotos.get(from).albumId() < albumId) {
+				from++; // Fotos de albumes que no existen
+			}
+			int to = from;
+			while (to < sortedPhotos.size() && sortedPhotos.get(to).albumId() == albumId) {
+				to++;
+			}
+			enriched.add(BenchmarkData.enrich(album, sortedPhotos.subList(from, to)));
+			from = to;
+		}
+		return enriched;
+	}
+
+	@Benchmark
+	public List<AlbumView> arrayBucketing() {
+		// Los ids de album son densos: el rango [min, max] indexa directamente los
+		// cubos
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (AlbumView album : albums) {
+			min = Math.min(min, album.id());
+			max = Math.max(max, album.id());
+		}
+		int[] offsets = new int[(int) (max - min) + 2];
+		for (PhotoView photo : photos) {
+			long albumId = photo.albumId();
+			if (albumId >= min && albumId <= max) {
+				offsets[(int) (albumId - min) + 1]++;
+			}
+		}
+		for (int i = 1; i < offsets.length; i++) {
+			offsets[i] += offsets[i - 1];
+		}
+		PhotoView[] bucketed = new PhotoView[offsets[offsets.length - 1]];
+		int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+		for (PhotoView photo : photos) {
+			long albumId = photo.albumId();
+			if (albumId >= min && albumId <= max) {
+				bucketed[next[(int) (albumId - min)]++] = photo;
+			}
+		}
+
+		List<PhotoView> all = Arrays.asList(bucketed);
+		List<AlbumView> enriched = new ArrayList<>(albums.size());
+		for (AlbumView album : albums) {
+			int bucket = (int) (album.id() - min);
+			enriched.add(BenchmarkData.enrich(album, all.subList(offsets[bucket], offsets[bucket + 1])));
+		}
+		return enriched;
+	}
+
+	@Benchmark
+	public List<AlbumView> photoColumns() {
+		PhotoColumns.Builder builder = PhotoColumns.builder();
+		for (PhotoView photo : photos) {
+			builder.add(photo);
+		}
+		return join(builder.build());
+	}
+
+	private List<AlbumView> join(Map<Long, List<PhotoView>> photosByAlbum) {
+		List<AlbumView> enriched = new ArrayList<>(albums.size());
+		for (AlbumView album : albums) {
+			enriched.add(BenchmarkData.enrich(album, photosByAlbum.get(album.id())));
+		}
+		return enriched;
+	}
+}
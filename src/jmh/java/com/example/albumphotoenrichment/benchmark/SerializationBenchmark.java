@@ -0,0 +1,90 @@
+package com.example.albumphotoenrichment.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.albumphotoenrichment.factory.EnrichedSnapshotFactory;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Mide la serializacion JSON de {@link AlbumView} y {@link PhotoView} y la
+ * construccion completa de una instantanea con {@link EnrichedSnapshotFactory}
+ * (union, serializacion, gzip y ETag), que es lo que se paga en cada refresco
+ * con cambios. Con {@code -prof gc} se obtiene ademas la tasa de asignacion de
+ * memoria.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+	@Param({ "5000", "100000", "1000000" })
+	private int photoCount;
+
+	private List<AlbumView> albums;
+	private List<PhotoView> photos;
+	private List<AlbumView> enriched;
+	private Map<Long, List<PhotoView>> photosByAlbum;
+	private ObjectWriter albumsWriter;
+	private ObjectWriter photosWriter;
+	private EnrichedSnapshotFactory enrichedSnapshotFactory;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		ObjectMapper objectMapper = new ObjectMapper();
+		albums = BenchmarkData.albums(photoCount);
+		photos = BenchmarkData.photos(photoCount, BenchmarkData.ORDER_GROUPED);
+		photosByAlbum = new HashMap<>();
+		for (PhotoView photo : photos) {
+			photosByAlbum.computeIfAbsent(photo.albumId(), albumId -> new ArrayList<>()).add(photo);
+		}
+		enriched = new ArrayList<>(albums.size());
+		for (AlbumView album : albums) {
+			enriched.add(BenchmarkData.enrich(album, photosByAlbum.get(album.id())));
+		}
+		albumsWriter = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class,
+				AlbumView.class));
+		photosWriter = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class,
+				PhotoView.class));
+		enrichedSnapshotFactory = new EnrichedSnapshotFactory(objectMapper);
+	}
+
+	@Benchmark
+	public byte[] writeEnrichedAlbums() throws JsonProcessingException {
+		return albumsWriter.writeValueAsBytes(enriched);
+	}
+
+	@Benchmark
+	public byte[] writePhotos() throws JsonProcessingException {
+		return photosWriter.writeValueAsBytes(photos);
+	}
+
+	@Benchmark
+	public EnrichedSnapshot createSnapshot() {
+		return enrichedSnapshotFactory.create(albums, photosByAlbum);
+	}
+}
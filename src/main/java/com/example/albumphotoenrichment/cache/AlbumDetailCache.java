@@ -0,0 +1,73 @@
+package com.example.albumphotoenrichment.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.stereotype.Component;
+
+import com.example.albumphotoenrichment.constant.AlbumPhotoConstants;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.github.benmanes.caffeine.cache.Cache;
+
+/**
+ * Cache de albumes enriquecidos individuales, para las consultas de un solo
+ * album cuando todavia no existe una instantanea completa. Los albumes se
+ * guardan en la cache {@code albums} del gestor de cache, asi que su limite y
+ * su caducidad son los de {@code album.cache.albums.spec}: con
+ * {@code maximumWeight} queda acotada por el tamano estimado de los albumes
+ * ({@link EstimatedSizeWeigher}) y sus aciertos, fallos y desalojos se publican
+ * con el resto de caches.
+ * <p>
+ * Las cargas concurrentes del mismo album se comparten. Los albumes que no
+ * existen (el loader devuelve null) no se guardan.
+ */
+@Component
+public class AlbumDetailCache {
+
+	private final Cache<Object, Object> albums;
+	private final SingleFlight<Long, AlbumView> singleFlight = new SingleFlight<>();
+
+	@Autowired
+	public AlbumDetailCache(CaffeineCacheManager cacheManager) {
+		this.albums = ((CaffeineCache) cacheManager.getCache(AlbumPhotoConstants.CACHE_ALBUMS)).getNativeCache();
+	}
+
+	/**
+	 * Devuelve el album guardado o lo carga con el loader si no existe o ha
+	 * caducado.
+	 *
+	 * @param id     id del album
+	 * @param loader funcion que descarga el album enriquecido, o null si no existe
+	 * @return futuro con el album enriquecido, o null si no existe
+	 */
+	public CompletableFuture<AlbumView> get(Long id, Function<Long, CompletableFuture<AlbumView>> loader) {
+		AlbumView cached = (AlbumView) albums.getIfPresent(id);
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+		return singleFlight.execute(id, () -> loader.apply(id).thenApply(album -> {
+			if (album != null) {
+				albums.put(id, album);
+			}
+			return album;
+		}));
+	}
+
+	/**
+	 * Elimina todos los albumes guardados.
+	 */
+	public void invalidateAll() {
+		albums.invalidateAll();
+	}
+
+	/**
+	 * @return numero aproximado de albumes guardados
+	 */
+	public long size() {
+		albums.cleanUp();
+		return albums.estimatedSize();
+	}
+}
@@ -0,0 +1,103 @@
+package com.example.albumphotoenrichment.cache;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.example.albumphotoenrichment.model.PhotoColumns;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.github.benmanes.caffeine.cache.Weigher;
+
+/**
+ * Peso de las entradas de cache como tamano aproximado en bytes en el heap,
+ * para poder acotar cada cache por memoria ({@code maximumWeight}) en lugar de
+ * por numero de entradas. Conoce los tipos del modelo de lectura, las
+ * colecciones, los String y los arrays de bytes; cualquier otro valor pesa
+ * {@link #DEFAULT_WEIGHT} bytes.
+ * <p>
+ * Las listas muy grandes se estiman a partir de una muestra de sus elementos
+ * para que pesar una entrada no cueste tanto como recorrerla. Las fotos de un
+ * album en columnas ({@link PhotoColumns.AlbumPhotos}) se miden sobre las
+ * columnas, sin crear un {@link PhotoView} por foto.
+ */
+public final class EstimatedSizeWeigher implements Weigher<Object, Object> {
+
+	/** Peso de los valores de tipo desconocido */
+	static final int DEFAULT_WEIGHT = 64;
+
+	private static final int OBJECT_HEADER = 16;
+	private static final int REFERENCE = 4;
+	private static final int SAMPLE_SIZE = 64;
+
+	@Override
+	public int weigh(Object key, Object value) {
+		return (int) Math.min(estimate(key) + estimate(value), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param value valor, puede ser null
+	 * @return tamano aproximado en bytes
+	 */
+	static long estimate(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		if (value instanceof String string) {
+			return OBJECT_HEADER + 8 + array(string.length());
+		}
+		if (value instanceof byte[] bytes) {
+			return array(bytes.length);
+		}
+		if (value instanceof Number || value instanceof Boolean) {
+			return OBJECT_HEADER + 8;
+		}
+		if (value instanceof PhotoView photo) {
+			return OBJECT_HEADER + 5 * REFERENCE + estimate(photo.id()) + estimate(photo.albumId())
+					+ estimate(photo.title()) + estimate(photo.url()) + estimate(photo.thumbnailUrl());
+		}
+		if (value instanceof AlbumView album) {
+			return OBJECT_HEADER + 4 * REFERENCE + estimate(album.id()) + estimate(album.userId())
+					+ estimate(album.title()) + estimate(album.photos());
+		}
+		if (value instanceof EnrichedSnapshot snapshot) {
+			// Los indices secundarios duplican aproximadamente las referencias a los albumes
+			return OBJECT_HEADER + estimate(snapshot.getJson()) + estimate(snapshot.getGzipJson())
+					+ estimate(snapshot.getAlbums()) + 3L * snapshot.getAlbums().size() * REFERENCE * 4;
+		}
+		if (value instanceof PhotoColumns.AlbumPhotos photos) {
+			// Vista sobre columnas: se mide sin crear los PhotoView de get(i)
+			return OBJECT_HEADER + 3 * REFERENCE + photos.getMemory();
+		}
+		if (value instanceof Map<?, ?> map) {
+			return OBJECT_HEADER + (long) map.size() * (OBJECT_HEADER + 4 * REFERENCE)
+					+ estimate(map.keySet()) + estimate(map.values());
+		}
+		if (value instanceof Collection<?> collection) {
+			return OBJECT_HEADER + array((long) collection.size() * REFERENCE) + elements(collection);
+		}
+		return DEFAULT_WEIGHT;
+	}
+
+	private static long elements(Collection<?> collection) {
+		int size = collection.size();
+		if (size <= SAMPLE_SIZE || !(collection instanceof List<?> list && list instanceof RandomAccess)) {
+			long total = 0;
+			for (Object element : collection) {
+				total += estimate(element);
+			}
+			return total;
+		}
+		long sampled = 0;
+		for (int i = 0; i < SAMPLE_SIZE; i++) {
+			sampled += estimate(list.get((int) ((long) i * size / SAMPLE_SIZE)));
+		}
+		return sampled * size / SAMPLE_SIZE;
+	}
+
+	private static long array(long length) {
+		return (OBJECT_HEADER + length + 7) & ~7L;
+	}
+}
@@ -0,0 +1,65 @@
+package com.example.albumphotoenrichment.cache;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Deduplica cargas concurrentes por clave: mientras hay una carga en curso para
+ * una clave, el resto de llamadas comparten su resultado en lugar de lanzar una
+ * nueva. Cuando la carga termina la clave queda libre para la siguiente.
+ *
+ * @param <K> tipo de la clave
+ * @param <V> tipo del valor cargado
+ */
+public class SingleFlight<K, V> {
+
+	private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+	private final LongAdder coalesced = new LongAdder();
+
+	/**
+	 * Ejecuta la carga para la clave o se une a la que ya esta en curso.
+	 *
+	 * @param key    clave del recurso
+	 * @param loader funcion que lanza la carga asincrona
+	 * @return futuro con el resultado compartido
+	 */
+	public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> loader) {
+		CompletableFuture<V> created = new CompletableFuture<>();
+		CompletableFuture<V> shared = inFlight.putIfAbsent(key, created);
+		if (shared != null) {
+			coalesced.increment();
+			return shared.copy();
+		}
+		try {
+			loader.get().whenComplete((value, ex) -> {
+				inFlight.remove(key, created);
+				if (ex != null) {
+					created.completeExceptionally(ex);
+				} else {
+					created.complete(value);
+				}
+			});
+		} catch (RuntimeException e) {
+			inFlight.remove(key, created);
+			created.completeExceptionally(e);
+		}
+		return created.copy();
+	}
+
+	/**
+	 * @return numero de llamadas que se han unido a una carga ya en curso
+	 */
+	public long getCoalescedCount() {
+		return coalesced.sum();
+	}
+
+	/**
+	 * @return numero de cargas en curso
+	 */
+	public int getInFlightCount() {
+		return inFlight.size();
+	}
+}
@@ -0,0 +1,176 @@
+package com.example.albumphotoenrichment.cache;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Cache de instantaneas de los recursos upstream (/albums y /photos). Se situa
+ * delante de las llamadas HTTP y aplica dos politicas:
+ * <ul>
+ * <li>TTL: mientras la instantanea es fresca se sirve sin llamar al
+ * upstream.</li>
+ * <li>Stale-while-revalidate: pasado el TTL, y hasta el maximo de obsolescencia
+ * permitido, se sirve la instantanea anterior y se revalida en segundo
+ * plano.</li>
+ * </ul>
+ * El refresco periodico lo hace {@code SnapshotRefresher} con
+ * {@link #refresh(String, Function)}, de forma que en regimen estable las
+ * peticiones nunca esperan al upstream.
+ * Las descargas en curso se comparten por recurso: con la cache fria, cualquier
+ * numero de llamadas concurrentes espera a una unica descarga. El loader es
+ * asincrono y recibe la instantanea anterior (o null si no existe) para poder
+ * hacer peticiones condicionales y devolverla si el recurso no ha cambiado.
+ * Cada descarga pertenece a una generacion de la cache: tras
+ * {@link #invalidateAll()} las descargas que ya estaban en curso no guardan su
+ * resultado y las llamadas nuevas no se unen a ellas.
+ * <p>
+ * Los accesos se cuentan en {@code album.upstream.cache} con la etiqueta
+ * {@code result}: {@code hit} (fresca), {@code stale} (obsoleta, revalidando)
+ * o {@code miss} (carga).
+ */
+@Component
+public class UpstreamSnapshotCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(UpstreamSnapshotCache.class);
+
+	private final Map<String, Entry<?>> entries = new ConcurrentHashMap<>();
+	private final SingleFlight<Flight, Object> singleFlight = new SingleFlight<>();
+	private final AtomicLong generation = new AtomicLong();
+	private final long ttlNanos;
+	private final long maxStaleNanos;
+	private final Counter hits;
+	private final Counter staleHits;
+	private final Counter misses;
+
+	@Autowired
+	public UpstreamSnapshotCache(@Value("${album.upstream.cache.ttl-ms:60000}") long ttlMs,
+			@Value("${album.upstream.cache.max-stale-ms:600000}") long maxStaleMs, MeterRegistry meterRegistry) {
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+		this.maxStaleNanos = TimeUnit.MILLISECONDS.toNanos(maxStaleMs);
+		this.hits = meterRegistry.counter("album.upstream.cache", "result", "hit");
+		this.staleHits = meterRegistry.counter("album.upstream.cache", "result", "stale");
+		this.misses = meterRegistry.counter("album.upstream.cache", "result", "miss");
+		FunctionCounter.builder("album.upstream.fetch.coalesced", singleFlight, SingleFlight::getCoalescedCount)
+				.description("Llamadas que se han unido a una descarga upstream ya en curso").register(meterRegistry);
+		Gauge.builder("album.upstream.fetch.in_flight", singleFlight, SingleFlight::getInFlightCount)
+				.description("Descargas upstream en curso").register(meterRegistry);
+	}
+
+	/**
+	 * Devuelve la instantanea asociada a la clave. Si no existe o ha superado el
+	 * maximo de obsolescencia se carga con el loader; si esta obsoleta pero dentro
+	 * del margen se devuelve inmediatamente y se lanza una revalidacion asincrona
+	 * con el mismo loader.
+	 *
+	 * @param key    clave del recurso upstream
+	 * @param loader funcion que descarga el recurso a partir de la instantanea
+	 *               anterior
+	 * @return futuro con la instantanea
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> CompletableFuture<T> get(String key, Function<T, CompletableFuture<T>> loader) {
+		Entry<T> entry = (Entry<T>) entries.get(key);
+		long now = System.nanoTime();
+		if (entry == null || entry.age(now) > ttlNanos + maxStaleNanos) {
+			misses.increment();
+			return load(key, null, loader);
+		}
+		if (entry.age(now) > ttlNanos) {
+			staleHits.increment();
+			revalidate(key, entry, loader);
+		} else {
+			hits.increment();
+		}
+		return CompletableFuture.completedFuture(entry.value);
+	}
+
+	/**
+	 * Revalida la instantanea asociada a la clave sin tener en cuenta el TTL,
+	 * manteniendo la anterior hasta que la nueva este disponible.
+	 *
+	 * @param key    clave del recurso upstream
+	 * @param loader funcion que descarga el recurso a partir de la instantanea
+	 *               anterior
+	 * @return futuro con la instantanea revalidada
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> CompletableFuture<T> refresh(String key, Function<T, CompletableFuture<T>> loader) {
+		Entry<T> entry = (Entry<T>) entries.get(key);
+		return load(key, entry == null ? null : entry.value, loader);
+	}
+
+	/**
+	 * Elimina todas las instantaneas, forzando una carga en el siguiente acceso.
+	 * Las descargas en curso terminan, pero su resultado no se guarda.
+	 */
+	public void invalidateAll() {
+		generation.incrementAndGet();
+		entries.clear();
+	}
+
+	/**
+	 * @return numero de llamadas que han compartido una descarga ya en curso
+	 */
+	public long getCoalescedCount() {
+		return singleFlight.getCoalescedCount();
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> CompletableFuture<T> load(String key, T previous, Function<T, CompletableFuture<T>> loader) {
+		long loadGeneration = generation.get();
+		CompletableFuture<?> shared = singleFlight.execute(new Flight(key, loadGeneration),
+				() -> loader.apply(previous).thenApply(value -> {
+					// Se comprueba dentro de compute: invalidateAll incrementa la generacion antes
+					// de vaciar el mapa, asi que un resultado anterior nunca sobrevive
+					entries.compute(key, (ignored, current) -> generation.get() == loadGeneration ? new Entry<>(value)
+							: current);
+					return value;
+				}));
+		return (CompletableFuture<T>) shared;
+	}
+
+	private <T> void revalidate(String key, Entry<T> entry, Function<T, CompletableFuture<T>> loader) {
+		if (!entry.refreshing.compareAndSet(false, true)) {
+			return; // Ya hay una revalidacion en curso
+		}
+		load(key, entry.value, loader).whenComplete((value, ex) -> {
+			if (ex != null) {
+				LOGGER.warn("Fallo al revalidar la cache upstream '{}', se mantiene la instantanea anterior", key, ex);
+			}
+			entry.refreshing.set(false);
+		});
+	}
+
+	private record Flight(String key, long generation) {
+	}
+
+	private static final class Entry<T> {
+		private final T value;
+		private final long loadedAt = System.nanoTime();
+		private final AtomicBoolean refreshing = new AtomicBoolean();
+
+		private Entry(T value) {
+			this.value = value;
+		}
+
+		private long age(long now) {
+			return now - loadedAt;
+		}
+	}
+}
@@ -1,29 +1,81 @@
 package com.example.albumphotoenrichment.config;
 
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
-import com.example.albumphotoenrichment.constant.AlbumPhotoConstants;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 
-import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import com.example.albumphotoenrichment.cache.EstimatedSizeWeigher;
+import com.example.albumphotoenrichment.constant.AlbumPhotoConstants;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 
 /**
  * Configuracion de cache para la aplicacion. Habilita la cache en la aplicacion
  * y define el gestor de cache.
+ * <p>
+ * Cada cache es una cache Caffeine (desalojo W-TinyLFU) configurada con una
+ * especificacion propia ({@code album.cache.<nombre>.spec}), por ejemplo
+ * {@code maximumWeight=67108864,expireAfterWrite=10m,expireAfterAccess=5m}.
+ * Con {@code maximumWeight} el peso de cada entrada es su tamano aproximado en
+ * bytes ({@link EstimatedSizeWeigher}), de forma que la cache queda acotada por
+ * memoria. Las caches siempre registran estadisticas; Actuator las publica como
+ * {@code cache.gets}, {@code cache.puts}, {@code cache.evictions} y
+ * {@code cache.size}, y el peso actual de cada una se publica en
+ * {@code album.cache.weight}.
  */
 @Configuration
 @EnableCaching
 public class CacheConfig {
+
 	/**
-	 * Define un gestor de cache que utiliza un ConcurrentMap para almacenar datos
-	 * en cache.
-	 * 
-	 * @return ConcurrentMapCacheManager gestor de cache
+	 * Define el gestor de cache con las caches de la aplicacion. Las caches que se
+	 * pidan por un nombre no configurado se crean con la especificacion por
+	 * defecto.
+	 *
+	 * @param meterRegistry registro de metricas
+	 * @param defaultSpec   especificacion de las caches no configuradas
+	 * @param albumsSpec    especificacion de la cache de albumes individuales
+	 *                      ({@link com.example.albumphotoenrichment.cache.AlbumDetailCache})
+	 * @return CaffeineCacheManager gestor de cache
 	 */
 	@Bean
-	public ConcurrentMapCacheManager cacheManager() {
-		return new ConcurrentMapCacheManager(AlbumPhotoConstants.CACHE_ALBUMS, AlbumPhotoConstants.CACHE_PHOTOS,
-				AlbumPhotoConstants.CACHE_ALBUMS_NO_DB);
+	public CaffeineCacheManager cacheManager(MeterRegistry meterRegistry,
+			@Value("${album.cache.default.spec:maximumWeight=16777216,expireAfterWrite=10m}") String defaultSpec,
+			@Value("${album.cache.albums.spec:maximumWeight=67108864,expireAfterWrite=1m}") String albumsSpec) {
+		CaffeineCacheManager cacheManager = new CaffeineCacheManager();
+		cacheManager.setCaffeine(builder(defaultSpec));
+		Map<String, String> specs = Map.of(AlbumPhotoConstants.CACHE_ALBUMS, albumsSpec);
+		specs.forEach((name, spec) -> {
+			Cache<Object, Object> cache = builder(spec).build();
+			cacheManager.registerCustomCache(name, cache);
+			Gauge.builder("album.cache.weight", cache, CacheConfig::weight).baseUnit("bytes").tag("cache", name)
+					.description("Peso actual de la cache (bytes estimados o entradas)").register(meterRegistry);
+		});
+		return cacheManager;
+	}
+
+	/**
+	 * Crea el constructor de una cache a partir de su especificacion. El pesador
+	 * solo se aplica si la especificacion limita por peso; con
+	 * {@code maximumSize} la cache se limita por numero de entradas.
+	 */
+	static Caffeine<Object, Object> builder(String spec) {
+		Caffeine<Object, Object> builder = Caffeine.from(spec);
+		if (!spec.contains("recordStats")) {
+			builder.recordStats();
+		}
+		return spec.contains("maximumWeight") ? builder.weigher(new EstimatedSizeWeigher()) : builder;
+	}
+
+	private static double weight(Cache<Object, Object> cache) {
+		return cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(cache.estimatedSize()))
+				.orElse(cache.estimatedSize());
 	}
 }
@@ -0,0 +1,13 @@
+package com.example.albumphotoenrichment.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Configuracion de tareas programadas. Habilita el {@code TaskScheduler} con el
+ * que se programa el refresco en segundo plano de la instantanea.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -8,13 +8,12 @@ public final class AlbumPhotoConstants {
 	}
 
 	// API URLs
-	public static final String ALBUMS_URL = "https://jsonplaceholder.typicode.com/albums";
-	public static final String PHOTOS_URL = "https://jsonplaceholder.typicode.com/photos";
+	public static final String UPSTREAM_BASE_URL = "https://jsonplaceholder.typicode.com";
+	public static final String ALBUMS_PATH = "/albums";
+	public static final String PHOTOS_PATH = "/photos";
 
 	// Nombres de la Cache
 	public static final String CACHE_ALBUMS = "albums";
-	public static final String CACHE_ALBUMS_NO_DB = "albums_no_db";
-	public static final String CACHE_PHOTOS = "photos";
 
 	// Configuracion Thread pool
 	public static final int THREAD_POOL_SIZE = 10;
@@ -25,9 +24,37 @@ public final class AlbumPhotoConstants {
 	public static final String PHOTOS = "photos";
 	public static final int MINIMUM_ARRAY_SIZE = 0;
 
+	// Modos de particionado de la descarga de fotos
+	public static final String PARTITION_NONE = "none";
+	public static final String PARTITION_ALBUM = "album";
+	public static final String PARTITION_OFFSET = "offset";
+
+	// Origen de las lecturas de GET /albums
+	public static final String READ_MODE_UPSTREAM = "upstream";
+	public static final String READ_MODE_DB = "db";
+
+	// Paginacion
+	public static final int DEFAULT_PAGE_SIZE = 20;
+	public static final int MAX_PAGE_SIZE = 1000;
+
+	// Temporizador de las fases del pipeline de enriquecimiento (etiqueta phase)
+	public static final String METRIC_PHASE = "album.phase";
+	public static final String PHASE_BUILD = "build";
+	public static final String PHASE_PERSIST = "persist";
+	public static final String PHASE_LOAD = "load";
+	public static final String PHASE_SERIALIZE = "serialize";
+	public static final String PHASE_INDEX = "index";
+	public static final String PHASE_SEARCH = "search";
+
 	// Mensajes de error
 	public static final String ERROR_FETCH_ALBUMS = "Failed to fetch albums";
 	public static final String ERROR_FETCH_PHOTOS = "Failed to fetch photos";
 	public static final String ERROR_PROCESS_ALBUMS_PHOTOS = "Failed to fetch or process albums and photos";
+	public static final String ERROR_INVALID_PAGE = "Invalid page or size";
+	public static final String ERROR_INVALID_FIELDS = "Unknown fields requested: ";
+	public static final String ERROR_ALBUM_NOT_FOUND = "Album not found: ";
+	public static final String ERROR_JOB_NOT_FOUND = "Refresh job not found: ";
+	public static final String ERROR_INVALID_SOURCE = "Unknown read source: ";
+	public static final String ERROR_INVALID_QUERY = "Invalid search query or limit";
 
 }
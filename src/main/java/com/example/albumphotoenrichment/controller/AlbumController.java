@@ -1,6 +1,12 @@
 package com.example.albumphotoenrichment.controller;
 
+import java.net.URI;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,13 +15,31 @@ import org.slf4j.LoggerFactory;
  * fotos.
  */
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import com.example.albumphotoenrichment.model.Album;
+import com.example.albumphotoenrichment.constant.AlbumPhotoConstants;
+import com.example.albumphotoenrichment.model.AlbumQuery;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.example.albumphotoenrichment.model.RefreshJobStatus;
+import com.example.albumphotoenrichment.model.SearchResult;
+import com.example.albumphotoenrichment.service.AlbumNdjsonWriter;
+import com.example.albumphotoenrichment.service.AlbumQueryService;
+import com.example.albumphotoenrichment.service.AlbumSearchService;
 import com.example.albumphotoenrichment.service.AlbumService;
+import com.example.albumphotoenrichment.service.RefreshJobService;
 
 @RestController
 @RequestMapping("/albums")
@@ -24,51 +48,286 @@ public class AlbumController {
 	private static final Logger LOGGER = LoggerFactory.getLogger(AlbumController.class);
 
 	private final AlbumService albumService;
+	private final AlbumQueryService albumQueryService;
+	private final AlbumNdjsonWriter albumNdjsonWriter;
+	private final RefreshJobService refreshJobService;
+	private final AlbumSearchService albumSearchService;
 
 	@Autowired
-	public AlbumController(AlbumService albumService) {
+	public AlbumController(AlbumService albumService, AlbumQueryService albumQueryService,
+			AlbumNdjsonWriter albumNdjsonWriter, RefreshJobService refreshJobService,
+			AlbumSearchService albumSearchService) {
 		this.albumService = albumService;
+		this.albumQueryService = albumQueryService;
+		this.albumNdjsonWriter = albumNdjsonWriter;
+		this.refreshJobService = refreshJobService;
+		this.albumSearchService = albumSearchService;
 	}
 
 	/**
-	 * Obtiene los álbumes con las fotos enriquecidas. Usa el método enrichAlbums
-	 * del servicio
+	 * Obtiene los álbumes con las fotos enriquecidas. Sin parametros de consulta
+	 * escribe directamente el JSON ya serializado de la instantanea del servicio
+	 * (comprimido con gzip si el cliente lo acepta) y responde 304 si el ETag de la
+	 * peticion coincide. Con parametros devuelve una pagina de albumes filtrada y
+	 * proyectada, resuelta con los indices de la instantanea.
+	 * <p>
+	 * Como el resto de endpoints es asincrono: el hilo del servlet se libera
+	 * mientras se espera al upstream o a la base de datos.
 	 * 
-	 * @return Lista de albumes enriquecidos
+	 * @param userId         filtro por usuario
+	 * @param page           pagina (desde 0)
+	 * @param size           albumes por pagina
+	 * @param cursor         id del ultimo album de la pagina anterior
+	 * @param fields         campos de album separados por comas
+	 * @param photoFields    campos de foto separados por comas
+	 * @param source         origen de los datos ({@code upstream} o {@code db})
+	 * @param acceptEncoding cabecera Accept-Encoding de la peticion
+	 * @param ifNoneMatch    cabecera If-None-Match de la peticion
+	 * @return JSON de los albumes enriquecidos o pagina de albumes
 	 */
 	@GetMapping
-	public List<Album> getAlbums() {
+	public CompletableFuture<ResponseEntity<?>> getAlbums(@RequestParam(required = false) Long userId,
+			@RequestParam(required = false) Integer page, @RequestParam(required = false) Integer size,
+			@RequestParam(required = false) Long cursor, @RequestParam(required = false) String fields,
+			@RequestParam(required = false) String photoFields, @RequestParam(required = false) String source,
+			@RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		Long iniTime = System.nanoTime();
+		AlbumQuery query = null;
+		if (userId != null || page != null || size != null || cursor != null || fields != null
+				|| photoFields != null) {
+			query = new AlbumQuery(userId, page == null ? 0 : page,
+					size == null ? AlbumPhotoConstants.DEFAULT_PAGE_SIZE : size, cursor,
+					parseFields(fields, AlbumQuery.ALBUM_FIELDS), parseFields(photoFields, AlbumQuery.PHOTO_FIELDS));
+			if (query.page() < 0 || query.size() < 1 || query.size() > AlbumPhotoConstants.MAX_PAGE_SIZE) {
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, AlbumPhotoConstants.ERROR_INVALID_PAGE);
+			}
+		}
+		AlbumQuery albumQuery = query;
+		boolean gzip = acceptsGzip(acceptEncoding);
+		return timed("getAlbums", iniTime, snapshot(source).<ResponseEntity<?>>thenApply(snapshot -> albumQuery != null
+				? ResponseEntity.ok(albumQueryService.query(snapshot, albumQuery))
+				: serialized(snapshot, gzip, ifNoneMatch)));
+	}
+
+	private static ResponseEntity<byte[]> serialized(EnrichedSnapshot snapshot, boolean gzip, String ifNoneMatch) {
+		String etag = gzip ? snapshot.getGzipEtag() : snapshot.getEtag();
+		if (matchesEtag(ifNoneMatch, etag)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+		}
+		ResponseEntity.BodyBuilder builder = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).eTag(etag)
+				.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		return gzip ? builder.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(snapshot.getGzipJson())
+				: builder.body(snapshot.getJson());
+	}
+
+	/**
+	 * Indica si Accept-Encoding admite gzip: el token {@code gzip} (o su alias
+	 * {@code x-gzip}) o, si no aparece, el comodin {@code *}, en ambos casos con
+	 * q mayor que 0.
+	 */
+	static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		Double gzipQuality = null;
+		Double anyQuality = null;
+		for (String element : acceptEncoding.split(",")) {
+			String[] parts = element.split(";");
+			String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+			double quality = 1.0;
+			for (int i = 1; i < parts.length; i++) {
+				String parameter = parts[i].trim();
+				if (parameter.length() > 2 && parameter.substring(0, 2).equalsIgnoreCase("q=")) {
+					try {
+						quality = Double.parseDouble(parameter.substring(2).trim());
+					} catch (NumberFormatException e) {
+						quality = 0;
+					}
+				}
+			}
+			if (coding.equals("gzip") || coding.equals("x-gzip")) {
+				gzipQuality = gzipQuality == null ? quality : Math.max(gzipQuality, quality);
+			} else if (coding.equals("*")) {
+				anyQuality = quality;
+			}
+		}
+		return gzipQuality != null ? gzipQuality > 0 : anyQuality != null && anyQuality > 0;
+	}
+
+	/**
+	 * Comparacion debil de If-None-Match: la respuesta se resuelve fuera del hilo
+	 * del servlet, asi que no puede usarse WebRequest.checkNotModified.
+	 */
+	private static boolean matchesEtag(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			String tag = candidate.trim();
+			if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Obtiene los álbumes con las fotos enriquecidas en streaming NDJSON, un album
+	 * por linea, cuando el cliente envia {@code Accept: application/x-ndjson}.
+	 * 
+	 * @param source origen de los datos ({@code upstream} o {@code db})
+	 * @return albumes enriquecidos en NDJSON
+	 */
+	@GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public CompletableFuture<ResponseEntity<StreamingResponseBody>> getAlbumsNdjson(
+			@RequestParam(required = false) String source) {
+		Long iniTime = System.nanoTime();
+		return timed("getAlbumsNdjson", iniTime, snapshot(source).thenApply(snapshot -> ndjson(snapshot.getAlbums())));
+	}
+
+	/**
+	 * Obtiene un unico album con sus fotos. Se resuelve con el indice por id de la
+	 * instantanea o, si aun no existe, descargando solo ese album.
+	 * 
+	 * @param id id del album
+	 * @return album enriquecido
+	 */
+	@GetMapping("/{id}")
+	public CompletableFuture<AlbumView> getAlbum(@PathVariable Long id) {
 		Long iniTime = System.nanoTime();
-		List<Album> albums = albumService.enrichAlbums();
-		LOGGER.info("FIN EJECUCION DEL METODO getAlbums() - TIEMPO: {} ns", System.nanoTime() - iniTime);
-		return albums;
+		return timed("getAlbum", iniTime, albumService.getAlbumAsync(id).thenApply(album -> {
+			if (album == null) {
+				throw new ResponseStatusException(HttpStatus.NOT_FOUND, AlbumPhotoConstants.ERROR_ALBUM_NOT_FOUND + id);
+			}
+			return album;
+		}));
+	}
+
+	/**
+	 * Busca albumes y fotos por titulo con el indice invertido de la instantanea.
+	 * Todos los terminos deben aparecer en el titulo, como palabra completa o,
+	 * desde 3 caracteres, contenidos en una palabra.
+	 * 
+	 * @param q     terminos de busqueda
+	 * @param limit numero maximo de resultados
+	 * @return resultados ordenados por puntuacion
+	 */
+	@GetMapping("/search")
+	public CompletableFuture<SearchResult> searchAlbums(@RequestParam(required = false) String q,
+			@RequestParam(required = false) Integer limit) {
+		Long iniTime = System.nanoTime();
+		int max = limit == null ? AlbumPhotoConstants.DEFAULT_PAGE_SIZE : limit;
+		if (q == null || q.isBlank() || max < 1 || max > AlbumPhotoConstants.MAX_PAGE_SIZE) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, AlbumPhotoConstants.ERROR_INVALID_QUERY);
+		}
+		return timed("searchAlbums", iniTime, albumSearchService.search(q, max));
+	}
+
+	private CompletableFuture<EnrichedSnapshot> snapshot(String source) {
+		if (source != null && !AlbumPhotoConstants.READ_MODE_UPSTREAM.equals(source)
+				&& !AlbumPhotoConstants.READ_MODE_DB.equals(source)) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, AlbumPhotoConstants.ERROR_INVALID_SOURCE + source);
+		}
+		return albumService.getSnapshotAsync(source);
+	}
+
+	private ResponseEntity<StreamingResponseBody> ndjson(List<AlbumView> albums) {
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+				.body(albumNdjsonWriter.stream(albums));
+	}
+
+	private static <T> CompletableFuture<T> timed(String method, Long iniTime, CompletableFuture<T> future) {
+		return future.whenComplete((result, ex) -> LOGGER.info("FIN EJECUCION DEL METODO {}() - TIEMPO: {} ns", method,
+				System.nanoTime() - iniTime));
+	}
+
+	private static Set<String> parseFields(String fields, Set<String> allowed) {
+		if (fields == null) {
+			return allowed;
+		}
+		Set<String> requested = Arrays.stream(fields.split(",")).map(String::trim).filter(field -> !field.isEmpty())
+				.collect(Collectors.toSet());
+		if (!allowed.containsAll(requested)) {
+			requested.removeAll(allowed);
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, AlbumPhotoConstants.ERROR_INVALID_FIELDS + requested);
+		}
+		return requested;
 	}
 
 	/**
 	 * Refresca los datos en caché y los devuelve sin guardarlos en la base de
-	 * datos. Usa el método refreshAlbums del servicio
+	 * datos. Usa el método refreshSnapshotAsync del servicio
 	 * 
 	 * @return Lista de albumes enriquecidos
 	 */
 	@PutMapping("/refresh")
-	public List<Album> refreshAlbums() {
+	public CompletableFuture<List<AlbumView>> refreshAlbums() {
 		Long iniTime = System.nanoTime();
-		List<Album> albums = albumService.refreshAlbums();
-		LOGGER.info("FIN EJECUCION DEL METODO refreshAlbums() - TIEMPO: {} ns", System.nanoTime() - iniTime);
-		return albums;
+		return timed("refreshAlbums", iniTime, albumService.refreshSnapshotAsync().thenApply(EnrichedSnapshot::getAlbums));
+	}
+
+	/**
+	 * Variante NDJSON de {@link #refreshAlbums()}: un album por linea en streaming.
+	 * 
+	 * @return albumes enriquecidos en NDJSON
+	 */
+	@PutMapping(value = "/refresh", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public CompletableFuture<ResponseEntity<StreamingResponseBody>> refreshAlbumsNdjson() {
+		Long iniTime = System.nanoTime();
+		return timed("refreshAlbumsNdjson", iniTime,
+				albumService.refreshSnapshotAsync().thenApply(snapshot -> ndjson(snapshot.getAlbums())));
 	}
 
 	/**
 	 * Refresca los datos en caché y los guarda en la base de datos. Usa el método
-	 * refreshAlbumsAndSave del servicio
+	 * refreshAlbumsAndSaveAsync del servicio
 	 * 
 	 * @return Lista de albumes enriquecidos
 	 */
 	@PutMapping("/refresh-and-save")
-	public List<Album> refreshAndSaveAlbums() {
+	public CompletableFuture<List<AlbumView>> refreshAndSaveAlbums() {
 		Long iniTime = System.nanoTime();
-		List<Album> albums = albumService.refreshAlbumsAndSave();
-		LOGGER.info("FIN EJECUCION DEL METODO refreshAndSaveAlbums() - TIEMPO: {} ns", System.nanoTime() - iniTime);
-		return albums;
+		return timed("refreshAndSaveAlbums", iniTime, albumService.refreshAlbumsAndSaveAsync());
+	}
+
+	/**
+	 * Variante NDJSON de {@link #refreshAndSaveAlbums()}: un album por linea en streaming.
+	 * 
+	 * @return albumes enriquecidos en NDJSON
+	 */
+	@PutMapping(value = "/refresh-and-save", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public CompletableFuture<ResponseEntity<StreamingResponseBody>> refreshAndSaveAlbumsNdjson() {
+		Long iniTime = System.nanoTime();
+		return timed("refreshAndSaveAlbumsNdjson", iniTime, albumService.refreshAlbumsAndSaveAsync().thenApply(this::ndjson));
+	}
+
+	/**
+	 * Modo trabajo de {@link #refreshAndSaveAlbums()}: lanza el refresco y
+	 * guardado en segundo plano y responde 202 con el estado inicial del trabajo
+	 * y su URL en la cabecera Location.
+	 * 
+	 * @return estado inicial del trabajo
+	 */
+	@PutMapping(value = "/refresh-and-save", params = "async=true")
+	public ResponseEntity<RefreshJobStatus> startRefreshAndSaveJob() {
+		RefreshJobStatus status = refreshJobService.start();
+		return ResponseEntity.accepted().location(URI.create("/albums/jobs/" + status.id())).body(status);
+	}
+
+	/**
+	 * Obtiene el estado de un trabajo de refresco y guardado: fase, bloques y filas
+	 * escritos, filas por segundo y errores.
+	 * 
+	 * @param id id del trabajo
+	 * @return estado del trabajo
+	 */
+	@GetMapping("/jobs/{id}")
+	public RefreshJobStatus getRefreshJob(@PathVariable String id) {
+		RefreshJobStatus status = refreshJobService.getStatus(id);
+		if (status == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, AlbumPhotoConstants.ERROR_JOB_NOT_FOUND + id);
+		}
+		return status;
 	}
 }
@@ -0,0 +1,53 @@
+package com.example.albumphotoenrichment.controller;
+
+import java.net.ConnectException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
+
+import com.example.albumphotoenrichment.service.UpstreamStatusException;
+
+/**
+ * Traduce los fallos de las peticiones asincronas a codigos HTTP. Los futuros
+ * que fallan llegan aqui con la causa original (Spring desenvuelve la
+ * CompletionException):
+ * <ul>
+ * <li>504: la peticion ha superado {@code spring.mvc.async.request-timeout} o
+ * el upstream no ha respondido a tiempo.</li>
+ * <li>502: no se ha podido comunicar con el upstream o ha respondido con un
+ * estado de error ({@link UpstreamStatusException}). El resto de excepciones
+ * no se consideran fallos del upstream.</li>
+ * <li>503: la cola del executor esta llena y la tarea se ha rechazado.</li>
+ * </ul>
+ */
+@RestControllerAdvice
+public class AlbumExceptionHandler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AlbumExceptionHandler.class);
+
+	@ExceptionHandler({ AsyncRequestTimeoutException.class, TimeoutException.class, HttpTimeoutException.class })
+	public ProblemDetail handleTimeout(Exception e) {
+		LOGGER.warn("Tiempo maximo de la peticion superado: {}", e.toString());
+		return ProblemDetail.forStatusAndDetail(HttpStatus.GATEWAY_TIMEOUT, "Upstream request timed out");
+	}
+
+	@ExceptionHandler({ ConnectException.class, UpstreamStatusException.class })
+	public ProblemDetail handleUpstreamFailure(Exception e) {
+		LOGGER.warn("Fallo de comunicacion con el upstream: {}", e.toString());
+		return ProblemDetail.forStatusAndDetail(HttpStatus.BAD_GATEWAY, "Upstream request failed");
+	}
+
+	@ExceptionHandler(RejectedExecutionException.class)
+	public ProblemDetail handleRejected(RejectedExecutionException e) {
+		LOGGER.warn("Tarea rechazada por el executor: {}", e.toString());
+		return ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE, "Server busy, retry later");
+	}
+}
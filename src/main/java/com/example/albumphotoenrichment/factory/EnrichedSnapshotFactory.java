@@ -0,0 +1,111 @@
+package com.example.albumphotoenrichment.factory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Construye instantaneas inmutables de albumes enriquecidos: une albumes y
+ * fotos, serializa el resultado a JSON una sola vez, lo comprime con gzip y
+ * calcula su ETag. La union y serializacion puede hacerse de una vez o por
+ * particiones con un {@link SnapshotAssembler}.
+ */
+@Service
+public class EnrichedSnapshotFactory {
+
+	private final ObjectWriter albumWriter;
+
+	@Autowired
+	public EnrichedSnapshotFactory(ObjectMapper objectMapper) {
+		this.albumWriter = objectMapper.writerFor(AlbumView.class);
+	}
+
+	/**
+	 * Crea la instantanea. Los albumes upstream no se modifican: cada album
+	 * enriquecido es una copia que referencia la lista de fotos de su album.
+	 *
+	 * @param albums        albumes upstream
+	 * @param photosByAlbum fotos upstream agrupadas por album
+	 * @return instantanea inmutable
+	 */
+	public EnrichedSnapshot create(List<AlbumView> albums, Map<Long, List<PhotoView>> photosByAlbum) {
+		return newAssembler(albums, Runnable::run).finish(photosByAlbum);
+	}
+
+	/**
+	 * Reconstruye una instantanea guardada a partir de sus representaciones ya
+	 * serializadas, sin volver a serializar ni comprimir.
+	 *
+	 * @param albums        albumes upstream
+	 * @param photosByAlbum fotos upstream agrupadas por album
+	 * @param json          JSON de la instantanea guardada
+	 * @param gzipJson      JSON comprimido con gzip
+	 * @param etag          ETag del JSON
+	 * @return instantanea inmutable
+	 */
+	public EnrichedSnapshot restore(List<AlbumView> albums, Map<Long, List<PhotoView>> photosByAlbum, byte[] json,
+			byte[] gzipJson, String etag) {
+		List<AlbumView> enriched = new ArrayList<>(albums.size());
+		albums.forEach(album -> enriched.add(enrich(album, photosByAlbum.get(album.id()))));
+		return new EnrichedSnapshot(enriched, json, gzipJson, etag, albums, photosByAlbum);
+	}
+
+	/**
+	 * Crea un ensamblador para construir la instantanea a medida que llegan las
+	 * particiones de fotos.
+	 *
+	 * @param albums   albumes upstream
+	 * @param executor executor en el que se unen y serializan las particiones
+	 * @return ensamblador de la instantanea
+	 */
+	public SnapshotAssembler newAssembler(List<AlbumView> albums, Executor executor) {
+		return new SnapshotAssembler(this, albumWriter, albums, executor);
+	}
+
+	static AlbumView enrich(AlbumView album, List<PhotoView> photos) {
+		return album.withPhotos(photos);
+	}
+
+	EnrichedSnapshot build(List<AlbumView> enriched, byte[] json, List<AlbumView> albums,
+			Map<Long, List<PhotoView>> photosByAlbum) {
+		try {
+			return new EnrichedSnapshot(enriched, json, gzip(json), etag(json), albums, photosByAlbum);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(data);
+		}
+		return out.toByteArray();
+	}
+
+	private static String etag(byte[] data) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+			return "\"" + HexFormat.of().formatHex(digest) + "\"";
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
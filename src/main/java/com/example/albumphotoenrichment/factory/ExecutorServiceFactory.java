@@ -1,16 +1,210 @@
 package com.example.albumphotoenrichment.factory;
 
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+import com.example.albumphotoenrichment.constant.AlbumPhotoConstants;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Crea y gestiona los executors de la aplicacion. Hay dos, configurables por
+ * separado para poder ajustar la E/S bloqueante y el trabajo de CPU (union y
+ * serializacion de instantaneas) de forma independiente:
+ * <ul>
+ * <li>{@code io} ({@code album.executor.io.*}): escrituras en base de datos y
+ * otras tareas bloqueantes.</li>
+ * <li>{@code compute} ({@code album.executor.compute.*}): construccion de las
+ * instantaneas enriquecidas.</li>
+ * </ul>
+ * Cada uno admite tres modos:
+ * <ul>
+ * <li>{@code virtual}: un hilo virtual por tarea.</li>
+ * <li>{@code bounded}: pool de hilos de plataforma de tamano fijo con cola
+ * acotada; si la cola se llena la tarea se rechaza con
+ * {@link java.util.concurrent.RejectedExecutionException}.</li>
+ * <li>{@code fork-join}: el ForkJoinPool comun de la JVM.</li>
+ * </ul>
+ * El rechazo es inmediato a proposito: muchas tareas se envian desde los hilos
+ * de respuesta del HttpClient, y ejecutarlas en el hilo que las envia (como
+ * haria {@code CallerRunsPolicy}) bloquearia la entrega de las demas respuestas
+ * mientras se une o se escribe en base de datos. Quien envia la tarea convierte
+ * el rechazo en un futuro fallido (503 en las peticiones HTTP) o la aplaza.
+ * <p>
+ * Los executors se registran en Micrometer (hilos activos, tareas en cola,
+ * tiempo de espera en {@code executor.idle} y tiempo de ejecucion en
+ * {@code executor}, con la etiqueta {@code name}) y se cierran de forma ordenada
+ * al parar el contexto de Spring. Micrometer no sabe medir el executor de hilos
+ * virtuales, asi que en ese modo se publican ademas las tareas en curso en
+ * {@code executor.active} y las terminadas en {@code executor.completed}.
+ */
 @Service
 public class ExecutorServiceFactory {
 
-	private static final ExecutorService INSTANCE = Executors.newFixedThreadPool(10);
+	private static final Logger LOGGER = LoggerFactory.getLogger(ExecutorServiceFactory.class);
+
+	public static final String MODE_VIRTUAL = "virtual";
+	public static final String MODE_BOUNDED = "bounded";
+	public static final String MODE_FORK_JOIN = "fork-join";
+
+	private final ExecutorService ioExecutor;
+	private final ExecutorService computeExecutor;
+	private final List<ExecutorService> owned;
+	private final long shutdownTimeoutMs;
+
+	@Autowired
+	public ExecutorServiceFactory(MeterRegistry meterRegistry,
+			@Value("${album.executor.io.mode:" + MODE_BOUNDED + "}") String ioMode,
+			@Value("${album.executor.io.pool-size:" + AlbumPhotoConstants.THREAD_POOL_SIZE + "}") int ioPoolSize,
+			@Value("${album.executor.io.queue-capacity:1000}") int ioQueueCapacity,
+			@Value("${album.executor.compute.mode:" + MODE_BOUNDED + "}") String computeMode,
+			@Value("${album.executor.compute.pool-size:0}") int computePoolSize,
+			@Value("${album.executor.compute.queue-capacity:100}") int computeQueueCapacity,
+			@Value("${album.executor.shutdown-timeout-ms:10000}") long shutdownTimeoutMs) {
+		ExecutorService io = create("io", ioMode, ioPoolSize, ioQueueCapacity);
+		ExecutorService compute = create("compute", computeMode,
+				computePoolSize > 0 ? computePoolSize : Runtime.getRuntime().availableProcessors(),
+				computeQueueCapacity);
+		this.owned = List.of(io, compute).stream().filter(executor -> executor != ForkJoinPool.commonPool()).toList();
+		this.ioExecutor = monitor(meterRegistry, io, "album.io");
+		this.computeExecutor = monitor(meterRegistry, compute, "album.compute");
+		this.shutdownTimeoutMs = shutdownTimeoutMs;
+		LOGGER.info("Executors creados: io={}, compute={}", ioMode, computeMode);
+	}
 
+	/**
+	 * @return executor compartido para E/S bloqueante
+	 */
 	public ExecutorService createExecutorService() {
-		return INSTANCE;
+		return ioExecutor;
+	}
+
+	/**
+	 * @return executor compartido para trabajo de CPU
+	 */
+	public ExecutorService createComputeExecutorService() {
+		return computeExecutor;
+	}
+
+	/**
+	 * Deja de aceptar tareas y espera a que terminen las que estan en curso; pasado
+	 * el tiempo maximo las interrumpe. El ForkJoinPool comun no se cierra.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		owned.forEach(ExecutorService::shutdown);
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMs);
+		for (ExecutorService executor : owned) {
+			try {
+				if (!executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+					LOGGER.warn("El executor no ha terminado en {} ms, se interrumpen sus tareas", shutdownTimeoutMs);
+					executor.shutdownNow();
+				}
+			} catch (InterruptedException e) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static ExecutorService create(String name, String mode, int poolSize, int queueCapacity) {
+		return switch (mode) {
+		case MODE_VIRTUAL ->
+			Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("album-" + name + "-", 0).factory());
+		case MODE_FORK_JOIN -> ForkJoinPool.commonPool();
+		case MODE_BOUNDED -> new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("album-" + name + "-"),
+				new ThreadPoolExecutor.AbortPolicy());
+		default -> throw new IllegalArgumentException("Unknown executor mode for " + name + ": " + mode);
+		};
+	}
+
+	private static ExecutorService monitor(MeterRegistry meterRegistry, ExecutorService executor, String name) {
+		ExecutorService measured = executor instanceof ThreadPoolExecutor || executor instanceof ForkJoinPool
+				? executor
+				: new InFlightExecutorService(executor, meterRegistry, name);
+		return ExecutorServiceMetrics.monitor(meterRegistry, measured, name, Tags.empty());
+	}
+
+	/**
+	 * Cuenta las tareas en curso y terminadas de un executor que Micrometer no
+	 * sabe medir (hilos virtuales).
+	 */
+	private static final class InFlightExecutorService extends AbstractExecutorService {
+
+		private final ExecutorService delegate;
+		private final AtomicInteger active = new AtomicInteger();
+		private final Counter completed;
+
+		private InFlightExecutorService(ExecutorService delegate, MeterRegistry meterRegistry, String name) {
+			this.delegate = delegate;
+			this.completed = Counter.builder("executor.completed").tag("name", name).baseUnit("tasks")
+					.register(meterRegistry);
+			Gauge.builder("executor.active", active, AtomicInteger::get).tag("name", name).baseUnit("tasks")
+					.register(meterRegistry);
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			active.incrementAndGet();
+			try {
+				delegate.execute(() -> {
+					try {
+						command.run();
+					} finally {
+						active.decrementAndGet();
+						completed.increment();
+					}
+				});
+			} catch (RuntimeException e) {
+				active.decrementAndGet(); // Rechazada: nunca llega a ejecutarse
+				throw e;
+			}
+		}
+
+		@Override
+		public void shutdown() {
+			delegate.shutdown();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return delegate.shutdownNow();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return delegate.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return delegate.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			return delegate.awaitTermination(timeout, unit);
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,75 @@
+package com.example.albumphotoenrichment.factory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import com.example.albumphotoenrichment.constant.AlbumPhotoConstants;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Crea el cliente HTTP asincrono compartido para las llamadas al upstream. Usa
+ * {@link HttpClient} del JDK: negocia HTTP/2 (varias peticiones multiplexadas
+ * sobre una conexion) y reutiliza las conexiones HTTP/1.1 con keep-alive. Las
+ * peticiones no ocupan ningun hilo mientras esperan a la red.
+ * <p>
+ * Los tiempos maximos se configuran con
+ * {@code album.upstream.connect-timeout-ms} (establecer la conexion) y
+ * {@code album.upstream.read-timeout-ms} (recibir las cabeceras de la respuesta
+ * y, de nuevo, leer el cuerpo completo).
+ */
+@Service
+public class HttpClientFactory {
+
+	private final HttpClient httpClient;
+	private final Duration readTimeout;
+
+	@Autowired
+	public HttpClientFactory(
+			@Value("${album.upstream.connect-timeout-ms:" + AlbumPhotoConstants.TIMEOUT_MS + "}") long connectTimeoutMs,
+			@Value("${album.upstream.read-timeout-ms:30000}") long readTimeoutMs) {
+		this.httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2)
+				.connectTimeout(Duration.ofMillis(connectTimeoutMs)).followRedirects(HttpClient.Redirect.NORMAL)
+				.build();
+		this.readTimeout = Duration.ofMillis(readTimeoutMs);
+	}
+
+	/**
+	 * @return cliente HTTP compartido
+	 */
+	public HttpClient createHttpClient() {
+		return httpClient;
+	}
+
+	/**
+	 * @param url url del recurso
+	 * @return peticion GET de JSON con el tiempo maximo de lectura aplicado
+	 */
+	public HttpRequest.Builder newRequest(String url) {
+		return HttpRequest.newBuilder(URI.create(url)).timeout(readTimeout)
+				.header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE).GET();
+	}
+
+	/**
+	 * @return tiempo maximo de lectura
+	 */
+	public Duration getReadTimeout() {
+		return readTimeout;
+	}
+
+	/**
+	 * Deja de aceptar peticiones; las que estan en curso terminan normalmente.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		httpClient.shutdown();
+	}
+}
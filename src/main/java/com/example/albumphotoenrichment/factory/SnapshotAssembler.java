@@ -0,0 +1,130 @@
+package com.example.albumphotoenrichment.factory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Construye una instantanea de forma incremental: cada particion de fotos que
+ * llega del upstream se une con sus albumes y se serializa en segundo plano,
+ * mientras el resto de particiones siguen descargandose. Al terminar solo queda
+ * serializar los albumes que no se han recibido en ninguna particion y
+ * concatenar los fragmentos JSON.
+ * <p>
+ * Un fragmento solo se reutiliza si se serializo con la misma lista de fotos
+ * (la misma o con el mismo contenido) que la del mapa final, de forma que el
+ * resultado es siempre igual al de serializar la instantanea completa de una
+ * vez aunque una particion adelantada resulte estar incompleta. Entre vistas de
+ * {@link com.example.albumphotoenrichment.model.PhotoColumns} la comparacion se
+ * hace sobre las columnas, sin crear fotos.
+ */
+public final class SnapshotAssembler {
+
+	private final EnrichedSnapshotFactory factory;
+	private final ObjectWriter albumWriter;
+	private final List<AlbumView> albums;
+	private final Map<Long, AlbumView> albumsById;
+	private final Executor executor;
+	private final Map<Long, Fragment> fragments = new ConcurrentHashMap<>();
+	private final List<CompletableFuture<Void>> pending = Collections.synchronizedList(new ArrayList<>());
+
+	SnapshotAssembler(EnrichedSnapshotFactory factory, ObjectWriter albumWriter, List<AlbumView> albums,
+			Executor executor) {
+		this.factory = factory;
+		this.albumWriter = albumWriter;
+		this.albums = albums;
+		this.albumsById = new HashMap<>();
+		albums.forEach(album -> albumsById.put(album.id(), album));
+		this.executor = executor;
+	}
+
+	/**
+	 * @return albumes upstream a partir de los que se construye la instantanea
+	 */
+	public List<AlbumView> getAlbums() {
+		return albums;
+	}
+
+	/**
+	 * Une y serializa en segundo plano los albumes de una particion. Si algun album
+	 * no tiene aun todas sus fotos, su fragmento se descarta en
+	 * {@link #finish(Map)}. Si el executor rechaza la tarea, sus albumes se
+	 * serializan al terminar.
+	 *
+	 * @param photosByAlbum fotos de la particion agrupadas por album
+	 */
+	public void addPartition(Map<Long, List<PhotoView>> photosByAlbum) {
+		try {
+			pending.add(CompletableFuture.runAsync(() -> photosByAlbum.forEach((albumId, photos) -> {
+				AlbumView album = albumsById.get(albumId);
+				if (album != null) {
+					fragments.put(albumId,
+							new Fragment(photos, serialize(EnrichedSnapshotFactory.enrich(album, photos))));
+				}
+			}), executor));
+		} catch (RejectedExecutionException e) {
+			// Cola de calculo llena: no se adelanta trabajo en el hilo que entrega la particion
+		}
+	}
+
+	/**
+	 * @return futuro que termina cuando se han procesado todas las particiones
+	 *         recibidas
+	 */
+	public CompletableFuture<Void> awaitPartitions() {
+		return CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new));
+	}
+
+	/**
+	 * Espera a las particiones pendientes y compone la instantanea.
+	 *
+	 * @param photosByAlbum fotos upstream completas agrupadas por album
+	 * @return instantanea inmutable
+	 */
+	public EnrichedSnapshot finish(Map<Long, List<PhotoView>> photosByAlbum) {
+		awaitPartitions().join();
+		List<AlbumView> enriched = new ArrayList<>(albums.size());
+		ByteArrayOutputStream json = new ByteArrayOutputStream();
+		json.write('[');
+		for (AlbumView album : albums) {
+			List<PhotoView> photos = photosByAlbum.get(album.id());
+			AlbumView copy = EnrichedSnapshotFactory.enrich(album, photos);
+			Fragment fragment = fragments.get(album.id());
+			byte[] bytes = fragment != null && (fragment.photos() == photos || fragment.photos().equals(photos))
+					? fragment.json()
+					: serialize(copy);
+			if (!enriched.isEmpty()) {
+				json.write(',');
+			}
+			json.writeBytes(bytes);
+			enriched.add(copy);
+		}
+		json.write(']');
+		return factory.build(enriched, json.toByteArray(), albums, photosByAlbum);
+	}
+
+	private byte[] serialize(AlbumView album) {
+		try {
+			return albumWriter.writeValueAsBytes(album);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private record Fragment(List<PhotoView> photos, byte[] json) {
+	}
+}
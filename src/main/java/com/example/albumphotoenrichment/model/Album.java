@@ -5,19 +5,17 @@ import java.util.List;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Entity;
 import jakarta.persistence.FetchType;
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.OneToMany;
 
 /**
- * Modelo que representa un album.
+ * Modelo que representa un album. El id es el del upstream, igual que en
+ * {@link Photo}, para poder comparar lo guardado con cada nueva instantanea.
  */
 @Entity
 public class Album {
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
 	private Long id;
 	private Long userId;
 	private String title;
@@ -0,0 +1,18 @@
+package com.example.albumphotoenrichment.model;
+
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Pagina de albumes proyectados.
+ *
+ * @param items      albumes de la pagina con los campos solicitados
+ * @param page       pagina devuelta (desde 0)
+ * @param size       tamano de pagina solicitado
+ * @param total      total de albumes que cumplen el filtro
+ * @param nextCursor cursor para pedir la pagina siguiente, o null si es la
+ *                   ultima
+ */
+public record AlbumPage(List<JsonNode> items, int page, int size, int total, Long nextCursor) {
+}
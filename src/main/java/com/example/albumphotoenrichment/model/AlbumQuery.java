@@ -0,0 +1,20 @@
+package com.example.albumphotoenrichment.model;
+
+import java.util.Set;
+
+/**
+ * Consulta paginada, filtrada y proyectada sobre los albumes enriquecidos.
+ *
+ * @param userId      filtro por usuario, o null para todos
+ * @param page        pagina (desde 0), ignorada si hay cursor
+ * @param size        albumes por pagina
+ * @param cursor      id del ultimo album devuelto en la pagina anterior, o null
+ * @param fields      campos de album a devolver (id, userId, title, photos)
+ * @param photoFields campos de foto a devolver (id, albumId, title, url,
+ *                    thumbnailUrl)
+ */
+public record AlbumQuery(Long userId, int page, int size, Long cursor, Set<String> fields, Set<String> photoFields) {
+
+	public static final Set<String> ALBUM_FIELDS = Set.of("id", "userId", "title", "photos");
+	public static final Set<String> PHOTO_FIELDS = Set.of("id", "albumId", "title", "url", "thumbnailUrl");
+}
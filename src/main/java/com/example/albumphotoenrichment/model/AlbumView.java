@@ -0,0 +1,37 @@
+package com.example.albumphotoenrichment.model;
+
+import java.util.List;
+
+/**
+ * Album del modelo de lectura: inmutable, se construye una vez por refresco y
+ * se comparte entre peticiones e hilos sin sincronizacion. Los albumes del
+ * upstream se deserializan sin fotos ({@code photos} null) y se enriquecen con
+ * {@link #withPhotos(List)}, que crea una copia. La entidad {@link Album} solo
+ * se usa para guardar y leer la base de datos.
+ *
+ * @param id     id del upstream
+ * @param userId id del usuario
+ * @param title  titulo
+ * @param photos fotos del album, o null si no se ha enriquecido
+ */
+public record AlbumView(Long id, Long userId, String title, List<PhotoView> photos) {
+
+	public AlbumView {
+		// Las vistas de PhotoColumns ya son de solo lectura: se comparten sin copiarlas
+		if (photos != null && !(photos instanceof PhotoColumns.AlbumPhotos)) {
+			photos = List.copyOf(photos);
+		}
+	}
+
+	public AlbumView(Long id, Long userId, String title) {
+		this(id, userId, title, null);
+	}
+
+	/**
+	 * @param photos fotos del album, o null
+	 * @return copia del album con las fotos indicadas
+	 */
+	public AlbumView withPhotos(List<PhotoView> photos) {
+		return new AlbumView(id, userId, title, photos);
+	}
+}
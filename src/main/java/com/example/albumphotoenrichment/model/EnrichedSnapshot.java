@@ -0,0 +1,132 @@
+package com.example.albumphotoenrichment.model;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Instantanea inmutable de los albumes enriquecidos con sus fotos. Se construye
+ * una vez por cada refresco de los datos upstream y guarda su representacion
+ * JSON ya serializada, una copia comprimida con gzip y un ETag fuerte calculado
+ * sobre el JSON, de forma que servirla es una simple copia de memoria.
+ * <p>
+ * Tambien contiene indices secundarios, construidos una sola vez, para responder
+ * consultas paginadas o filtradas en tiempo proporcional a las filas devueltas:
+ * albumes por id, albumes ordenados por id y albumes de cada usuario ordenados
+ * por id. Las fotos de cada album ya estan agrupadas por albumId.
+ */
+public final class EnrichedSnapshot {
+
+	private final List<AlbumView> albums;
+	private final byte[] json;
+	private final byte[] gzipJson;
+	private final String etag;
+	private final Instant createdAt;
+	private final List<AlbumView> sourceAlbums;
+	private final Map<Long, List<PhotoView>> sourcePhotos;
+	private final Map<Long, AlbumView> albumsById;
+	private final List<AlbumView> albumsSortedById;
+	private final Map<Long, List<AlbumView>> albumsByUserId;
+
+	public EnrichedSnapshot(List<AlbumView> albums, byte[] json, byte[] gzipJson, String etag,
+			List<AlbumView> sourceAlbums, Map<Long, List<PhotoView>> sourcePhotos) {
+		this.albums = List.copyOf(albums);
+		this.json = json;
+		this.gzipJson = gzipJson;
+		this.etag = etag;
+		this.createdAt = Instant.now();
+		this.sourceAlbums = sourceAlbums;
+		this.sourcePhotos = sourcePhotos;
+
+		Map<Long, AlbumView> byId = new HashMap<>();
+		Map<Long, List<AlbumView>> byUserId = new HashMap<>();
+		List<AlbumView> sorted = new ArrayList<>(this.albums);
+		sorted.sort(Comparator.comparing(AlbumView::id));
+		for (AlbumView album : sorted) {
+			byId.put(album.id(), album);
+			byUserId.computeIfAbsent(album.userId(), userId -> new ArrayList<>()).add(album);
+		}
+		byUserId.replaceAll((userId, userAlbums) -> Collections.unmodifiableList(userAlbums));
+		this.albumsById = Collections.unmodifiableMap(byId);
+		this.albumsSortedById = Collections.unmodifiableList(sorted);
+		this.albumsByUserId = Collections.unmodifiableMap(byUserId);
+	}
+
+	public List<AlbumView> getAlbums() {
+		return albums;
+	}
+
+	/**
+	 * @param id id del album
+	 * @return album con sus fotos o null si no existe
+	 */
+	public AlbumView getAlbum(Long id) {
+		return albumsById.get(id);
+	}
+
+	/**
+	 * @return todos los albumes ordenados por id
+	 */
+	public List<AlbumView> getAlbumsSortedById() {
+		return albumsSortedById;
+	}
+
+	/**
+	 * @param userId id del usuario
+	 * @return albumes del usuario ordenados por id, o una lista vacia
+	 */
+	public List<AlbumView> getAlbumsByUserId(Long userId) {
+		return albumsByUserId.getOrDefault(userId, List.of());
+	}
+
+	/**
+	 * @return JSON de los albumes. No debe modificarse, se comparte entre
+	 *         peticiones.
+	 */
+	public byte[] getJson() {
+		return json;
+	}
+
+	/**
+	 * @return JSON de los albumes comprimido con gzip. No debe modificarse, se
+	 *         comparte entre peticiones.
+	 */
+	public byte[] getGzipJson() {
+		return gzipJson;
+	}
+
+	/**
+	 * @return ETag fuerte de la representacion JSON sin comprimir
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * @return ETag fuerte de la representacion comprimida con gzip, distinto del
+	 *         de la representacion sin comprimir
+	 */
+	public String getGzipEtag() {
+		return etag.substring(0, etag.length() - 1) + "-gzip\"";
+	}
+
+	public Instant getCreatedAt() {
+		return createdAt;
+	}
+
+	/**
+	 * Indica si la instantanea se construyo a partir de exactamente los mismos
+	 * datos upstream (misma identidad), en cuyo caso puede reutilizarse.
+	 *
+	 * @param albums        albumes upstream
+	 * @param photosByAlbum fotos upstream agrupadas por album
+	 * @return true si los datos de origen son los mismos
+	 */
+	public boolean isBuiltFrom(List<AlbumView> albums, Map<Long, List<PhotoView>> photosByAlbum) {
+		return sourceAlbums == albums && sourcePhotos == photosByAlbum;
+	}
+}
@@ -0,0 +1,16 @@
+package com.example.albumphotoenrichment.model;
+
+/**
+ * Resumen de los cambios escritos en la base de datos al guardar una
+ * instantanea.
+ */
+public record PersistenceDelta(int albumsInserted, int albumsUpdated, int albumsDeleted, int photosInserted,
+		int photosUpdated, int photosDeleted) {
+
+	/**
+	 * @return true si no se ha escrito nada
+	 */
+	public boolean isEmpty() {
+		return albumsInserted + albumsUpdated + albumsDeleted + photosInserted + photosUpdated + photosDeleted == 0;
+	}
+}
@@ -0,0 +1,471 @@
+package com.example.albumphotoenrichment.model;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.json.UTF8JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * Almacen de fotos de solo lectura en columnas (struct-of-arrays): los ids son
+ * {@code long[]} primitivos, los textos van en arrays de String y las fotos se
+ * ordenan por album, con un array de desplazamientos que delimita las fotos de
+ * cada album. Con millones de fotos evita la cabecera de cada {@link PhotoView},
+ * los {@code Long} de sus ids y las {@code ArrayList} de cada album.
+ * <p>
+ * Las URLs se guardan en un {@link UrlDictionary} al deserializar: un prefijo
+ * del diccionario mas un sufijo en bytes, sin un String por URL. Al serializar
+ * una lista de fotos a JSON los bytes se copian directamente al generador.
+ * <p>
+ * Se expone como un {@code Map<Long, List<PhotoView>>} inmutable de fotos por
+ * album, asi que sustituye directamente a la agrupacion en un HashMap. La
+ * busqueda de un album es una busqueda binaria sobre ids primitivos y la lista
+ * de cada album es siempre la misma vista; los objetos {@link PhotoView} solo se
+ * crean al recorrerla (al serializar o guardar) y no se retienen.
+ * <p>
+ * Las fotos sin album no se guardan. Dentro de cada album se conserva el orden
+ * en que se anadieron.
+ */
+public final class PhotoColumns extends AbstractMap<Long, List<PhotoView>> {
+
+	/** Marca de id nulo en las columnas primitivas */
+	private static final long NULL_ID = Long.MIN_VALUE;
+	/** Bytes de una fila: id y referencias a las dos URLs (long) y al titulo */
+	private static final int ROW_MEMORY = 3 * Long.BYTES + 4;
+	/** Cabeceras de un String y de su array de bytes */
+	private static final int STRING_MEMORY = 40;
+
+	private final long[] albumIds;
+	private final long[] ids;
+	private final String[] titles;
+	private final long[] urls;
+	private final long[] thumbnailUrls;
+	private final UrlDictionary dictionary;
+	private final long plainUrlMemory;
+	private final AlbumPhotos[] views;
+
+	private PhotoColumns(long[] albumIds, int[] offsets, long[] ids, String[] titles, long[] urls,
+			long[] thumbnailUrls, UrlDictionary dictionary, long plainUrlMemory) {
+		this.albumIds = albumIds;
+		this.ids = ids;
+		this.titles = titles;
+		this.urls = urls;
+		this.thumbnailUrls = thumbnailUrls;
+		this.dictionary = dictionary;
+		this.plainUrlMemory = plainUrlMemory;
+		this.views = new AlbumPhotos[albumIds.length];
+		for (int i = 0; i < albumIds.length; i++) {
+			views[i] = new AlbumPhotos(albumIds[i], offsets[i], offsets[i + 1]);
+		}
+	}
+
+	/**
+	 * @return constructor de un almacen vacio
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @param albumId id del album
+	 * @return fotos del album sin pasar por un Long, o null si no tiene entrada
+	 */
+	public List<PhotoView> getPhotos(long albumId) {
+		int index = Arrays.binarySearch(albumIds, albumId);
+		return index >= 0 ? views[index] : null;
+	}
+
+	/**
+	 * @return numero total de fotos
+	 */
+	public int getPhotoCount() {
+		return ids.length;
+	}
+
+	/**
+	 * @return memoria aproximada en bytes de las URLs con el diccionario de
+	 *         prefijos (referencias, diccionario y sufijos)
+	 */
+	public long getUrlMemory() {
+		return 16L * ids.length + dictionary.getMemory();
+	}
+
+	/**
+	 * @return memoria aproximada en bytes que ocuparian las mismas URLs como
+	 *         String independientes, con sus referencias
+	 */
+	public long getPlainUrlMemory() {
+		return plainUrlMemory + 8L * ids.length;
+	}
+
+	@Override
+	public List<PhotoView> get(Object key) {
+		return key instanceof Long albumId ? getPhotos(albumId) : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public int size() {
+		return albumIds.length;
+	}
+
+	@Override
+	public Set<Entry<Long, List<PhotoView>>> entrySet() {
+		return new AbstractSet<>() {
+			@Override
+			public Iterator<Entry<Long, List<PhotoView>>> iterator() {
+				return new Iterator<>() {
+					private int next;
+
+					@Override
+					public boolean hasNext() {
+						return next < views.length;
+					}
+
+					@Override
+					public Entry<Long, List<PhotoView>> next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						AlbumPhotos view = views[next++];
+						return new SimpleImmutableEntry<>(view.albumId, view);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return views.length;
+			}
+		};
+	}
+
+	/**
+	 * Vista de solo lectura de las fotos de un album sobre las columnas. Cada
+	 * acceso crea un {@link PhotoView} nuevo; al serializarla a JSON no se crea
+	 * ninguno.
+	 */
+	@JsonSerialize(using = AlbumPhotosSerializer.class)
+	public final class AlbumPhotos extends AbstractList<PhotoView> implements RandomAccess {
+
+		private final long albumId;
+		private final int from;
+		private final int to;
+
+		private AlbumPhotos(long albumId, int from, int to) {
+			this.albumId = albumId;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public PhotoView get(int index) {
+			if (index < 0 || index >= to - from) {
+				throw new IndexOutOfBoundsException(index);
+			}
+			int row = from + index;
+			return new PhotoView(ids[row] == NULL_ID ? null : ids[row], albumId, titles[row],
+					dictionary.get(urls[row]), dictionary.get(thumbnailUrls[row]));
+		}
+
+		@Override
+		public int size() {
+			return to - from;
+		}
+
+		/**
+		 * Entre dos vistas de columnas compara las columnas directamente, sin crear
+		 * ningun {@link PhotoView}; el resultado es el mismo que el de
+		 * {@link List#equals(Object)}.
+		 */
+		@Override
+		public boolean equals(Object o) {
+			if (o == this) {
+				return true;
+			}
+			if (!(o instanceof PhotoColumns.AlbumPhotos other)) {
+				return super.equals(o);
+			}
+			if (size() != other.size() || (size() > 0 && albumId != other.albumId)) {
+				return false;
+			}
+			PhotoColumns columns = other.columns();
+			for (int row = from, otherRow = other.from; row < to; row++, otherRow++) {
+				if (ids[row] != columns.ids[otherRow] || !Objects.equals(titles[row], columns.titles[otherRow])
+						|| !dictionary.equals(urls[row], columns.dictionary, columns.urls[otherRow])
+						|| !dictionary.equals(thumbnailUrls[row], columns.dictionary,
+								columns.thumbnailUrls[otherRow])) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return super.hashCode();
+		}
+
+		/**
+		 * Tamano aproximado en bytes de las filas de la vista en las columnas,
+		 * calculado sin crear ningun {@link PhotoView}. No incluye el diccionario de
+		 * URLs, que comparten todos los albumes del almacen.
+		 *
+		 * @return bytes aproximados
+		 */
+		public long getMemory() {
+			long memory = (long) (to - from) * ROW_MEMORY;
+			for (int row = from; row < to; row++) {
+				if (titles[row] != null) {
+					memory += STRING_MEMORY + titles[row].length();
+				}
+			}
+			return memory;
+		}
+
+		private PhotoColumns columns() {
+			return PhotoColumns.this;
+		}
+
+		/**
+		 * Escribe las fotos con los mismos campos y en el mismo orden que la
+		 * serializacion de {@link PhotoView}.
+		 */
+		private void write(JsonGenerator gen, SerializerProvider provider) throws IOException {
+			byte[] buffer = buffer(gen, provider);
+			gen.writeStartArray(this, to - from);
+			for (int row = from; row < to; row++) {
+				gen.writeStartObject();
+				if (ids[row] == NULL_ID) {
+					gen.writeNullField("id");
+				} else {
+					gen.writeNumberField("id", ids[row]);
+				}
+				gen.writeNumberField("albumId", albumId);
+				gen.writeStringField("title", titles[row]);
+				writeUrl(gen, "url", urls[row], buffer);
+				writeUrl(gen, "thumbnailUrl", thumbnailUrls[row], buffer);
+				gen.writeEndObject();
+			}
+			gen.writeEndArray();
+		}
+
+		private void writeUrl(JsonGenerator gen, String name, long url, byte[] buffer) throws IOException {
+			gen.writeFieldName(name);
+			if (url == UrlDictionary.NULL) {
+				gen.writeNull();
+			} else if (buffer == null) {
+				gen.writeString(dictionary.get(url));
+			} else {
+				gen.writeUTF8String(buffer, 0, dictionary.copy(url, buffer));
+			}
+		}
+
+		/**
+		 * Buffer para reconstruir las URLs en UTF-8, compartido por toda la
+		 * serializacion en curso. Es null si el generador no escribe UTF-8.
+		 */
+		private byte[] buffer(JsonGenerator gen, SerializerProvider provider) {
+			if (!(gen instanceof UTF8JsonGenerator)) {
+				return null;
+			}
+			byte[] buffer = (byte[]) provider.getAttribute(AlbumPhotosSerializer.class);
+			if (buffer == null || buffer.length < dictionary.getMaxLength()) {
+				buffer = new byte[Math.max(dictionary.getMaxLength(), 256)];
+				provider.setAttribute(AlbumPhotosSerializer.class, buffer);
+			}
+			return buffer;
+		}
+	}
+
+	/**
+	 * Serializa una {@link AlbumPhotos} directamente desde las columnas.
+	 */
+	static final class AlbumPhotosSerializer extends StdSerializer<AlbumPhotos> {
+
+		private static final long serialVersionUID = 1L;
+
+		AlbumPhotosSerializer() {
+			super(AlbumPhotos.class);
+		}
+
+		@Override
+		public void serialize(AlbumPhotos value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+			value.write(gen, provider);
+		}
+	}
+
+	/**
+	 * Acumula fotos en columnas segun llegan y las ordena por album al construir
+	 * el almacen. No es seguro para varios hilos.
+	 */
+	public static final class Builder {
+
+		private long[] albumIds = new long[16];
+		private long[] ids = new long[16];
+		private String[] titles = new String[16];
+		private long[] urls = new long[16];
+		private long[] thumbnailUrls = new long[16];
+		private final UrlDictionary.Builder dictionary = new UrlDictionary.Builder();
+		private int size;
+		private long[] emptyAlbums = new long[0];
+		private int emptyAlbumCount;
+
+		private Builder() {
+		}
+
+		/**
+		 * Anade una foto. Las fotos sin album se descartan.
+		 *
+		 * @param photo foto
+		 * @return este constructor
+		 */
+		public Builder add(PhotoView photo) {
+			if (photo.albumId() == null) {
+				return this;
+			}
+			grow();
+			albumIds[size] = photo.albumId();
+			ids[size] = photo.id() == null ? NULL_ID : photo.id();
+			titles[size] = photo.title();
+			urls[size] = dictionary.add(photo.url(), UrlDictionary.NULL);
+			thumbnailUrls[size] = dictionary.add(photo.thumbnailUrl(), urls[size]);
+			size++;
+			return this;
+		}
+
+		/**
+		 * Anade las fotos de un album detras de las que ya tenga. Si la lista es una
+		 * vista de otro {@link PhotoColumns} se copian sus columnas sin crear ningun
+		 * {@link PhotoView}. El album queda registrado aunque la lista este vacia.
+		 *
+		 * @param albumId id del album; se ignora si es null
+		 * @param photos  fotos del album
+		 * @return este constructor
+		 */
+		public Builder addAlbum(Long albumId, List<PhotoView> photos) {
+			if (albumId == null) {
+				return this;
+			}
+			if (photos.isEmpty()) {
+				return addAlbum(albumId);
+			}
+			if (!(photos instanceof PhotoColumns.AlbumPhotos view) || view.albumId != albumId) {
+				photos.forEach(photo -> add(new PhotoView(photo.id(), albumId, photo.title(), photo.url(),
+						photo.thumbnailUrl())));
+				return this;
+			}
+			PhotoColumns source = view.columns();
+			for (int row = view.from; row < view.to; row++) {
+				grow();
+				albumIds[size] = albumId;
+				ids[size] = source.ids[row];
+				titles[size] = source.titles[row];
+				urls[size] = dictionary.copy(source.dictionary, source.urls[row], UrlDictionary.NULL);
+				thumbnailUrls[size] = dictionary.copy(source.dictionary, source.thumbnailUrls[row], urls[size]);
+				size++;
+			}
+			return this;
+		}
+
+		/**
+		 * Anade todos los albumes de un mapa de fotos por album, como
+		 * {@link #addAlbum(Long, List)}.
+		 *
+		 * @param photosByAlbum fotos agrupadas por album
+		 * @return este constructor
+		 */
+		public Builder addAll(Map<Long, List<PhotoView>> photosByAlbum) {
+			photosByAlbum.forEach(this::addAlbum);
+			return this;
+		}
+
+		private void grow() {
+			if (size == ids.length) {
+				int capacity = size * 2;
+				albumIds = Arrays.copyOf(albumIds, capacity);
+				ids = Arrays.copyOf(ids, capacity);
+				titles = Arrays.copyOf(titles, capacity);
+				urls = Arrays.copyOf(urls, capacity);
+				thumbnailUrls = Arrays.copyOf(thumbnailUrls, capacity);
+			}
+		}
+
+		/**
+		 * Registra un album aunque no tenga fotos, para que tenga una lista vacia en
+		 * lugar de no tener entrada.
+		 *
+		 * @param albumId id del album; se ignora si es null
+		 * @return este constructor
+		 */
+		public Builder addAlbum(Long albumId) {
+			if (albumId != null) {
+				if (emptyAlbumCount == emptyAlbums.length) {
+					emptyAlbums = Arrays.copyOf(emptyAlbums, Math.max(emptyAlbumCount * 2, 16));
+				}
+				emptyAlbums[emptyAlbumCount++] = albumId;
+			}
+			return this;
+		}
+
+		/**
+		 * Ordena las fotos por album de forma estable (por cubos, con una pasada para
+		 * contar y otra para colocar) y construye el almacen.
+		 *
+		 * @return almacen inmutable
+		 */
+		public PhotoColumns build() {
+			long[] keys = Arrays.copyOf(albumIds, size + emptyAlbumCount);
+			System.arraycopy(emptyAlbums, 0, keys, size, emptyAlbumCount);
+			Arrays.sort(keys);
+			int distinct = 0;
+			for (int i = 0; i < keys.length; i++) {
+				if (i == 0 || keys[i] != keys[i - 1]) {
+					keys[distinct++] = keys[i];
+				}
+			}
+			keys = Arrays.copyOf(keys, distinct);
+
+			int[] buckets = new int[size];
+			int[] offsets = new int[distinct + 1];
+			for (int i = 0; i < size; i++) {
+				buckets[i] = Arrays.binarySearch(keys, albumIds[i]);
+				offsets[buckets[i] + 1]++;
+			}
+			for (int i = 1; i <= distinct; i++) {
+				offsets[i] += offsets[i - 1];
+			}
+			int[] next = Arrays.copyOf(offsets, distinct);
+			long[] sortedIds = new long[size];
+			String[] sortedTitles = new String[size];
+			long[] sortedUrls = new long[size];
+			long[] sortedThumbnailUrls = new long[size];
+			for (int i = 0; i < size; i++) {
+				int row = next[buckets[i]]++;
+				sortedIds[row] = ids[i];
+				sortedTitles[row] = titles[i];
+				sortedUrls[row] = urls[i];
+				sortedThumbnailUrls[row] = thumbnailUrls[i];
+			}
+			return new PhotoColumns(keys, offsets, sortedIds, sortedTitles, sortedUrls, sortedThumbnailUrls,
+					dictionary.build(), dictionary.getPlainMemory());
+		}
+	}
+}
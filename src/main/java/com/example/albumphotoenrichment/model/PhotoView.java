@@ -0,0 +1,15 @@
+package com.example.albumphotoenrichment.model;
+
+/**
+ * Foto del modelo de lectura: inmutable, se deserializa directamente del
+ * upstream y se comparte entre peticiones e hilos sin sincronizacion. La
+ * entidad {@link Photo} solo se usa para guardar y leer la base de datos.
+ *
+ * @param id           id del upstream
+ * @param albumId      id del album
+ * @param title        titulo
+ * @param url          URL de la imagen
+ * @param thumbnailUrl URL de la miniatura
+ */
+public record PhotoView(Long id, Long albumId, String title, String url, String thumbnailUrl) {
+}
@@ -0,0 +1,35 @@
+package com.example.albumphotoenrichment.model;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Estado de un trabajo de refresco y guardado.
+ *
+ * @param id            id del trabajo
+ * @param phase         fase actual
+ * @param startedAt     inicio del trabajo
+ * @param finishedAt    fin del trabajo, o null si sigue en curso
+ * @param chunksWritten bloques de albumes escritos
+ * @param rowsWritten   filas escritas (albumes mas fotos)
+ * @param rowsDeleted   filas eliminadas por no existir ya en el upstream
+ * @param rowsPerSecond filas escritas por segundo desde el inicio
+ * @param errors        errores producidos
+ */
+public record RefreshJobStatus(String id, Phase phase, Instant startedAt, Instant finishedAt, int chunksWritten,
+		long rowsWritten, long rowsDeleted, double rowsPerSecond, List<String> errors) {
+
+	/**
+	 * Fases de un trabajo de refresco.
+	 */
+	public enum Phase {
+		/** Descargando y enriqueciendo; los bloques ya descargados se van escribiendo */
+		FETCHING,
+		/** Escribiendo los bloques restantes y eliminando las filas que ya no existen */
+		SAVING,
+		/** Terminado correctamente */
+		DONE,
+		/** Terminado con errores */
+		FAILED
+	}
+}
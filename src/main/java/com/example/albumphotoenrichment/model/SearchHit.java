@@ -0,0 +1,17 @@
+package com.example.albumphotoenrichment.model;
+
+/**
+ * Resultado de una busqueda por titulo.
+ *
+ * @param type    tipo de documento ({@code album} o {@code photo})
+ * @param id      id del album o de la foto
+ * @param albumId album al que pertenece la foto, o el propio album
+ * @param title   titulo
+ * @param score   puntuacion: 2 por cada termino que coincide con una palabra
+ *                completa y 1 por cada termino contenido en una palabra
+ */
+public record SearchHit(String type, Long id, Long albumId, String title, int score) {
+
+	public static final String TYPE_ALBUM = "album";
+	public static final String TYPE_PHOTO = "photo";
+}
@@ -0,0 +1,15 @@
+package com.example.albumphotoenrichment.model;
+
+import java.util.List;
+
+/**
+ * Respuesta de {@code GET /albums/search}.
+ *
+ * @param query consulta recibida
+ * @param limit numero maximo de resultados solicitado
+ * @param hits  resultados ordenados por puntuacion descendente; a igual
+ *              puntuacion los albumes van antes que las fotos, en el orden de la
+ *              instantanea (id de album)
+ */
+public record SearchResult(String query, int limit, List<SearchHit> hits) {
+}
@@ -0,0 +1,8 @@
+package com.example.albumphotoenrichment.model;
+
+/**
+ * Evento de aplicacion que se publica cada vez que se construye y publica una
+ * nueva instantanea enriquecida.
+ */
+public record SnapshotPublishedEvent(EnrichedSnapshot snapshot) {
+}
@@ -0,0 +1,248 @@
+package com.example.albumphotoenrichment.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Almacen compacto de URLs: cada URL se guarda como el id de un prefijo de un
+ * diccionario (hasta la ultima {@code /} incluida, normalmente host y ruta)
+ * mas un sufijo en UTF-8 dentro de un unico array de bytes compartido. Una URL
+ * se referencia con un {@code long} que empaqueta el prefijo, la posicion y la
+ * longitud del sufijo, asi que no existe ningun String por URL.
+ * <p>
+ * Al anadir una URL se puede indicar otra ya guardada; si el sufijo coincide
+ * se reutiliza en lugar de copiarlo (por ejemplo, el {@code thumbnailUrl} y el
+ * {@code url} de una misma foto suelen acabar igual).
+ */
+final class UrlDictionary {
+
+	/** Referencia de una URL nula */
+	static final long NULL = -1L;
+
+	private static final int MAX_SUFFIX_LENGTH = 0xFFFF;
+	/** Prefijo reservado: la URL completa esta en {@code overflow} */
+	private static final int OVERFLOW_PREFIX = 0x7FFF;
+	/** Bytes de un String con su array (cabeceras, campos y alineamiento) */
+	private static final int STRING_OVERHEAD = 24 + 16;
+
+	private final String[] prefixes;
+	private final byte[][] prefixBytes;
+	private final byte[] suffixes;
+	private final String[] overflow;
+	private final int maxLength;
+
+	private UrlDictionary(String[] prefixes, byte[] suffixes, String[] overflow, int maxLength) {
+		this.prefixes = prefixes;
+		this.prefixBytes = new byte[prefixes.length][];
+		for (int i = 0; i < prefixes.length; i++) {
+			prefixBytes[i] = prefixes[i].getBytes(StandardCharsets.UTF_8);
+		}
+		this.suffixes = suffixes;
+		this.overflow = overflow;
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Reconstruye la URL. Crea un String nuevo: solo debe usarse al materializar
+	 * una {@link PhotoView}.
+	 *
+	 * @param ref referencia de la URL
+	 * @return URL, o null
+	 */
+	String get(long ref) {
+		if (ref == NULL) {
+			return null;
+		}
+		int prefix = prefix(ref);
+		if (prefix == OVERFLOW_PREFIX) {
+			return overflow[start(ref)];
+		}
+		return prefixes[prefix] + new String(suffixes, start(ref), length(ref), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Copia la URL en UTF-8 en el buffer, sin crear ningun objeto salvo para las
+	 * URLs desbordadas.
+	 *
+	 * @param ref    referencia de la URL, distinta de {@link #NULL}
+	 * @param target buffer de al menos {@link #getMaxLength()} bytes
+	 * @return bytes copiados
+	 */
+	int copy(long ref, byte[] target) {
+		int prefix = prefix(ref);
+		if (prefix == OVERFLOW_PREFIX) {
+			byte[] bytes = overflow[start(ref)].getBytes(StandardCharsets.UTF_8);
+			System.arraycopy(bytes, 0, target, 0, bytes.length);
+			return bytes.length;
+		}
+		byte[] head = prefixBytes[prefix];
+		System.arraycopy(head, 0, target, 0, head.length);
+		System.arraycopy(suffixes, start(ref), target, head.length, length(ref));
+		return head.length + length(ref);
+	}
+
+	/**
+	 * Compara dos URLs byte a byte sin reconstruirlas. Como el prefijo llega
+	 * siempre hasta la ultima {@code /}, dos URLs iguales tienen el mismo prefijo
+	 * y el mismo sufijo.
+	 *
+	 * @param ref      referencia de la URL en este diccionario
+	 * @param other    diccionario de la otra URL
+	 * @param otherRef referencia de la otra URL
+	 * @return true si son iguales (o ambas nulas)
+	 */
+	boolean equals(long ref, UrlDictionary other, long otherRef) {
+		if (ref == NULL || otherRef == NULL) {
+			return ref == otherRef;
+		}
+		if (prefix(ref) == OVERFLOW_PREFIX || prefix(otherRef) == OVERFLOW_PREFIX) {
+			return get(ref).equals(other.get(otherRef));
+		}
+		return Arrays.equals(prefixBytes[prefix(ref)], other.prefixBytes[prefix(otherRef)])
+				&& Arrays.equals(suffixes, start(ref), start(ref) + length(ref), other.suffixes, start(otherRef),
+						start(otherRef) + length(otherRef));
+	}
+
+	/**
+	 * @return longitud maxima en bytes de una URL guardada
+	 */
+	int getMaxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * @return memoria aproximada del diccionario y los sufijos, sin las referencias
+	 */
+	long getMemory() {
+		long memory = 16L + suffixes.length;
+		for (byte[] bytes : prefixBytes) {
+			memory += STRING_OVERHEAD + 2L * bytes.length;
+		}
+		for (String url : overflow) {
+			memory += STRING_OVERHEAD + url.length();
+		}
+		return memory;
+	}
+
+	private static int prefix(long ref) {
+		return (int) (ref >>> 48);
+	}
+
+	private static int length(long ref) {
+		return (int) (ref >>> 32) & MAX_SUFFIX_LENGTH;
+	}
+
+	private static int start(long ref) {
+		return (int) ref;
+	}
+
+	private static long ref(int prefix, int length, int start) {
+		return ((long) prefix << 48) | ((long) length << 32) | (start & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Acumula URLs segun llegan. No es seguro para varios hilos.
+	 */
+	static final class Builder {
+
+		private final Map<String, Integer> prefixIndex = new HashMap<>();
+		private final List<String> prefixes = new ArrayList<>();
+		private final List<String> overflow = new ArrayList<>();
+		private byte[] suffixes = new byte[1024];
+		private int size;
+		private int maxLength;
+		private long plainMemory;
+
+		/**
+		 * Guarda la URL.
+		 *
+		 * @param url  URL, o null
+		 * @param same referencia de otra URL ya guardada cuyo sufijo puede
+		 *             reutilizarse, o {@link UrlDictionary#NULL}
+		 * @return referencia de la URL
+		 */
+		long add(String url, long same) {
+			if (url == null) {
+				return NULL;
+			}
+			plainMemory += align(STRING_OVERHEAD + url.length());
+			int split = url.lastIndexOf('/') + 1;
+			byte[] suffix = url.substring(split).getBytes(StandardCharsets.UTF_8);
+			Integer prefix = prefixIndex.get(url.substring(0, split));
+			if (prefix == null && prefixes.size() < OVERFLOW_PREFIX) {
+				prefix = prefixes.size();
+				prefixes.add(url.substring(0, split));
+				prefixIndex.put(prefixes.get(prefix), prefix);
+			}
+			if (prefix == null || suffix.length > MAX_SUFFIX_LENGTH) {
+				overflow.add(url); // Caso extremo: demasiados prefijos o un sufijo enorme
+				maxLength = Math.max(maxLength, url.getBytes(StandardCharsets.UTF_8).length);
+				return ref(OVERFLOW_PREFIX, 0, overflow.size() - 1);
+			}
+			maxLength = Math.max(maxLength, url.length() * 3);
+			return addSuffix(prefix, suffix, 0, suffix.length, same);
+		}
+
+		/**
+		 * Copia una URL de otro diccionario sin reconstruirla como String (salvo las
+		 * URLs desbordadas).
+		 *
+		 * @param source diccionario de origen
+		 * @param ref    referencia de la URL en el origen
+		 * @param same   como en {@link #add(String, long)}
+		 * @return referencia de la URL en este diccionario
+		 */
+		long copy(UrlDictionary source, long ref, long same) {
+			if (ref == NULL || prefix(ref) == OVERFLOW_PREFIX) {
+				return add(source.get(ref), same);
+			}
+			String head = source.prefixes[prefix(ref)];
+			Integer prefix = prefixIndex.get(head);
+			if (prefix == null && prefixes.size() < OVERFLOW_PREFIX) {
+				prefix = prefixes.size();
+				prefixes.add(head);
+				prefixIndex.put(head, prefix);
+			}
+			if (prefix == null) {
+				return add(source.get(ref), same);
+			}
+			plainMemory += align(STRING_OVERHEAD + head.length() + length(ref)); // Sufijo casi siempre ASCII
+			maxLength = Math.max(maxLength, source.prefixBytes[prefix(ref)].length + length(ref));
+			return addSuffix(prefix, source.suffixes, start(ref), length(ref), same);
+		}
+
+		private long addSuffix(int prefix, byte[] source, int from, int length, long same) {
+			if (same != NULL && prefix(same) != OVERFLOW_PREFIX && length(same) == length
+					&& Arrays.equals(suffixes, start(same), start(same) + length, source, from, from + length)) {
+				return ref(prefix, length, start(same));
+			}
+			if (size + length > suffixes.length) {
+				suffixes = Arrays.copyOf(suffixes, Math.max(suffixes.length * 2, size + length));
+			}
+			System.arraycopy(source, from, suffixes, size, length);
+			size += length;
+			return ref(prefix, length, size - length);
+		}
+
+		/**
+		 * @return memoria aproximada que ocuparian las URLs anadidas como String
+		 *         independientes
+		 */
+		long getPlainMemory() {
+			return plainMemory;
+		}
+
+		UrlDictionary build() {
+			return new UrlDictionary(prefixes.toArray(String[]::new), Arrays.copyOf(suffixes, size),
+					overflow.toArray(String[]::new), maxLength);
+		}
+
+		private static long align(long bytes) {
+			return (bytes + 7) & ~7L;
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package com.example.albumphotoenrichment.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.PhotoView;
+
+/**
+ * Repositorio para cargas masivas de albumes y fotos. Escribe con sentencias
+ * MERGE multi-fila de H2 (una sentencia por lote de filas), sin pasar por el
+ * contexto de persistencia de JPA.
+ */
+@Repository
+public class AlbumBulkRepository {
+
+	private static final String MERGE_ALBUMS = "MERGE INTO album (id, user_id, title) KEY (id) VALUES ";
+	private static final String MERGE_PHOTOS = "MERGE INTO photo (id, album_id, title, url, thumbnail_url) KEY (id) VALUES ";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	public AlbumBulkRepository(JdbcTemplate jdbcTemplate) {
+		this.jdbcTemplate = jdbcTemplate;
+	}
+
+	/**
+	 * @return ids de los albumes guardados
+	 */
+	public Set<Long> findAlbumIds() {
+		return new HashSet<>(jdbcTemplate.queryForList("SELECT id FROM album", Long.class));
+	}
+
+	/**
+	 * @return ids de las fotos guardadas
+	 */
+	public Set<Long> findPhotoIds() {
+		return new HashSet<>(jdbcTemplate.queryForList("SELECT id FROM photo", Long.class));
+	}
+
+	/**
+	 * Inserta o actualiza los albumes por lotes.
+	 *
+	 * @param albums    albumes a escribir
+	 * @param batchSize filas por sentencia
+	 */
+	public void mergeAlbums(List<AlbumView> albums, int batchSize) {
+		merge(MERGE_ALBUMS, 3, albums, batchSize,
+				album -> new Object[] { album.id(), album.userId(), album.title() });
+	}
+
+	/**
+	 * Inserta o actualiza las fotos por lotes.
+	 *
+	 * @param photos    fotos a escribir
+	 * @param batchSize filas por sentencia
+	 */
+	public void mergePhotos(List<PhotoView> photos, int batchSize) {
+		merge(MERGE_PHOTOS, 5, photos, batchSize, photo -> new Object[] { photo.id(), photo.albumId(),
+				photo.title(), photo.url(), photo.thumbnailUrl() });
+	}
+
+	/**
+	 * Elimina las fotos indicadas.
+	 *
+	 * @param ids       ids de las fotos
+	 * @param batchSize filas por lote
+	 */
+	public void deletePhotos(Collection<Long> ids, int batchSize) {
+		delete("DELETE FROM photo WHERE id = ?", ids, batchSize);
+	}
+
+	/**
+	 * Elimina los albumes indicados junto con sus fotos.
+	 *
+	 * @param ids       ids de los albumes
+	 * @param batchSize filas por lote
+	 */
+	public void deleteAlbums(Collection<Long> ids, int batchSize) {
+		delete("DELETE FROM photo WHERE album_id = ?", ids, batchSize);
+		delete("DELETE FROM album WHERE id = ?", ids, batchSize);
+	}
+
+	private <T> void merge(String prefix, int columns, List<T> rows, int batchSize, Function<T, Object[]> values) {
+		String fullBatchSql = null;
+		for (int from = 0; from < rows.size(); from += batchSize) {
+			List<T> chunk = rows.subList(from, Math.min(from + batchSize, rows.size()));
+			String sql;
+			if (chunk.size() == batchSize) {
+				if (fullBatchSql == null) {
+					fullBatchSql = mergeSql(prefix, columns, batchSize);
+				}
+				sql = fullBatchSql;
+			} else {
+				sql = mergeSql(prefix, columns, chunk.size());
+			}
+			Object[] args = new Object[chunk.size() * columns];
+			int i = 0;
+			for (T row : chunk) {
+				for (Object value : values.apply(row)) {
+					args[i++] = value;
+				}
+			}
+			jdbcTemplate.update(sql, args);
+		}
+	}
+
+	private void delete(String sql, Collection<Long> ids, int batchSize) {
+		List<Object[]> args = new ArrayList<>(ids.size());
+		ids.forEach(id -> args.add(new Object[] { id }));
+		for (int from = 0; from < args.size(); from += batchSize) {
+			jdbcTemplate.batchUpdate(sql, args.subList(from, Math.min(from + batchSize, args.size())));
+		}
+	}
+
+	private static String mergeSql(String prefix, int columns, int rows) {
+		StringJoiner row = new StringJoiner(", ", "(", ")");
+		for (int i = 0; i < columns; i++) {
+			row.add("?");
+		}
+		StringJoiner sql = new StringJoiner(", ", prefix, "");
+		String placeholders = row.toString();
+		for (int i = 0; i < rows; i++) {
+			sql.add(placeholders);
+		}
+		return sql.toString();
+	}
+}
@@ -1,7 +1,11 @@
 package com.example.albumphotoenrichment.repository;
 
+import java.util.List;
+
 import com.example.albumphotoenrichment.model.Album;
+import com.example.albumphotoenrichment.model.Photo;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -10,4 +14,30 @@ import org.springframework.stereotype.Repository;
  */
 @Repository
 public interface AlbumRepository extends JpaRepository<Album, Long> {
+
+	/**
+	 * Obtiene todos los albumes con sus fotos en una unica consulta.
+	 *
+	 * @return Lista de albumes con las fotos inicializadas
+	 */
+	@Query("select distinct a from Album a left join fetch a.photos")
+	List<Album> findAllWithPhotos();
+
+	/**
+	 * Obtiene los datos de todos los albumes, sin fotos, como objetos no
+	 * gestionados.
+	 *
+	 * @return Lista de albumes ordenados por id
+	 */
+	@Query("select new com.example.albumphotoenrichment.model.Album(a.id, a.userId, a.title) from Album a order by a.id")
+	List<Album> findAllAlbumRows();
+
+	/**
+	 * Obtiene los datos de todas las fotos como objetos no gestionados.
+	 *
+	 * @return Lista de fotos ordenadas por album e id
+	 */
+	@Query("select new com.example.albumphotoenrichment.model.Photo(p.id, p.albumId, p.title, p.url, p.thumbnailUrl)"
+			+ " from Photo p order by p.albumId, p.id")
+	List<Photo> findAllPhotoRows();
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+package com.example.albumphotoenrichment.service;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import com.example.albumphotoenrichment.constant.AlbumPhotoConstants;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Escribe albumes enriquecidos como NDJSON ({@code application/x-ndjson}): un
+ * album por linea. Cada album se serializa directamente sobre el flujo de la
+ * respuesta a traves del buffer del generador, por lo que la memoria por
+ * peticion es constante y no depende del numero de albumes. Las escrituras son
+ * bloqueantes, asi que un cliente lento frena al productor en lugar de acumular
+ * datos en memoria. Cada respuesta completa se mide en la fase
+ * {@code serialize} del temporizador {@code album.phase}, incluido el tiempo
+ * de escritura en la red.
+ */
+@Service
+public class AlbumNdjsonWriter {
+
+	private final ObjectMapper objectMapper;
+	private final ObjectWriter albumWriter;
+	private final Timer serializeTimer;
+
+	@Autowired
+	public AlbumNdjsonWriter(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+		this.objectMapper = objectMapper;
+		this.serializeTimer = meterRegistry.timer(AlbumPhotoConstants.METRIC_PHASE, "phase",
+				AlbumPhotoConstants.PHASE_SERIALIZE);
+		this.albumWriter = objectMapper.writerFor(AlbumView.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+	}
+
+	/**
+	 * @param albums albumes a escribir
+	 * @return cuerpo de respuesta que escribe un album por linea
+	 */
+	public StreamingResponseBody stream(List<AlbumView> albums) {
+		return outputStream -> {
+			long iniTime = System.nanoTime();
+			try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+				generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+				generator.setRootValueSeparator(null); // El separador es el salto de linea
+				for (AlbumView album : albums) {
+					albumWriter.writeValue(generator, album);
+					generator.writeRaw('\n');
+				}
+			} finally {
+				serializeTimer.record(System.nanoTime() - iniTime, TimeUnit.NANOSECONDS);
+			}
+		};
+	}
+}
@@ -0,0 +1,336 @@
+package com.example.albumphotoenrichment.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import com.example.albumphotoenrichment.constant.AlbumPhotoConstants;
+import com.example.albumphotoenrichment.model.Album;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.PersistenceDelta;
+import com.example.albumphotoenrichment.model.Photo;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.example.albumphotoenrichment.repository.AlbumBulkRepository;
+import com.example.albumphotoenrichment.repository.AlbumRepository;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Persistencia de las instantaneas de albumes. Tiene dos modos, configurables
+ * con {@code album.persistence.mode}:
+ * <ul>
+ * <li>{@code delta} (por defecto): compara la nueva instantanea con lo que ya
+ * esta guardado y solo escribe los albumes y fotos nuevos, modificados o
+ * eliminados, de forma que guardar una instantanea que apenas cambia no cuesta
+ * casi nada en la base de datos.</li>
+ * <li>{@code bulk}: carga masiva con sentencias MERGE multi-fila por lotes,
+ * escribiendo las fotos en particiones paralelas. Pensado para cargas iniciales
+ * o catalogos muy grandes. La carga no es atomica: los albumes y cada particion
+ * de fotos se confirman en su propia transaccion, asi que si una particion falla
+ * quedan escritos los albumes y las demas particiones, no se borra nada y
+ * {@link #persist(List)} lanza la excepcion. Como las sentencias son MERGE por
+ * id, el siguiente guardado de la instantanea completa la carga.</li>
+ * </ul>
+ * Las escrituras se miden en la fase {@code persist} y las lecturas en la fase
+ * {@code load} del temporizador {@code album.phase}.
+ * <p>
+ * Recibe y devuelve el modelo de lectura inmutable ({@link AlbumView},
+ * {@link PhotoView}); las entidades JPA {@link Album} y {@link Photo} solo
+ * existen dentro de este servicio y de los repositorios.
+ */
+@Service
+public class AlbumPersistenceService {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AlbumPersistenceService.class);
+
+	public static final String MODE_DELTA = "delta";
+	public static final String MODE_BULK = "bulk";
+
+	private final AlbumRepository albumRepository;
+	private final AlbumBulkRepository albumBulkRepository;
+	private final EntityManager entityManager;
+	private final TransactionTemplate transactionTemplate;
+	private final TransactionTemplate readOnlyTransactionTemplate;
+	private final MeterRegistry meterRegistry;
+	private final Timer persistTimer;
+	private final Timer loadTimer;
+	private final String mode;
+	private final int batchSize;
+	private final int parallelism;
+
+	@Autowired
+	public AlbumPersistenceService(AlbumRepository albumRepository, AlbumBulkRepository albumBulkRepository,
+			EntityManager entityManager, PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+			@Value("${album.persistence.mode:" + MODE_DELTA + "}") String mode,
+			@Value("${album.persistence.batch-size:500}") int batchSize,
+			@Value("${album.persistence.parallelism:4}") int parallelism) {
+		this.albumRepository = albumRepository;
+		this.albumBulkRepository = albumBulkRepository;
+		this.entityManager = entityManager;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+		this.readOnlyTransactionTemplate.setReadOnly(true);
+		this.meterRegistry = meterRegistry;
+		this.persistTimer = meterRegistry.timer(AlbumPhotoConstants.METRIC_PHASE, "phase",
+				AlbumPhotoConstants.PHASE_PERSIST);
+		this.loadTimer = meterRegistry.timer(AlbumPhotoConstants.METRIC_PHASE, "phase", AlbumPhotoConstants.PHASE_LOAD);
+		this.mode = mode;
+		this.batchSize = batchSize;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Sincroniza la base de datos con los albumes recibidos segun el modo
+	 * configurado. Los albumes recibidos no se modifican.
+	 *
+	 * @param albums albumes enriquecidos con sus fotos
+	 * @return resumen de los cambios escritos
+	 */
+	public PersistenceDelta persist(List<AlbumView> albums) {
+		PersistenceDelta delta = persistTimer.record(() -> MODE_BULK.equals(mode) ? persistBulk(albums)
+				: transactionTemplate.execute(status -> persistDelta(albums)));
+		record(delta);
+		LOGGER.info("Instantanea guardada ({}): {}", mode, delta);
+		return delta;
+	}
+
+	/**
+	 * Escribe un bloque de albumes con sus fotos con sentencias MERGE, en su propia
+	 * transaccion. Lo usan los trabajos de refresco para ir guardando los bloques
+	 * segun se descargan; las filas que ya no existen se eliminan al final con
+	 * {@link #deleteMissing(List)}.
+	 *
+	 * @param albums albumes enriquecidos con sus fotos
+	 * @return filas escritas (albumes mas fotos)
+	 */
+	public int mergeChunk(List<AlbumView> albums) {
+		List<PhotoView> photos = new ArrayList<>();
+		for (AlbumView album : albums) {
+			if (album.photos() != null) {
+				photos.addAll(album.photos());
+			}
+		}
+		persistTimer.record(() -> transactionTemplate.executeWithoutResult(status -> {
+			albumBulkRepository.mergeAlbums(albums, batchSize);
+			albumBulkRepository.mergePhotos(photos, batchSize);
+		}));
+		return albums.size() + photos.size();
+	}
+
+	/**
+	 * Elimina los albumes y fotos guardados que no aparecen en los albumes
+	 * recibidos.
+	 *
+	 * @param albums albumes enriquecidos con sus fotos
+	 * @return filas eliminadas (albumes mas fotos)
+	 */
+	public int deleteMissing(List<AlbumView> albums) {
+		return persistTimer.record(() -> transactionTemplate.execute(status -> {
+			Set<Long> storedAlbumIds = albumBulkRepository.findAlbumIds();
+			Set<Long> storedPhotoIds = albumBulkRepository.findPhotoIds();
+			for (AlbumView album : albums) {
+				storedAlbumIds.remove(album.id());
+				if (album.photos() != null) {
+					album.photos().forEach(photo -> storedPhotoIds.remove(photo.id()));
+				}
+			}
+			albumBulkRepository.deletePhotos(storedPhotoIds, batchSize);
+			albumBulkRepository.deleteAlbums(storedAlbumIds, batchSize);
+			return storedAlbumIds.size() + storedPhotoIds.size();
+		}));
+	}
+
+	/**
+	 * Lee los albumes guardados con sus fotos en dos consultas de conjunto (una de
+	 * albumes y otra de fotos, ambas como proyecciones no gestionadas) en lugar de
+	 * recorrer la coleccion perezosa de cada album, que lanzaria una consulta por
+	 * album.
+	 *
+	 * @return albumes guardados ordenados por id, con sus fotos, como modelo de
+	 *         lectura
+	 */
+	public List<AlbumView> loadAlbums() {
+		long iniTime = System.nanoTime();
+		List<AlbumView> albums = loadTimer.record(() -> readOnlyTransactionTemplate.execute(status -> {
+			Map<Long, List<PhotoView>> photosByAlbum = new HashMap<>();
+			for (Photo photo : albumRepository.findAllPhotoRows()) {
+				photosByAlbum.computeIfAbsent(photo.getAlbumId(), albumId -> new ArrayList<>()).add(viewOf(photo));
+			}
+			return albumRepository.findAllAlbumRows().stream().map(album -> new AlbumView(album.getId(),
+					album.getUserId(), album.getTitle(), photosByAlbum.getOrDefault(album.getId(), List.of()))).toList();
+		}));
+		LOGGER.info("FIN EJECUCION DEL METODO loadAlbums() - TIEMPO: {} ns", System.nanoTime() - iniTime);
+		return albums;
+	}
+
+	/**
+	 * Carga masiva: MERGE de todos los albumes, MERGE de las fotos en particiones
+	 * paralelas y borrado de las filas que ya no existen en el upstream. Los ids
+	 * son siempre los del upstream.
+	 * <p>
+	 * Las particiones se escriben en hilos virtuales propios de cada carga y no en
+	 * el executor de E/S, que es donde se ejecuta este metodo: esperar desde un
+	 * hilo del pool a tareas encoladas en el mismo pool podria agotarlo. El
+	 * borrado solo se hace si todas las particiones se han escrito.
+	 */
+	private PersistenceDelta persistBulk(List<AlbumView> albums) {
+		Set<Long> storedAlbumIds = albumBulkRepository.findAlbumIds();
+		Set<Long> storedPhotoIds = albumBulkRepository.findPhotoIds();
+		List<PhotoView> photos = new ArrayList<>();
+		int albumsInserted = 0;
+		for (AlbumView album : albums) {
+			if (!storedAlbumIds.remove(album.id())) {
+				albumsInserted++;
+			}
+			if (album.photos() != null) {
+				photos.addAll(album.photos());
+			}
+		}
+		int photosInserted = 0;
+		for (PhotoView photo : photos) {
+			if (!storedPhotoIds.remove(photo.id())) {
+				photosInserted++;
+			}
+		}
+
+		transactionTemplate.executeWithoutResult(status -> albumBulkRepository.mergeAlbums(albums, batchSize));
+		int partitionSize = Math.max(batchSize, (photos.size() + parallelism - 1) / Math.max(parallelism, 1));
+		try (ExecutorService partitionExecutor = Executors
+				.newThreadPerTaskExecutor(Thread.ofVirtual().name("album-persist-", 0).factory())) {
+			List<CompletableFuture<Void>> partitions = new ArrayList<>();
+			for (int from = 0; from < photos.size(); from += partitionSize) {
+				List<PhotoView> partition = photos.subList(from, Math.min(from + partitionSize, photos.size()));
+				partitions.add(CompletableFuture.runAsync(() -> transactionTemplate
+						.executeWithoutResult(status -> albumBulkRepository.mergePhotos(partition, batchSize)),
+						partitionExecutor));
+			}
+			CompletableFuture.allOf(partitions.toArray(CompletableFuture[]::new)).join();
+		}
+		transactionTemplate.executeWithoutResult(status -> {
+			albumBulkRepository.deletePhotos(storedPhotoIds, batchSize);
+			albumBulkRepository.deleteAlbums(storedAlbumIds, batchSize);
+		});
+
+		return new PersistenceDelta(albumsInserted, albums.size() - albumsInserted, storedAlbumIds.size(),
+				photosInserted, photos.size() - photosInserted, storedPhotoIds.size());
+	}
+
+	/**
+	 * Persistencia incremental: las entidades gestionadas se crean o actualizan a
+	 * partir de los albumes recibidos y solo se escriben las diferencias.
+	 */
+	private PersistenceDelta persistDelta(List<AlbumView> albums) {
+		Map<Long, Album> storedAlbums = new HashMap<>();
+		Map<Long, Photo> storedPhotos = new HashMap<>();
+		Map<Long, Album> storedOwners = new HashMap<>();
+		for (Album stored : albumRepository.findAllWithPhotos()) {
+			storedAlbums.put(stored.getId(), stored);
+			for (Photo photo : stored.getPhotos()) {
+				storedPhotos.put(photo.getId(), photo);
+				storedOwners.put(photo.getId(), stored);
+			}
+		}
+
+		int albumsInserted = 0;
+		int albumsUpdated = 0;
+		int photosInserted = 0;
+		int photosUpdated = 0;
+		Map<Long, Album> managedAlbums = new HashMap<>();
+		for (AlbumView album : albums) {
+			Album managed = storedAlbums.remove(album.id());
+			if (managed == null) {
+				managed = new Album(album.id(), album.userId(), album.title());
+				managed.setPhotos(new ArrayList<>());
+				entityManager.persist(managed);
+				albumsInserted++;
+			} else if (!Objects.equals(managed.getUserId(), album.userId())
+					|| !Objects.equals(managed.getTitle(), album.title())) {
+				managed.setUserId(album.userId());
+				managed.setTitle(album.title());
+				albumsUpdated++;
+			}
+			managedAlbums.put(managed.getId(), managed);
+		}
+
+		for (AlbumView album : albums) {
+			if (album.photos() == null) {
+				continue;
+			}
+			Album owner = managedAlbums.get(album.id());
+			for (PhotoView photo : album.photos()) {
+				Photo managed = storedPhotos.remove(photo.id());
+				if (managed == null) {
+					owner.getPhotos().add(entityOf(photo));
+					photosInserted++;
+				} else if (!samePhoto(managed, photo)) {
+					Album previousOwner = storedOwners.get(photo.id());
+					if (previousOwner != owner) {
+						previousOwner.getPhotos().remove(managed);
+						owner.getPhotos().add(managed);
+					}
+					managed.setAlbumId(photo.albumId());
+					managed.setTitle(photo.title());
+					managed.setUrl(photo.url());
+					managed.setThumbnailUrl(photo.thumbnailUrl());
+					photosUpdated++;
+				}
+			}
+		}
+
+		int photosDeleted = storedPhotos.size();
+		storedPhotos.forEach((id, photo) -> {
+			storedOwners.get(id).getPhotos().remove(photo);
+			entityManager.remove(photo);
+		});
+		int albumsDeleted = storedAlbums.size();
+		storedAlbums.values().forEach(entityManager::remove);
+
+		return new PersistenceDelta(albumsInserted, albumsUpdated, albumsDeleted, photosInserted, photosUpdated,
+				photosDeleted);
+	}
+
+	private void record(PersistenceDelta delta) {
+		count("album", "inserted", delta.albumsInserted());
+		count("album", "updated", delta.albumsUpdated());
+		count("album", "deleted", delta.albumsDeleted());
+		count("photo", "inserted", delta.photosInserted());
+		count("photo", "updated", delta.photosUpdated());
+		count("photo", "deleted", delta.photosDeleted());
+	}
+
+	private void count(String entity, String change, int amount) {
+		meterRegistry.counter("album.persistence.changes", "entity", entity, "change", change).increment(amount);
+	}
+
+	private static boolean samePhoto(Photo stored, PhotoView photo) {
+		return Objects.equals(stored.getAlbumId(), photo.albumId()) && Objects.equals(stored.getTitle(), photo.title())
+				&& Objects.equals(stored.getUrl(), photo.url())
+				&& Objects.equals(stored.getThumbnailUrl(), photo.thumbnailUrl());
+	}
+
+	private static Photo entityOf(PhotoView photo) {
+		return new Photo(photo.id(), photo.albumId(), photo.title(), photo.url(), photo.thumbnailUrl());
+	}
+
+	private static PhotoView viewOf(Photo photo) {
+		return new PhotoView(photo.getId(), photo.getAlbumId(), photo.getTitle(), photo.getUrl(),
+				photo.getThumbnailUrl());
+	}
+}
@@ -0,0 +1,120 @@
+package com.example.albumphotoenrichment.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import com.example.albumphotoenrichment.constant.AlbumPhotoConstants;
+import com.example.albumphotoenrichment.model.AlbumPage;
+import com.example.albumphotoenrichment.model.AlbumQuery;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Resuelve consultas paginadas, filtradas y proyectadas sobre una instantanea
+ * usando sus indices, de forma que el coste es proporcional a las filas
+ * devueltas y no al conjunto completo. La proyeccion de cada pagina se mide en
+ * la fase {@code serialize} del temporizador {@code album.phase}.
+ */
+@Service
+public class AlbumQueryService {
+
+	private final ObjectMapper objectMapper;
+	private final Timer serializeTimer;
+
+	@Autowired
+	public AlbumQueryService(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+		this.objectMapper = objectMapper;
+		this.serializeTimer = meterRegistry.timer(AlbumPhotoConstants.METRIC_PHASE, "phase",
+				AlbumPhotoConstants.PHASE_SERIALIZE);
+	}
+
+	/**
+	 * Ejecuta la consulta sobre la instantanea.
+	 *
+	 * @param snapshot instantanea enriquecida
+	 * @param query    consulta
+	 * @return pagina de albumes proyectados
+	 */
+	public AlbumPage query(EnrichedSnapshot snapshot, AlbumQuery query) {
+		List<AlbumView> candidates = query.userId() == null ? snapshot.getAlbumsSortedById()
+				: snapshot.getAlbumsByUserId(query.userId());
+
+		int from;
+		int page;
+		if (query.cursor() != null) {
+			// Paginacion por cursor: primera posicion con id mayor que el cursor
+			int position = Collections.binarySearch(candidates, new AlbumView(query.cursor(), null, null),
+					(a, b) -> Long.compare(a.id(), b.id()));
+			from = position >= 0 ? position + 1 : -position - 1;
+			page = from / query.size();
+		} else {
+			from = (int) Math.min((long) query.page() * query.size(), candidates.size());
+			page = query.page();
+		}
+		int to = Math.min(from + query.size(), candidates.size());
+
+		List<JsonNode> items = new ArrayList<>(to - from);
+		long iniTime = System.nanoTime();
+		for (AlbumView album : candidates.subList(from, to)) {
+			items.add(project(album, query));
+		}
+		serializeTimer.record(System.nanoTime() - iniTime, TimeUnit.NANOSECONDS);
+		Long nextCursor = to < candidates.size() && to > from ? candidates.get(to - 1).id() : null;
+		return new AlbumPage(items, page, query.size(), candidates.size(), nextCursor);
+	}
+
+	private ObjectNode project(AlbumView album, AlbumQuery query) {
+		ObjectNode node = objectMapper.createObjectNode();
+		if (query.fields().contains("id")) {
+			node.put("id", album.id());
+		}
+		if (query.fields().contains("userId")) {
+			node.put("userId", album.userId());
+		}
+		if (query.fields().contains("title")) {
+			node.put("title", album.title());
+		}
+		if (query.fields().contains("photos")) {
+			ArrayNode photos = node.putArray("photos");
+			if (album.photos() != null) {
+				for (PhotoView photo : album.photos()) {
+					photos.add(project(photo, query));
+				}
+			}
+		}
+		return node;
+	}
+
+	private ObjectNode project(PhotoView photo, AlbumQuery query) {
+		ObjectNode node = objectMapper.createObjectNode();
+		if (query.photoFields().contains("id")) {
+			node.put("id", photo.id());
+		}
+		if (query.photoFields().contains("albumId")) {
+			node.put("albumId", photo.albumId());
+		}
+		if (query.photoFields().contains("title")) {
+			node.put("title", photo.title());
+		}
+		if (query.photoFields().contains("url")) {
+			node.put("url", photo.url());
+		}
+		if (query.photoFields().contains("thumbnailUrl")) {
+			node.put("thumbnailUrl", photo.thumbnailUrl());
+		}
+		return node;
+	}
+}
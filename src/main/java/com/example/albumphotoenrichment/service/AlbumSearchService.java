@@ -0,0 +1,149 @@
+package com.example.albumphotoenrichment.service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import com.example.albumphotoenrichment.cache.SingleFlight;
+import com.example.albumphotoenrichment.constant.AlbumPhotoConstants;
+import com.example.albumphotoenrichment.factory.ExecutorServiceFactory;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.example.albumphotoenrichment.model.SearchHit;
+import com.example.albumphotoenrichment.model.SearchResult;
+import com.example.albumphotoenrichment.model.SnapshotPublishedEvent;
+
+/**
+ * Busqueda por titulo de albumes y fotos ({@code GET /albums/search}) sobre un
+ * {@link TitleIndex}.
+ * <p>
+ * El indice se reconstruye en el executor de calculo cada vez que se publica
+ * una instantanea, reutilizando los segmentos sin cambios del anterior, y se
+ * sustituye con un unico cambio de referencia atomico; mientras tanto las
+ * busquedas siguen usando el indice anterior. Si se publican varias
+ * instantaneas seguidas solo se indexa la ultima. La construccion se mide en
+ * la fase {@code index} del temporizador {@code album.phase} y cada busqueda en
+ * la fase {@code search}.
+ */
+@Service
+public class AlbumSearchService {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AlbumSearchService.class);
+	private static final String INITIAL_INDEX = "initial";
+
+	private final AlbumService albumService;
+	private final ExecutorService computeExecutor;
+	private final int segmentSize;
+	private final int maxExpansions;
+	private final Timer indexTimer;
+	private final Timer searchTimer;
+	private final AtomicReference<TitleIndex> index = new AtomicReference<>();
+	private final AtomicReference<EnrichedSnapshot> pending = new AtomicReference<>();
+	private final SingleFlight<String, TitleIndex> initialIndex = new SingleFlight<>();
+
+	@Autowired
+	public AlbumSearchService(AlbumService albumService, ExecutorServiceFactory executorServiceFactory,
+			MeterRegistry meterRegistry, @Value("${album.search.segment-size:256}") int segmentSize,
+			@Value("${album.search.max-expansions:64}") int maxExpansions) {
+		this.albumService = albumService;
+		this.computeExecutor = executorServiceFactory.createComputeExecutorService();
+		this.segmentSize = Math.max(segmentSize, 1);
+		this.maxExpansions = Math.max(maxExpansions, 0);
+		this.indexTimer = meterRegistry.timer(AlbumPhotoConstants.METRIC_PHASE, "phase", AlbumPhotoConstants.PHASE_INDEX);
+		this.searchTimer = meterRegistry.timer(AlbumPhotoConstants.METRIC_PHASE, "phase",
+				AlbumPhotoConstants.PHASE_SEARCH);
+	}
+
+	/**
+	 * Indexa la instantanea publicada en segundo plano.
+	 *
+	 * @param event evento con la instantanea publicada
+	 */
+	@EventListener
+	public void onSnapshotPublished(SnapshotPublishedEvent event) {
+		if (pending.getAndSet(event.snapshot()) == null) {
+			scheduleIndex();
+		}
+	}
+
+	private void scheduleIndex() {
+		try {
+			computeExecutor.execute(this::indexLatest);
+		} catch (RejectedExecutionException e) {
+			// Cola de calculo llena: se indexara la siguiente instantanea publicada
+			pending.set(null);
+			LOGGER.warn("No se ha podido programar la indexacion: {}", e.toString());
+		}
+	}
+
+	private void indexLatest() {
+		EnrichedSnapshot latest = pending.get();
+		CompletableFuture<TitleIndex> built;
+		try {
+			built = index(latest);
+		} catch (RuntimeException e) {
+			built = CompletableFuture.failedFuture(e); // Un fallo sincrono tambien libera pending
+		}
+		built.whenComplete((titleIndex, ex) -> {
+			if (ex != null) {
+				LOGGER.warn("No se ha podido indexar la instantanea", ex);
+			} else {
+				index.set(titleIndex);
+			}
+			// Si ha llegado otra instantanea mientras se indexaba, se indexa la ultima
+			if (!pending.compareAndSet(latest, null)) {
+				scheduleIndex();
+			}
+		});
+	}
+
+	private CompletableFuture<TitleIndex> index(EnrichedSnapshot snapshot) {
+		long iniTime = System.nanoTime();
+		return TitleIndex.build(snapshot, index.get(), segmentSize, maxExpansions, computeExecutor)
+				.whenComplete((built, ex) -> {
+					if (built != null) {
+						indexTimer.record(System.nanoTime() - iniTime, TimeUnit.NANOSECONDS);
+						LOGGER.info("Indice de titulos: {} segmentos ({} reutilizados), {} palabras ({} sin uso), {} bytes",
+								built.getSegmentCount(), built.getReusedSegmentCount(), built.getTokenCount(),
+								built.getUnusedTokenCount(), built.getPostingsMemory());
+					}
+				});
+	}
+
+	/**
+	 * Busca albumes y fotos cuyos titulos contienen todos los terminos de la
+	 * consulta. Si aun no hay indice se construye a partir de la instantanea
+	 * actual; las busquedas concurrentes comparten esa construccion.
+	 *
+	 * @param query consulta
+	 * @param limit numero maximo de resultados
+	 * @return resultados ordenados por puntuacion
+	 */
+	public CompletableFuture<SearchResult> search(String query, int limit) {
+		TitleIndex current = index.get();
+		CompletableFuture<TitleIndex> future = current != null ? CompletableFuture.completedFuture(current)
+				: initialIndex.execute(INITIAL_INDEX, () -> albumService.getSnapshotAsync().thenCompose(snapshot -> {
+					TitleIndex published = index.get(); // Publicado mientras se esperaba
+					return published != null ? CompletableFuture.completedFuture(published)
+							: index(snapshot).thenApply(built -> index.compareAndSet(null, built) ? built : index.get());
+				}));
+		return future.thenApply(titleIndex -> {
+			long iniTime = System.nanoTime();
+			List<SearchHit> hits = titleIndex.search(query, limit);
+			searchTimer.record(System.nanoTime() - iniTime, TimeUnit.NANOSECONDS);
+			return new SearchResult(query, limit, hits);
+		});
+	}
+}
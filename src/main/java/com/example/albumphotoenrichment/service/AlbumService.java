@@ -1,109 +1,491 @@
 package com.example.albumphotoenrichment.service;
 
-import java.util.Arrays;
+import java.time.Instant;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import com.example.albumphotoenrichment.cache.AlbumDetailCache;
+import com.example.albumphotoenrichment.cache.SingleFlight;
+import com.example.albumphotoenrichment.cache.UpstreamSnapshotCache;
 import com.example.albumphotoenrichment.constant.AlbumPhotoConstants;
+import com.example.albumphotoenrichment.factory.EnrichedSnapshotFactory;
 import com.example.albumphotoenrichment.factory.ExecutorServiceFactory;
-import com.example.albumphotoenrichment.factory.RestTemplateFactory;
-import com.example.albumphotoenrichment.model.Album;
-import com.example.albumphotoenrichment.model.Photo;
-import com.example.albumphotoenrichment.repository.AlbumRepository;
+import com.example.albumphotoenrichment.factory.SnapshotAssembler;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.example.albumphotoenrichment.model.PhotoColumns;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.example.albumphotoenrichment.model.SnapshotPublishedEvent;
 
 @Service
 public class AlbumService {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(AlbumService.class);
 
-	private final RestTemplate restTemplate;
-	private final AlbumRepository albumRepository;
-	private final ExecutorService executorService;
+	private final UpstreamClient upstreamClient;
+	private final AlbumPersistenceService albumPersistenceService;
+	private final UpstreamSnapshotCache upstreamSnapshotCache;
+	private final AlbumDetailCache albumDetailCache;
+	private final EnrichedSnapshotFactory enrichedSnapshotFactory;
+	private final ExecutorService computeExecutor;
+	private final ExecutorService ioExecutor;
+	private final ApplicationEventPublisher eventPublisher;
+	private final String readMode;
+	private final AtomicReference<EnrichedSnapshot> snapshot = new AtomicReference<>();
+	private final SingleFlight<String, EnrichedSnapshot> initialBuild = new SingleFlight<>();
+	private volatile Instant revalidatedAt;
+	private final AtomicReference<EnrichedSnapshot> persistedSnapshot = new AtomicReference<>();
+	private final AtomicReference<EnrichedSnapshot> storedSnapshot = new AtomicReference<>();
+	private final AtomicLong storedVersion = new AtomicLong();
+	private final AtomicReference<SnapshotAssembler> pendingAssembler = new AtomicReference<>();
+	private final Counter refreshSkipped;
+	private final Counter saveSkipped;
+	private final Timer buildTimer;
+	private final DistributionSummary snapshotSize;
+	private final DistributionSummary snapshotGzipSize;
+	private final AtomicLong urlMemory = new AtomicLong();
+	private final AtomicLong plainUrlMemory = new AtomicLong();
 
 	@Autowired
-	public AlbumService(RestTemplateFactory restTemplateFactory, AlbumRepository albumRepository,
-			ExecutorServiceFactory executorServiceFactory) {
-		this.restTemplate = restTemplateFactory.createRestTemplate();
-		this.albumRepository = albumRepository;
-		this.executorService = executorServiceFactory.createExecutorService();
+	public AlbumService(UpstreamClient upstreamClient, AlbumPersistenceService albumPersistenceService,
+			UpstreamSnapshotCache upstreamSnapshotCache, AlbumDetailCache albumDetailCache,
+			EnrichedSnapshotFactory enrichedSnapshotFactory, ExecutorServiceFactory executorServiceFactory,
+			ApplicationEventPublisher eventPublisher, MeterRegistry meterRegistry,
+			@Value("${album.read.mode:" + AlbumPhotoConstants.READ_MODE_UPSTREAM + "}") String readMode) {
+		this.upstreamClient = upstreamClient;
+		this.albumPersistenceService = albumPersistenceService;
+		this.upstreamSnapshotCache = upstreamSnapshotCache;
+		this.albumDetailCache = albumDetailCache;
+		this.enrichedSnapshotFactory = enrichedSnapshotFactory;
+		this.computeExecutor = executorServiceFactory.createComputeExecutorService();
+		this.ioExecutor = executorServiceFactory.createExecutorService();
+		this.eventPublisher = eventPublisher;
+		this.readMode = readMode;
+		this.refreshSkipped = meterRegistry.counter("album.refresh.skipped");
+		this.saveSkipped = meterRegistry.counter("album.save.skipped");
+		this.buildTimer = meterRegistry.timer(AlbumPhotoConstants.METRIC_PHASE, "phase", AlbumPhotoConstants.PHASE_BUILD);
+		this.snapshotSize = DistributionSummary.builder("album.snapshot.payload").baseUnit("bytes")
+				.tag("encoding", "identity").register(meterRegistry);
+		this.snapshotGzipSize = DistributionSummary.builder("album.snapshot.payload").baseUnit("bytes")
+				.tag("encoding", "gzip").register(meterRegistry);
+		Gauge.builder("album.photos.url.memory", urlMemory, AtomicLong::get).baseUnit("bytes")
+				.tag("storage", "dictionary").register(meterRegistry);
+		Gauge.builder("album.photos.url.memory", plainUrlMemory, AtomicLong::get).baseUnit("bytes")
+				.tag("storage", "strings").register(meterRegistry);
+	}
+
+	CompletableFuture<List<AlbumView>> fetchAlbumsAsync() {
+		return upstreamSnapshotCache.get(AlbumPhotoConstants.ALBUMS, upstreamClient::fetchAlbums);
+	}
+
+	CompletableFuture<Map<Long, List<PhotoView>>> fetchPhotosAsync() {
+		return upstreamSnapshotCache.get(AlbumPhotoConstants.PHOTOS, previous -> loadPhotos(previous, null));
 	}
 
-	@Cacheable(AlbumPhotoConstants.CACHE_ALBUMS)
-	CompletableFuture<List<Album>> fetchAlbumsAsync() {
-		return CompletableFuture.supplyAsync(() -> {
-			Album[] albumArray = restTemplate.getForObject(AlbumPhotoConstants.ALBUMS_URL, Album[].class);
-			return Arrays.asList(albumArray);
-		}, executorService);
+	CompletableFuture<List<AlbumView>> refreshAlbumsAsync() {
+		return upstreamSnapshotCache.refresh(AlbumPhotoConstants.ALBUMS, upstreamClient::fetchAlbums);
 	}
 
-	@Cacheable(AlbumPhotoConstants.CACHE_PHOTOS)
-	CompletableFuture<List<Photo>> fetchPhotosAsync() {
-		return CompletableFuture.supplyAsync(() -> {
-			Photo[] photoArray = restTemplate.getForObject(AlbumPhotoConstants.PHOTOS_URL, Photo[].class);
-			return Arrays.asList(photoArray);
-		}, executorService);
+	CompletableFuture<Map<Long, List<PhotoView>>> refreshPhotosAsync(
+			BiConsumer<List<AlbumView>, Map<Long, List<PhotoView>>> onPartition) {
+		return upstreamSnapshotCache.refresh(AlbumPhotoConstants.PHOTOS, previous -> loadPhotos(previous, onPartition));
 	}
 
-	public List<Album> enrichAlbumsAndSave() {
+	/**
+	 * Descarga las fotos. Con la descarga por particiones, las particiones se
+	 * planifican con los albumes actuales y cada una se une y serializa en el
+	 * executor de calculo en cuanto llega, solapando el enriquecimiento con la
+	 * descarga del resto. Cada particion se pasa tambien a {@code onPartition}, el
+	 * receptor del trabajo de refresco que ha lanzado esta descarga (o null). Sin
+	 * particiones y con receptor, las fotos se piden despues de los albumes y el
+	 * receptor recibe los bloques de albumes modificados segun se lee el cuerpo.
+	 */
+	private CompletableFuture<Map<Long, List<PhotoView>>> loadPhotos(Map<Long, List<PhotoView>> previous,
+			BiConsumer<List<AlbumView>, Map<Long, List<PhotoView>>> onPartition) {
+		if (!upstreamClient.isPhotosPartitioned()) {
+			return onPartition == null ? upstreamClient.fetchPhotosByAlbum(previous)
+					: fetchAlbumsAsync().thenCompose(albums -> upstreamClient.fetchPhotosByAlbum(previous, albums,
+							partition -> onPartition.accept(albums, partition)));
+		}
+		return fetchAlbumsAsync().thenCompose(albums -> {
+			SnapshotAssembler assembler = enrichedSnapshotFactory.newAssembler(albums, computeExecutor);
+			return upstreamClient.fetchPhotosByAlbum(previous, albums, partition -> {
+				assembler.addPartition(partition);
+				if (onPartition != null) {
+					onPartition.accept(albums, partition);
+				}
+			})
+					.thenCompose(photos -> assembler.awaitPartitions().thenApply(ignored -> {
+						pendingAssembler.set(assembler);
+						return photos;
+					}));
+		});
+	}
+
+	public List<AlbumView> enrichAlbumsAndSave() {
 		long iniTime = System.nanoTime();
-		List<Album> albums = saveAlbums(enrichAlbums(fetchAlbumsAsync(), fetchPhotosAsync()));
+		List<AlbumView> albums = await(enrichAlbumsAndSaveAsync());
 		LOGGER.info("FIN EJECUCION DEL METODO enrichAlbumsAndSave() - TIEMPO: {} ns", System.nanoTime() - iniTime);
 		return albums;
 	}
 
-	public List<Album> enrichAlbums() {
+	/**
+	 * Version asincrona de {@link #enrichAlbumsAndSave()}: la descarga, la union y
+	 * el guardado se encadenan sin bloquear el hilo que llama.
+	 *
+	 * @return futuro con la lista de albumes enriquecidos
+	 */
+	public CompletableFuture<List<AlbumView>> enrichAlbumsAndSaveAsync() {
+		return enrichSnapshotAsync(fetchAlbumsAsync(), fetchPhotosAsync()).thenCompose(this::saveSnapshotAsync);
+	}
+
+	public List<AlbumView> enrichAlbums() {
+		return getSnapshot().getAlbums();
+	}
+
+	/**
+	 * Obtiene la instantanea enriquecida publicada. Las instantaneas se construyen
+	 * aparte y se publican con un cambio de referencia atomico, asi que la lectura
+	 * nunca se bloquea; solo la primera llamada, si aun no hay ninguna publicada,
+	 * espera a construirla.
+	 *
+	 * @return instantanea enriquecida
+	 */
+	public EnrichedSnapshot getSnapshot() {
+		EnrichedSnapshot current = snapshot.get();
+		if (current != null) {
+			return current;
+		}
 		long iniTime = System.nanoTime();
-		List<Album> albums = enrichAlbums(fetchAlbumsAsync(), fetchPhotosAsync());
-		LOGGER.info("FIN EJECUCION DEL METODO enrichAlbums() - TIEMPO: {} ns", System.nanoTime() - iniTime);
-		return albums;
+		EnrichedSnapshot enriched = await(getSnapshotAsync());
+		LOGGER.info("FIN EJECUCION DEL METODO getSnapshot() - TIEMPO: {} ns", System.nanoTime() - iniTime);
+		return enriched;
+	}
+
+	/**
+	 * Version asincrona de {@link #getSnapshot()}. Con una instantanea publicada
+	 * el futuro ya esta completado; si no, todas las llamadas concurrentes
+	 * comparten una unica construccion.
+	 *
+	 * @return futuro con la instantanea enriquecida
+	 */
+	public CompletableFuture<EnrichedSnapshot> getSnapshotAsync() {
+		EnrichedSnapshot current = snapshot.get();
+		return current != null ? CompletableFuture.completedFuture(current)
+				: initialBuild.execute(AlbumPhotoConstants.READ_MODE_UPSTREAM, () -> {
+					EnrichedSnapshot published = snapshot.get(); // Publicada mientras se esperaba
+					return published != null ? CompletableFuture.completedFuture(published)
+							: enrichSnapshotAsync(fetchAlbumsAsync(), fetchPhotosAsync());
+				});
+	}
+
+	/**
+	 * Obtiene la instantanea del origen indicado:
+	 * <ul>
+	 * <li>{@code upstream}: la instantanea publicada a partir del upstream.</li>
+	 * <li>{@code db}: los albumes guardados en la base de datos, leidos con dos
+	 * consultas de conjunto. La instantanea se guarda hasta el siguiente guardado,
+	 * de forma que sirve a cualquier ritmo de peticiones aunque el upstream este
+	 * lento o caido.</li>
+	 * </ul>
+	 *
+	 * @param source origen, o null para el configurado en {@code album.read.mode}
+	 * @return instantanea enriquecida
+	 */
+	public EnrichedSnapshot getSnapshot(String source) {
+		return await(getSnapshotAsync(source));
+	}
+
+	/**
+	 * Version asincrona de {@link #getSnapshot(String)}. La lectura de la base de
+	 * datos se hace en el executor de E/S.
+	 *
+	 * @param source origen, o null para el configurado en {@code album.read.mode}
+	 * @return futuro con la instantanea enriquecida
+	 */
+	public CompletableFuture<EnrichedSnapshot> getSnapshotAsync(String source) {
+		String mode = source == null ? readMode : source;
+		return switch (mode) {
+		case AlbumPhotoConstants.READ_MODE_UPSTREAM -> getSnapshotAsync();
+		case AlbumPhotoConstants.READ_MODE_DB -> {
+			EnrichedSnapshot current = storedSnapshot.get();
+			yield current != null ? CompletableFuture.completedFuture(current)
+					: CompletableFuture.supplyAsync(this::loadStoredSnapshot, ioExecutor);
+		}
+		default -> throw new IllegalArgumentException(AlbumPhotoConstants.ERROR_INVALID_SOURCE + mode);
+		};
+	}
+
+	private EnrichedSnapshot loadStoredSnapshot() {
+		long version = storedVersion.get();
+		List<AlbumView> albums = albumPersistenceService.loadAlbums();
+		Map<Long, List<PhotoView>> photosByAlbum = new HashMap<>();
+		albums.forEach(album -> photosByAlbum.put(album.id(), album.photos()));
+		EnrichedSnapshot stored = enrichedSnapshotFactory.create(albums, photosByAlbum);
+		synchronized (storedSnapshot) {
+			if (storedVersion.get() == version) {
+				storedSnapshot.compareAndSet(null, stored); // No se ha guardado nada mientras se leia
+			}
+		}
+		return stored;
+	}
+
+	/**
+	 * Obtiene un unico album enriquecido. Si ya existe una instantanea completa se
+	 * responde desde su indice por id, sin llamar al upstream. Si no, se descargan
+	 * solo /albums/{id} y /albums/{id}/photos y el resultado se guarda en la cache
+	 * acotada de detalle.
+	 *
+	 * @param id id del album
+	 * @return album enriquecido, o null si no existe
+	 */
+	public AlbumView getAlbum(Long id) {
+		long iniTime = System.nanoTime();
+		AlbumView album = await(getAlbumAsync(id));
+		LOGGER.info("FIN EJECUCION DEL METODO getAlbum() - TIEMPO: {} ns", System.nanoTime() - iniTime);
+		return album;
+	}
+
+	/**
+	 * Version asincrona de {@link #getAlbum(Long)}.
+	 *
+	 * @param id id del album
+	 * @return futuro con el album enriquecido, o null si no existe
+	 */
+	public CompletableFuture<AlbumView> getAlbumAsync(Long id) {
+		EnrichedSnapshot current = snapshot.get();
+		return current != null ? CompletableFuture.completedFuture(current.getAlbum(id))
+				: albumDetailCache.get(id, this::loadAlbum);
+	}
+
+	private CompletableFuture<AlbumView> loadAlbum(Long id) {
+		return upstreamClient.fetchAlbum(id).thenCombine(upstreamClient.fetchAlbumPhotos(id), (album, photos) -> {
+			return album == null ? null : album.withPhotos(photos);
+		});
 	}
 
-	@CacheEvict(value = { AlbumPhotoConstants.CACHE_ALBUMS, AlbumPhotoConstants.CACHE_PHOTOS }, allEntries = true)
 	public void evictCache() {
-		// Este método limpia la caché
+		upstreamSnapshotCache.invalidateAll(); // Este método limpia la caché
+		albumDetailCache.invalidateAll();
+	}
+
+	/**
+	 * Revalida los datos upstream y guarda los albumes en la base de datos. Si
+	 * nada ha cambiado desde el ultimo guardado no se escribe en la base de datos.
+	 *
+	 * @return Lista de albumes enriquecidos
+	 */
+	public List<AlbumView> refreshAlbumsAndSave() {
+		long iniTime = System.nanoTime();
+		List<AlbumView> albums = await(refreshAlbumsAndSaveAsync());
+		LOGGER.info("FIN EJECUCION DEL METODO refreshAlbumsAndSave() - TIEMPO: {} ns", System.nanoTime() - iniTime);
+		return albums;
 	}
 
-	public List<Album> refreshAlbumsAndSave() {
-		evictCache(); // Limpia la caché antes de recargar
-		return enrichAlbumsAndSave(); // Recarga y procesa los datos
+	/**
+	 * Version asincrona de {@link #refreshAlbumsAndSave()}. El guardado se hace en
+	 * el executor de E/S.
+	 *
+	 * @return futuro con la lista de albumes enriquecidos
+	 */
+	public CompletableFuture<List<AlbumView>> refreshAlbumsAndSaveAsync() {
+		return refreshSnapshotAsync().thenCompose(this::saveSnapshotAsync);
 	}
 
-	public List<Album> refreshAlbums() {
-		evictCache(); // Limpia la caché antes de recargar
-		return enrichAlbums(); // Recarga y procesa los datos
+	/**
+	 * Revalida los datos upstream con peticiones condicionales. Si ni /albums ni
+	 * /photos han cambiado se reutiliza la instantanea actual sin volver a unir ni
+	 * serializar.
+	 *
+	 * @return Lista de albumes enriquecidos
+	 */
+	public List<AlbumView> refreshAlbums() {
+		return refreshSnapshot().getAlbums();
 	}
 
-	private List<Album> enrichAlbums(CompletableFuture<List<Album>> albumsFuture,
-			CompletableFuture<List<Photo>> photosFuture) {
-		try {
-			CompletableFuture<Void> allOf = CompletableFuture.allOf(albumsFuture, photosFuture);
-			allOf.join(); // Espera a que ambas tareas se completen
+	/**
+	 * @return instantanea publicada, o null si aun no se ha construido ninguna
+	 */
+	EnrichedSnapshot getPublishedSnapshot() {
+		return snapshot.get();
+	}
 
-			List<Album> albums = albumsFuture.get();
-			List<Photo> photos = photosFuture.get();
+	/**
+	 * @return momento del ultimo refresco terminado con exito, haya cambiado o no
+	 *         la instantanea, o null si aun no ha habido ninguno
+	 */
+	Instant getRevalidatedAt() {
+		return revalidatedAt;
+	}
 
-			Map<Long, List<Photo>> photosByAlbum = photos.parallelStream()
-					.collect(Collectors.groupingByConcurrent(Photo::getAlbumId));
+	/**
+	 * Publica una instantanea restaurada al arrancar, salvo que ya se haya
+	 * construido otra a partir del upstream.
+	 *
+	 * @param restored instantanea restaurada
+	 * @return true si se ha publicado
+	 */
+	boolean restoreSnapshot(EnrichedSnapshot restored) {
+		return snapshot.compareAndSet(null, restored);
+	}
 
-			albums.parallelStream().forEach(album -> album.setPhotos(photosByAlbum.get(album.getId())));
-			return albums;
-		} catch (Exception e) {
-			throw new RuntimeException(AlbumPhotoConstants.ERROR_PROCESS_ALBUMS_PHOTOS, e);
+	/**
+	 * Revalida los datos upstream y, si han cambiado, construye y publica la
+	 * siguiente instantanea.
+	 *
+	 * @return instantanea publicada
+	 */
+	EnrichedSnapshot refreshSnapshot() {
+		return await(refreshSnapshotAsync());
+	}
+
+	/**
+	 * Version asincrona de {@link #refreshAlbums()}.
+	 *
+	 * @return futuro con la instantanea publicada
+	 */
+	public CompletableFuture<EnrichedSnapshot> refreshSnapshotAsync() {
+		return refreshSnapshotAsync(null);
+	}
+
+	/**
+	 * Como {@link #refreshSnapshotAsync()}, pero pasa cada particion de fotos nueva
+	 * o modificada a {@code onPartition} en cuanto llega, junto con los albumes
+	 * con los que se ha planificado; sin particiones, las particiones son bloques
+	 * de albumes modificados del cuerpo de la unica peticion. El
+	 * receptor solo recibe las particiones de esta descarga: si ya habia un
+	 * refresco en curso, se comparte su resultado y no se recibe ninguna.
+	 *
+	 * @param onPartition receptor de los albumes y de cada particion de fotos, o
+	 *                    null
+	 * @return futuro con la instantanea publicada
+	 */
+	public CompletableFuture<EnrichedSnapshot> refreshSnapshotAsync(
+			BiConsumer<List<AlbumView>, Map<Long, List<PhotoView>>> onPartition) {
+		EnrichedSnapshot previous = snapshot.get();
+		CompletableFuture<List<AlbumView>> albumsFuture = refreshAlbumsAsync();
+		// Las particiones de fotos se planifican, y se entregan al receptor, con los
+		// albumes ya revalidados
+		CompletableFuture<Map<Long, List<PhotoView>>> photosFuture = upstreamClient.isPhotosPartitioned()
+				|| onPartition != null
+				? albumsFuture.thenCompose(albums -> refreshPhotosAsync(onPartition))
+				: refreshPhotosAsync(onPartition);
+		return enrichSnapshotAsync(albumsFuture, photosFuture).thenApply(refreshed -> {
+			if (refreshed == previous) {
+				refreshSkipped.increment();
+			}
+			revalidatedAt = Instant.now(); // Tambien si el upstream responde 304 o sin cambios
+			return refreshed;
+		});
+	}
+
+	/**
+	 * @param enriched instantanea
+	 * @return true si la instantanea ya esta guardada en la base de datos
+	 */
+	boolean isPersisted(EnrichedSnapshot enriched) {
+		return persistedSnapshot.get() == enriched;
+	}
+
+	/**
+	 * Registra que la instantanea se ha guardado por otra via (los trabajos de
+	 * refresco escriben por bloques) para que no se vuelva a escribir y la
+	 * siguiente lectura de la base de datos vea los cambios.
+	 *
+	 * @param enriched instantanea guardada
+	 */
+	void markPersisted(EnrichedSnapshot enriched) {
+		persistedSnapshot.set(enriched);
+		synchronized (storedSnapshot) {
+			storedVersion.incrementAndGet();
+			storedSnapshot.set(null);
 		}
 	}
 
-	private List<Album> saveAlbums(List<Album> albums) {
-		return albumRepository.saveAll(albums);
+	private CompletableFuture<EnrichedSnapshot> enrichSnapshotAsync(CompletableFuture<List<AlbumView>> albumsFuture,
+			CompletableFuture<Map<Long, List<PhotoView>>> photosFuture) {
+		// La union y serializacion es trabajo de CPU: se ejecuta en el executor de
+		// calculo en cuanto ambas descargas terminan. Se envia desde thenCompose para
+		// que un rechazo del executor falle el futuro en lugar de perderse en el hilo
+		// que completa la descarga
+		return albumsFuture.thenCombine(photosFuture, (albums, photosByAlbum) -> CompletableFuture
+				.supplyAsync(() -> buildSnapshot(albums, photosByAlbum), computeExecutor))
+				.thenCompose(Function.identity());
+	}
+
+	private EnrichedSnapshot buildSnapshot(List<AlbumView> albums, Map<Long, List<PhotoView>> photosByAlbum) {
+		EnrichedSnapshot current = snapshot.get();
+		if (current != null && current.isBuiltFrom(albums, photosByAlbum)) {
+			return current; // Los datos upstream no han cambiado
+		}
+		long iniTime = System.nanoTime();
+		SnapshotAssembler assembler = pendingAssembler.getAndSet(null);
+		EnrichedSnapshot enriched = assembler != null && assembler.getAlbums() == albums
+				? assembler.finish(photosByAlbum) // Particiones ya unidas durante la descarga
+				: enrichedSnapshotFactory.create(albums, photosByAlbum); // Fotos ya agrupadas
+		buildTimer.record(System.nanoTime() - iniTime, TimeUnit.NANOSECONDS);
+		if (photosByAlbum instanceof PhotoColumns columns) {
+			urlMemory.set(columns.getUrlMemory());
+			plainUrlMemory.set(columns.getPlainUrlMemory());
+			LOGGER.info("URLs de {} fotos: {} bytes con diccionario de prefijos, {} bytes como String",
+					columns.getPhotoCount(), columns.getUrlMemory(), columns.getPlainUrlMemory());
+		}
+		// Solo se publica si nadie lo ha hecho mientras se construia: una construccion
+		// mas lenta que empezo antes no sustituye a una instantanea mas reciente
+		if (!snapshot.compareAndSet(current, enriched)) {
+			LOGGER.debug("Instantanea descartada: se ha publicado otra mientras se construia");
+			return snapshot.get();
+		}
+		snapshotSize.record(enriched.getJson().length);
+		snapshotGzipSize.record(enriched.getGzipJson().length);
+		eventPublisher.publishEvent(new SnapshotPublishedEvent(enriched));
+		return enriched;
+	}
+
+	private CompletableFuture<List<AlbumView>> saveSnapshotAsync(EnrichedSnapshot enriched) {
+		if (persistedSnapshot.get() == enriched) {
+			saveSkipped.increment();
+			return CompletableFuture.completedFuture(enriched.getAlbums()); // Ya esta guardada
+		}
+		// La escritura en base de datos es bloqueante: se hace en el executor de E/S
+		return CompletableFuture.supplyAsync(() -> saveSnapshot(enriched), ioExecutor);
+	}
+
+	private List<AlbumView> saveSnapshot(EnrichedSnapshot enriched) {
+		albumPersistenceService.persist(enriched.getAlbums()); // Solo escribe los cambios
+		markPersisted(enriched);
+		return enriched.getAlbums();
+	}
+
+	/**
+	 * Espera al resultado para las llamadas sincronas, envolviendo cualquier fallo.
+	 */
+	private static <T> T await(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (Exception e) {
+			throw new RuntimeException(AlbumPhotoConstants.ERROR_PROCESS_ALBUMS_PHOTOS, e);
+		}
 	}
 }
@@ -0,0 +1,199 @@
+package com.example.albumphotoenrichment.service;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * Lee un cuerpo HTTP con un array JSON de objetos segun llegan los bytes, con el
+ * parser no bloqueante de Jackson: cada elemento se deserializa y se acumula en
+ * el resultado en cuanto se completa, sin esperar al resto del cuerpo y sin
+ * ocupar un hilo mientras no llegan datos. Tambien calcula el hash SHA-256 del
+ * cuerpo completo, su tamano y el tiempo dedicado a deserializarlo.
+ * <p>
+ * Si el cuerpo no termina dentro del tiempo maximo de lectura la suscripcion se
+ * cancela y la lectura falla con un TimeoutException. Un cuerpo que no contiene
+ * un array completo (vacio, solo espacios o cortado antes de cerrarlo) falla
+ * con un IOException en lugar de leerse como una lista vacia.
+ *
+ * @param <E> tipo de los elementos del array
+ * @param <R> tipo del resultado acumulado
+ */
+final class JsonArrayBodySubscriber<E, R> implements HttpResponse.BodySubscriber<JsonArrayBodySubscriber.Body<R>> {
+
+	private final ObjectReader elementReader;
+	private final R result;
+	private final BiConsumer<R, E> accumulator;
+	private final Duration readTimeout;
+	private final JsonParser parser;
+	private final ByteArrayFeeder feeder;
+	private final MessageDigest digest = sha256();
+	private final CompletableFuture<Body<R>> body = new CompletableFuture<>();
+	private Flow.Subscription subscription;
+	private TokenBuffer element;
+	private int depth;
+	private boolean arrayStarted;
+	private boolean arrayClosed;
+	private long size;
+	private long parseNanos;
+
+	JsonArrayBodySubscriber(ObjectMapper objectMapper, Class<E> elementType, R result, BiConsumer<R, E> accumulator,
+			Duration readTimeout) {
+		this.elementReader = objectMapper.readerFor(elementType);
+		this.result = result;
+		this.accumulator = accumulator;
+		this.readTimeout = readTimeout;
+		try {
+			this.parser = objectMapper.getFactory().createNonBlockingByteArrayParser();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+	}
+
+	@Override
+	public CompletionStage<Body<R>> getBody() {
+		return body;
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		this.subscription = subscription;
+		body.orTimeout(readTimeout.toMillis(), TimeUnit.MILLISECONDS).whenComplete((value, ex) -> {
+			if (ex != null) {
+				subscription.cancel(); // Deja de leer de la red
+			}
+		});
+		subscription.request(1);
+	}
+
+	@Override
+	public void onNext(List<ByteBuffer> buffers) {
+		if (body.isDone()) {
+			return;
+		}
+		try {
+			for (ByteBuffer buffer : buffers) {
+				byte[] bytes = new byte[buffer.remaining()];
+				buffer.get(bytes);
+				digest.update(bytes);
+				size += bytes.length;
+				feeder.feedInput(bytes, 0, bytes.length);
+				drain();
+			}
+			subscription.request(1);
+		} catch (IOException | RuntimeException e) {
+			body.completeExceptionally(e);
+		}
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		body.completeExceptionally(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		if (body.isDone()) {
+			return;
+		}
+		try {
+			feeder.endOfInput();
+			drain();
+			if (!arrayStarted) {
+				throw new IOException("Empty body, expected a JSON array");
+			}
+			if (!arrayClosed) {
+				throw new IOException("Truncated JSON array");
+			}
+			body.complete(new Body<>(result, HexFormat.of().formatHex(digest.digest()), size, parseNanos));
+		} catch (IOException | RuntimeException e) {
+			body.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Procesa todos los tokens disponibles. Los eventos de cada elemento se copian
+	 * en un TokenBuffer y el elemento se deserializa al cerrar su objeto.
+	 */
+	private void drain() throws IOException {
+		long iniTime = System.nanoTime();
+		try {
+			drainTokens();
+		} finally {
+			parseNanos += System.nanoTime() - iniTime;
+		}
+	}
+
+	private void drainTokens() throws IOException {
+		JsonToken token;
+		while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+			if (depth == 0) {
+				if (arrayStarted) {
+					throw new IOException("Unexpected " + token + " after the JSON array");
+				}
+				if (token != JsonToken.START_ARRAY) {
+					throw new IOException("Expected a JSON array but found " + token);
+				}
+				arrayStarted = true;
+				depth = 1;
+				continue;
+			}
+			if (depth == 1) {
+				if (token == JsonToken.END_ARRAY) {
+					arrayClosed = true;
+					depth = 0;
+					continue;
+				}
+				if (token != JsonToken.START_OBJECT) {
+					throw new IOException("Expected a JSON object but found " + token);
+				}
+				element = new TokenBuffer(parser);
+			}
+			element.copyCurrentEvent(parser);
+			if (token.isStructStart()) {
+				depth++;
+			} else if (token.isStructEnd()) {
+				depth--;
+			}
+			if (depth == 1) {
+				accumulator.accept(result, elementReader.readValue(element.asParser()));
+				element = null;
+			}
+		}
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param value       resultado acumulado
+	 * @param contentHash hash SHA-256 en hexadecimal del cuerpo completo
+	 * @param size        tamano del cuerpo en bytes
+	 * @param parseNanos  tiempo dedicado a deserializar el cuerpo
+	 */
+	record Body<R>(R value, String contentHash, long size, long parseNanos) {
+	}
+}
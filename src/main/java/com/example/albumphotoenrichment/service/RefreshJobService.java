@@ -0,0 +1,221 @@
+package com.example.albumphotoenrichment.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import com.example.albumphotoenrichment.factory.ExecutorServiceFactory;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.example.albumphotoenrichment.model.RefreshJobStatus;
+import com.example.albumphotoenrichment.model.RefreshJobStatus.Phase;
+
+/**
+ * Trabajos de refresco y guardado en segundo plano, para no mantener abierta la
+ * peticion HTTP durante toda la descarga, el enriquecimiento y la escritura.
+ * <p>
+ * Cada trabajo es un pipeline de bloques acotados:
+ * <ul>
+ * <li>Cada particion de fotos nueva o modificada (sin descarga por
+ * particiones, cada bloque de {@code album.upstream.photos.partition-size}
+ * albumes modificados segun se lee el cuerpo) se escribe en la base de datos en el executor de E/S en cuanto
+ * llega, mientras se siguen descargando las demas. Si la cola del executor esta
+ * llena, la particion no se escribe en ese momento (nunca en el hilo que la
+ * entrega) y sus albumes se escriben al final con el resto. Un album escrito
+ * con una particion adelantada que no coincide con la instantanea final
+ * (fotos no ordenadas por album) tambien se reescribe al final.</li>
+ * <li>Con la instantanea ya publicada, los albumes que no se han escrito
+ * durante la descarga se escriben en bloques de {@code album.jobs.chunk-size}
+ * albumes.</li>
+ * <li>Por ultimo se eliminan las filas que ya no existen en el upstream.</li>
+ * </ul>
+ * Se guardan los ultimos {@code album.jobs.max-retained} trabajos para poder
+ * consultar su estado.
+ */
+@Service
+public class RefreshJobService {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RefreshJobService.class);
+
+	private final AlbumService albumService;
+	private final AlbumPersistenceService albumPersistenceService;
+	private final ExecutorService ioExecutor;
+	private final int chunkSize;
+	private final Map<String, RefreshJob> jobs;
+	private final Counter succeeded;
+	private final Counter failed;
+
+	@Autowired
+	public RefreshJobService(AlbumService albumService, AlbumPersistenceService albumPersistenceService,
+			ExecutorServiceFactory executorServiceFactory, MeterRegistry meterRegistry,
+			@Value("${album.jobs.chunk-size:100}") int chunkSize,
+			@Value("${album.jobs.max-retained:100}") int maxRetained) {
+		this.albumService = albumService;
+		this.albumPersistenceService = albumPersistenceService;
+		this.ioExecutor = executorServiceFactory.createExecutorService();
+		this.chunkSize = Math.max(chunkSize, 1);
+		this.jobs = new LinkedHashMap<>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, RefreshJob> eldest) {
+				return size() > maxRetained;
+			}
+		};
+		this.succeeded = meterRegistry.counter("album.jobs", "result", "success");
+		this.failed = meterRegistry.counter("album.jobs", "result", "failure");
+	}
+
+	/**
+	 * Lanza un trabajo de refresco y guardado sin esperar a que termine.
+	 *
+	 * @return estado inicial del trabajo
+	 */
+	public RefreshJobStatus start() {
+		RefreshJob job = new RefreshJob(UUID.randomUUID().toString());
+		synchronized (jobs) {
+			jobs.put(job.id, job);
+		}
+		LOGGER.info("Trabajo de refresco {} iniciado", job.id);
+		CompletableFuture<EnrichedSnapshot> refreshed;
+		try {
+			// El receptor solo recibe las particiones de este refresco
+			refreshed = albumService.refreshSnapshotAsync((albums, partition) -> writePartition(job, albums, partition));
+		} catch (RuntimeException e) {
+			refreshed = CompletableFuture.failedFuture(e); // Un fallo sincrono tambien termina el trabajo
+		}
+		refreshed.thenCompose(snapshot -> save(job, snapshot)).whenComplete((ignored, ex) -> finish(job, ex));
+		return job.status();
+	}
+
+	/**
+	 * @param id id del trabajo
+	 * @return estado del trabajo, o null si no existe o ya se ha descartado
+	 */
+	public RefreshJobStatus getStatus(String id) {
+		RefreshJob job;
+		synchronized (jobs) {
+			job = jobs.get(id);
+		}
+		return job == null ? null : job.status();
+	}
+
+	private void writePartition(RefreshJob job, List<AlbumView> albums, Map<Long, List<PhotoView>> partition) {
+		List<AlbumView> chunk = new ArrayList<>();
+		for (AlbumView album : albums) {
+			List<PhotoView> photos = partition.get(album.id());
+			if (photos != null) {
+				chunk.add(album.withPhotos(photos));
+				job.written.put(album.id(), photos); // No se vuelve a escribir al final si no cambia
+			}
+		}
+		if (chunk.isEmpty()) {
+			return;
+		}
+		try {
+			job.pending.add(writeChunk(job, chunk));
+		} catch (RejectedExecutionException e) {
+			// Cola de E/S llena: los albumes se escriben al final con el resto
+			chunk.forEach(album -> job.written.remove(album.id()));
+		}
+	}
+
+	private CompletableFuture<Void> save(RefreshJob job, EnrichedSnapshot snapshot) {
+		job.phase = Phase.SAVING;
+		if (albumService.isPersisted(snapshot)) {
+			return CompletableFuture.allOf(job.pending.toArray(CompletableFuture[]::new));
+		}
+		// Un album escrito con una particion adelantada incompleta se vuelve a escribir
+		List<AlbumView> remaining = snapshot.getAlbums().stream().filter(album -> {
+			List<PhotoView> written = job.written.get(album.id());
+			return written == null || !written.equals(album.photos());
+		}).toList();
+		try {
+			for (int from = 0; from < remaining.size(); from += chunkSize) {
+				job.pending.add(writeChunk(job, remaining.subList(from, Math.min(from + chunkSize, remaining.size()))));
+			}
+		} catch (RejectedExecutionException e) {
+			return CompletableFuture.failedFuture(e); // Los bloques ya enviados terminan, pero no se borra nada
+		}
+		return CompletableFuture.allOf(job.pending.toArray(CompletableFuture[]::new))
+				.thenCompose(ignored -> CompletableFuture.runAsync(() -> {
+					if (!job.errors.isEmpty()) {
+						return; // No se borra nada si falta algun bloque
+					}
+					job.rowsDeleted.addAndGet(albumPersistenceService.deleteMissing(snapshot.getAlbums()));
+					albumService.markPersisted(snapshot);
+				}, ioExecutor));
+	}
+
+	private CompletableFuture<Void> writeChunk(RefreshJob job, List<AlbumView> chunk) {
+		return CompletableFuture.runAsync(() -> {
+			job.rowsWritten.addAndGet(albumPersistenceService.mergeChunk(chunk));
+			job.chunksWritten.incrementAndGet();
+		}, ioExecutor).exceptionally(ex -> {
+			LOGGER.error("Error en el trabajo de refresco {} al escribir un bloque", job.id, ex);
+			job.errors.add(String.valueOf(ex.getMessage()));
+			return null;
+		});
+	}
+
+	private void finish(RefreshJob job, Throwable ex) {
+		if (ex != null) {
+			LOGGER.error("Error en el trabajo de refresco {}", job.id, ex);
+			job.errors.add(String.valueOf(ex.getMessage()));
+		}
+		job.finishedAt = Instant.now();
+		job.phase = job.errors.isEmpty() ? Phase.DONE : Phase.FAILED;
+		(job.errors.isEmpty() ? succeeded : failed).increment();
+		LOGGER.info("Trabajo de refresco {} terminado: {}", job.id, job.status());
+	}
+
+	/**
+	 * Estado mutable de un trabajo, actualizado desde los hilos del pipeline.
+	 */
+	private static final class RefreshJob {
+
+		private final String id;
+		private final Instant startedAt = Instant.now();
+		private final Map<Long, List<PhotoView>> written = new ConcurrentHashMap<>();
+		private final List<CompletableFuture<Void>> pending = new CopyOnWriteArrayList<>();
+		private final List<String> errors = new CopyOnWriteArrayList<>();
+		private final AtomicInteger chunksWritten = new AtomicInteger();
+		private final AtomicLong rowsWritten = new AtomicLong();
+		private final AtomicLong rowsDeleted = new AtomicLong();
+		private volatile Phase phase = Phase.FETCHING;
+		private volatile Instant finishedAt;
+
+		private RefreshJob(String id) {
+			this.id = id;
+		}
+
+		private RefreshJobStatus status() {
+			Instant end = finishedAt;
+			long elapsedMs = Math.max(Duration.between(startedAt, end != null ? end : Instant.now()).toMillis(), 1);
+			long rows = rowsWritten.get();
+			return new RefreshJobStatus(id, phase, startedAt, end, chunksWritten.get(), rows, rowsDeleted.get(),
+					rows * 1000.0 / elapsedMs, List.copyOf(errors));
+		}
+	}
+}
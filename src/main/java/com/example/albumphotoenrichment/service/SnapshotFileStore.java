@@ -0,0 +1,257 @@
+package com.example.albumphotoenrichment.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.example.albumphotoenrichment.factory.EnrichedSnapshotFactory;
+import com.example.albumphotoenrichment.factory.ExecutorServiceFactory;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.example.albumphotoenrichment.model.PhotoColumns;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.example.albumphotoenrichment.model.SnapshotPublishedEvent;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Guarda cada instantanea publicada en un fichero binario compacto y la
+ * restaura al arrancar, de forma que el servicio puede responder en
+ * milisegundos tras un reinicio (y aunque el upstream no este disponible)
+ * mientras {@link SnapshotRefresher} la revalida en segundo plano.
+ * <p>
+ * Formato (big-endian): cabecera {@code MAGIC}, {@code VERSION} y numero de
+ * albumes; por cada album su id, userId, titulo y numero de fotos (-1 si no
+ * tiene lista), seguido de cada foto con id, titulo, url y thumbnailUrl; despues
+ * el ETag y los bloques ya serializados de la instantanea: el JSON y su version
+ * gzip, cada uno con su longitud. Los textos se escriben como longitud en bytes
+ * (-1 si son null) y UTF-8, y los ids como un byte de presencia y un long. Al
+ * arrancar el fichero se proyecta en memoria ({@link FileChannel#map}): los
+ * albumes y fotos se decodifican para los indices y las consultas, y el JSON,
+ * el gzip y el ETag se copian en bloque, sin volver a serializar, comprimir ni
+ * calcular el hash. Por eso la restauracion cuesta una fraccion de construir la
+ * instantanea.
+ * <p>
+ * La escritura se hace en el executor de E/S sobre un fichero temporal que
+ * despues se renombra de forma atomica; si se publican varias instantaneas
+ * seguidas solo se escribe la ultima.
+ */
+@Component
+public class SnapshotFileStore {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SnapshotFileStore.class);
+
+	static final int MAGIC = 0x414C4253; // "ALBS"
+	static final int VERSION = 2;
+
+	private final AlbumService albumService;
+	private final EnrichedSnapshotFactory enrichedSnapshotFactory;
+	private final ExecutorService ioExecutor;
+	private final Path path;
+	private final AtomicReference<EnrichedSnapshot> pending = new AtomicReference<>();
+	private final Object writeLock = new Object();
+
+	@Autowired
+	public SnapshotFileStore(AlbumService albumService, EnrichedSnapshotFactory enrichedSnapshotFactory,
+			ExecutorServiceFactory executorServiceFactory, @Value("${album.snapshot.file.path:}") String path) {
+		this.albumService = albumService;
+		this.enrichedSnapshotFactory = enrichedSnapshotFactory;
+		this.ioExecutor = executorServiceFactory.createExecutorService();
+		this.path = path.isBlank() ? null : Path.of(path);
+	}
+
+	/**
+	 * Restaura la ultima instantanea guardada, si existe. Un fichero ilegible o de
+	 * otra version se ignora.
+	 */
+	@PostConstruct
+	public void restore() {
+		if (path == null || !Files.isRegularFile(path)) {
+			return;
+		}
+		long iniTime = System.nanoTime();
+		try {
+			EnrichedSnapshot restored = read(path, enrichedSnapshotFactory);
+			if (albumService.restoreSnapshot(restored)) {
+				LOGGER.info("Instantanea restaurada desde {} ({} albumes) - TIEMPO: {} ns", path,
+						restored.getAlbums().size(), System.nanoTime() - iniTime);
+			}
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warn("No se ha podido restaurar la instantanea desde {}, se ignora", path, e);
+		}
+	}
+
+	/**
+	 * Programa la escritura de la instantanea publicada.
+	 *
+	 * @param event evento de publicacion
+	 */
+	@EventListener
+	public void onSnapshotPublished(SnapshotPublishedEvent event) {
+		if (path != null && pending.getAndSet(event.snapshot()) == null) {
+			try {
+				ioExecutor.execute(this::writeLatest);
+			} catch (RejectedExecutionException e) {
+				// Cola de E/S llena: se guardara la siguiente instantanea publicada
+				pending.set(null);
+				LOGGER.warn("No se ha podido programar la escritura de la instantanea: {}", e.toString());
+			}
+		}
+	}
+
+	private void writeLatest() {
+		synchronized (writeLock) {
+			EnrichedSnapshot latest = pending.getAndSet(null);
+			if (latest == null) {
+				return;
+			}
+			try {
+				write(latest, path);
+			} catch (IOException | RuntimeException e) {
+				LOGGER.warn("No se ha podido guardar la instantanea en {}", path, e);
+			}
+		}
+	}
+
+	/**
+	 * Escribe la instantanea en un fichero temporal y lo renombra sobre el destino.
+	 */
+	static void write(EnrichedSnapshot snapshot, Path target) throws IOException {
+		Path parent = target.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path temp = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+				List<AlbumView> albums = snapshot.getAlbums();
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(albums.size());
+				for (AlbumView album : albums) {
+					writeId(out, album.id());
+					writeId(out, album.userId());
+					writeString(out, album.title());
+					List<PhotoView> photos = album.photos();
+					out.writeInt(photos == null ? -1 : photos.size());
+					if (photos != null) {
+						for (PhotoView photo : photos) {
+							writeId(out, photo.id());
+							writeString(out, photo.title());
+							writeString(out, photo.url());
+							writeString(out, photo.thumbnailUrl());
+						}
+					}
+				}
+				writeString(out, snapshot.getEtag());
+				writeBytes(out, snapshot.getJson());
+				writeBytes(out, snapshot.getGzipJson());
+			}
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Proyecta el fichero en memoria y reconstruye la instantanea con su JSON, gzip
+	 * y ETag guardados.
+	 */
+	static EnrichedSnapshot read(Path source, EnrichedSnapshotFactory factory) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try {
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				throw new IOException("Unsupported snapshot file: " + source);
+			}
+			int albumCount = buffer.getInt();
+			List<AlbumView> albums = new ArrayList<>(albumCount);
+			PhotoColumns.Builder photos = PhotoColumns.builder();
+			for (int i = 0; i < albumCount; i++) {
+				AlbumView album = new AlbumView(readId(buffer), readId(buffer), readString(buffer));
+				albums.add(album);
+				int photoCount = buffer.getInt();
+				if (photoCount >= 0) {
+					photos.addAlbum(album.id());
+					for (int j = 0; j < photoCount; j++) {
+						photos.add(new PhotoView(readId(buffer), album.id(), readString(buffer), readString(buffer),
+								readString(buffer)));
+					}
+				}
+			}
+			String etag = readString(buffer);
+			byte[] json = readBytes(buffer);
+			byte[] gzipJson = readBytes(buffer);
+			return factory.restore(albums, photos.build(), json, gzipJson, etag);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated snapshot file: " + source, e);
+		}
+	}
+
+	private static void writeId(DataOutputStream out, Long id) throws IOException {
+		out.writeBoolean(id != null);
+		out.writeLong(id == null ? 0 : id);
+	}
+
+	private static Long readId(ByteBuffer buffer) {
+		boolean present = buffer.get() != 0;
+		long id = buffer.getLong();
+		return present ? id : null;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes); // Copia en bloque desde la proyeccion
+		return bytes;
+	}
+}
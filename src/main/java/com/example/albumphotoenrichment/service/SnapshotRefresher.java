@@ -0,0 +1,153 @@
+package com.example.albumphotoenrichment.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Refresca periodicamente la instantanea enriquecida en segundo plano. Cada
+ * ejecucion revalida los datos upstream y, si han cambiado, construye la
+ * siguiente instantanea aparte y la publica con un unico cambio de referencia
+ * atomico en {@link AlbumService}: los lectores siguen sirviendo la instantanea
+ * anterior mientras tanto, sin bloquearse ni ver nunca un estado vacio o a
+ * medio construir.
+ * <p>
+ * El intervalo entre ejecuciones es {@code album.snapshot.refresh.interval-ms}
+ * mas un retardo aleatorio de hasta {@code album.snapshot.refresh.jitter-ms},
+ * para que varias instancias no consulten el upstream a la vez, y se cuenta
+ * desde que termina el refresco anterior. El refresco es asincrono: el hilo del
+ * {@link TaskScheduler}, compartido con otras tareas programadas, solo lo lanza
+ * y no espera a la descarga ni a la construccion. La edad de la
+ * instantanea publicada se expone en {@code album.snapshot.age}.
+ */
+@Component
+public class SnapshotRefresher {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SnapshotRefresher.class);
+
+	private final AlbumService albumService;
+	private final TaskScheduler taskScheduler;
+	private final boolean enabled;
+	private final long intervalMs;
+	private final long jitterMs;
+	private final long initialDelayMs;
+	private final Counter refreshed;
+	private final Counter failed;
+	private volatile ScheduledFuture<?> next;
+	private volatile boolean stopped;
+
+	@Autowired
+	public SnapshotRefresher(AlbumService albumService, TaskScheduler taskScheduler, MeterRegistry meterRegistry,
+			@Value("${album.snapshot.refresh.enabled:true}") boolean enabled,
+			@Value("${album.snapshot.refresh.interval-ms:30000}") long intervalMs,
+			@Value("${album.snapshot.refresh.jitter-ms:5000}") long jitterMs,
+			@Value("${album.snapshot.refresh.initial-delay-ms:0}") long initialDelayMs) {
+		this.albumService = albumService;
+		this.taskScheduler = taskScheduler;
+		this.enabled = enabled;
+		this.intervalMs = intervalMs;
+		this.jitterMs = Math.max(jitterMs, 0);
+		this.initialDelayMs = initialDelayMs;
+		this.refreshed = meterRegistry.counter("album.snapshot.refresh", "result", "success");
+		this.failed = meterRegistry.counter("album.snapshot.refresh", "result", "failure");
+		TimeGauge.builder("album.snapshot.age", albumService, TimeUnit.MILLISECONDS, SnapshotRefresher::getSnapshotAgeMs)
+				.description("Tiempo desde que se construyo o revalido la instantanea publicada").register(meterRegistry);
+	}
+
+	/**
+	 * Programa la primera ejecucion.
+	 */
+	@PostConstruct
+	public void start() {
+		if (enabled) {
+			schedule(initialDelayMs);
+		}
+	}
+
+	/**
+	 * Cancela la siguiente ejecucion programada.
+	 */
+	@PreDestroy
+	public void stop() {
+		stopped = true;
+		ScheduledFuture<?> scheduled = next;
+		if (scheduled != null) {
+			scheduled.cancel(false);
+		}
+	}
+
+	/**
+	 * Revalida los datos upstream y publica la nueva instantanea si han cambiado.
+	 * Un fallo se registra y se mantiene la instantanea anterior.
+	 *
+	 * @return futuro que termina, sin error, cuando acaba el refresco
+	 */
+	CompletableFuture<Void> refresh() {
+		CompletableFuture<EnrichedSnapshot> refreshing;
+		try {
+			refreshing = albumService.refreshSnapshotAsync();
+		} catch (RuntimeException e) {
+			refreshing = CompletableFuture.failedFuture(e);
+		}
+		return refreshing.handle((snapshot, ex) -> {
+			if (ex != null) {
+				failed.increment();
+				LOGGER.warn("Fallo al refrescar la instantanea, se mantiene la anterior", ex);
+			} else {
+				refreshed.increment();
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Un refresco sin cambios en el upstream (304 o mismo contenido) no crea una
+	 * instantanea nueva, pero confirma que la publicada sigue al dia.
+	 *
+	 * @param albumService servicio con la instantanea publicada
+	 * @return milisegundos desde la construccion o la ultima revalidacion de la
+	 *         instantanea publicada, lo mas reciente, o NaN si aun no existe
+	 */
+	static double getSnapshotAgeMs(AlbumService albumService) {
+		EnrichedSnapshot current = albumService.getPublishedSnapshot();
+		if (current == null) {
+			return Double.NaN;
+		}
+		Instant revalidatedAt = albumService.getRevalidatedAt();
+		Instant freshAt = revalidatedAt != null && revalidatedAt.isAfter(current.getCreatedAt()) ? revalidatedAt
+				: current.getCreatedAt();
+		return Duration.between(freshAt, Instant.now()).toMillis();
+	}
+
+	private void schedule(long delayMs) {
+		if (!stopped) {
+			next = taskScheduler.schedule(this::run, Instant.now().plusMillis(delayMs));
+		}
+	}
+
+	private void run() {
+		// La siguiente ejecucion se programa al terminar este refresco, sin bloquear
+		// el hilo del planificador mientras tanto
+		refresh().thenRun(
+				() -> schedule(intervalMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0)));
+	}
+}
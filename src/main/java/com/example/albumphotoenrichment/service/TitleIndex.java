@@ -0,0 +1,985 @@
+package com.example.albumphotoenrichment.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.example.albumphotoenrichment.model.SearchHit;
+
+/**
+ * Indice invertido inmutable sobre los titulos de los albumes y las fotos de
+ * una instantanea.
+ * <p>
+ * Los titulos se dividen en palabras (sin acentos, en minusculas, separadas por
+ * cualquier caracter no alfanumerico) y cada palabra distinta recibe un id en
+ * el vocabulario, que ademas indexa los trigramas de las palabras para resolver
+ * terminos contenidos en ellas. Los albumes se agrupan en segmentos por id
+ * ({@code id / segmentSize}); cada segmento guarda, por separado para albumes y
+ * fotos, la lista de ids de palabra ordenada y sus listas de documentos
+ * ({@link Postings}); el indice guarda ademas las claves de los segmentos en
+ * los que aparece cada palabra, de forma que una consulta solo recorre los
+ * segmentos que contienen todos sus terminos.
+ * <p>
+ * Al construir el indice de una nueva instantanea los segmentos cuyos titulos
+ * no han cambiado se reutilizan (conservando los ids del vocabulario anterior)
+ * y solo se indexan los demas, en paralelo en el executor recibido. El
+ * vocabulario solo calcula los trigramas de las palabras nuevas y los segmentos
+ * por palabra solo se actualizan para las palabras de los segmentos que han
+ * cambiado. Las palabras que dejan de aparecer se conservan hasta que superan
+ * {@link #MAX_UNUSED_RATIO} del vocabulario; entonces se compacta, renumerando
+ * las palabras en uso sin cambiar su orden.
+ * <p>
+ * Una consulta exige que coincidan todos sus terminos. Cada termino puntua 2 si
+ * coincide con una palabra completa y 1 si esta contenido en una palabra (solo
+ * terminos de al menos 3 caracteres, con un maximo de {@code maxExpansions}
+ * palabras por termino). Los resultados se mantienen en un monticulo de
+ * {@code limit} elementos y el recorrido termina en cuanto esta lleno de
+ * resultados con la puntuacion maxima posible de la consulta.
+ */
+final class TitleIndex {
+
+	static final int EXACT_SCORE = 2;
+	static final int PARTIAL_SCORE = 1;
+	static final int GRAM = 3;
+	/** Proporcion de palabras sin uso del vocabulario a partir de la cual se compacta */
+	static final double MAX_UNUSED_RATIO = 0.25;
+
+	private static final int KIND_ALBUM = 0;
+	private static final int KIND_PHOTO = 1;
+	private static final long[] NO_SEGMENTS = new long[0];
+
+	private final Vocabulary vocabulary;
+	private final Segment[] segments;
+	private final long[] segmentKeys;
+	private final int segmentSize;
+	private final int maxExpansions;
+	private final int reusedSegments;
+	private final int maxWords;
+	// Claves ordenadas de los segmentos en los que aparece cada palabra; vacio si
+	// la palabra ya no aparece en ninguno
+	private final long[][] tokenSegments;
+	private final int unusedTokens;
+
+	private TitleIndex(Vocabulary vocabulary, Segment[] segments, long[][] tokenSegments, int unusedTokens,
+			int segmentSize, int maxExpansions, int reusedSegments) {
+		this.vocabulary = vocabulary;
+		this.segments = segments;
+		this.segmentKeys = Arrays.stream(segments).mapToLong(segment -> segment.key).toArray();
+		this.tokenSegments = tokenSegments;
+		this.unusedTokens = unusedTokens;
+		this.segmentSize = segmentSize;
+		this.maxExpansions = maxExpansions;
+		this.reusedSegments = reusedSegments;
+		this.maxWords = Arrays.stream(segments).mapToInt(Segment::maxWords).max().orElse(0);
+	}
+
+	/**
+	 * Construye el indice de la instantanea reutilizando los segmentos sin cambios
+	 * del indice anterior.
+	 *
+	 * @param snapshot      instantanea a indexar
+	 * @param previous      indice anterior, o null
+	 * @param segmentSize   rango de ids de album de cada segmento
+	 * @param maxExpansions palabras maximas por termino parcial
+	 * @param executor      executor donde se indexan los segmentos
+	 * @return indice de la instantanea
+	 */
+	static CompletableFuture<TitleIndex> build(EnrichedSnapshot snapshot, TitleIndex previous, int segmentSize,
+			int maxExpansions, Executor executor) {
+		Map<Long, Segment> previousSegments = new HashMap<>();
+		if (previous != null && previous.segmentSize == segmentSize) {
+			for (Segment segment : previous.segments) {
+				previousSegments.put(segment.key, segment);
+			}
+		}
+
+		List<AlbumView> albums = snapshot.getAlbumsSortedById();
+		List<List<AlbumView>> chunks = new ArrayList<>();
+		List<Segment> reused = new ArrayList<>();
+		int from = 0;
+		while (from < albums.size()) {
+			long key = Math.floorDiv(albums.get(from).id(), segmentSize);
+			int to = from + 1;
+			while (to < albums.size() && Math.floorDiv(albums.get(to).id(), segmentSize) == key) {
+				to++;
+			}
+			List<AlbumView> chunk = albums.subList(from, to);
+			Segment old = previousSegments.get(key);
+			chunks.add(chunk);
+			reused.add(old != null && old.hasSameTitles(chunk) ? old : null);
+			from = to;
+		}
+
+		// Sin segmentos reutilizados el vocabulario empieza de cero y no arrastra
+		// palabras que ya no existen
+		TitleIndex base = reused.stream().anyMatch(Objects::nonNull) ? previous : null;
+		VocabularyBuilder vocabularyBuilder = new VocabularyBuilder(base == null ? null : base.vocabulary);
+		List<CompletableFuture<Segment>> futures = new ArrayList<>(chunks.size());
+		try {
+			for (int i = 0; i < chunks.size(); i++) {
+				List<AlbumView> chunk = chunks.get(i);
+				Segment old = reused.get(i);
+				futures.add(old != null ? CompletableFuture.completedFuture(old.withAlbums(chunk))
+						: CompletableFuture.supplyAsync(() -> Segment.build(chunk, segmentSize, vocabularyBuilder),
+								executor));
+			}
+		} catch (RejectedExecutionException e) {
+			return CompletableFuture.failedFuture(e); // Se conserva el indice anterior
+		}
+		return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+				.thenApply(ignored -> create(base, reused, vocabularyBuilder.build(),
+						futures.stream().map(CompletableFuture::join).toArray(Segment[]::new), segmentSize,
+						maxExpansions));
+	}
+
+	/**
+	 * Completa el indice con los segmentos de cada palabra. Partiendo del indice
+	 * base solo se actualizan las palabras de sus segmentos que no se han
+	 * reutilizado y las de los segmentos indexados de nuevo. Si las palabras sin
+	 * uso superan {@link #MAX_UNUSED_RATIO} del vocabulario, se compacta.
+	 */
+	private static TitleIndex create(TitleIndex base, List<Segment> reused, Vocabulary vocabulary,
+			Segment[] segments, int segmentSize, int maxExpansions) {
+		int tokenCount = vocabulary.tokens.length;
+		long[][] tokenSegments;
+		int unused;
+		long[] removed;
+		Set<Segment> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+		reused.stream().filter(Objects::nonNull).forEach(kept::add);
+		if (base == null) {
+			tokenSegments = new long[tokenCount][];
+			Arrays.fill(tokenSegments, NO_SEGMENTS);
+			unused = tokenCount;
+			removed = new long[0];
+		} else {
+			tokenSegments = Arrays.copyOf(base.tokenSegments, tokenCount);
+			Arrays.fill(tokenSegments, base.tokenSegments.length, tokenCount, NO_SEGMENTS);
+			unused = base.unusedTokens + tokenCount - base.tokenSegments.length;
+			removed = tokenPairs(base.segments, segment -> !kept.contains(segment));
+		}
+		Set<Segment> built = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (int i = 0; i < segments.length; i++) {
+			if (reused.get(i) == null) {
+				built.add(segments[i]);
+			}
+		}
+		long[] added = tokenPairs(segments, built::contains);
+
+		// Los pares estan ordenados por palabra y, dentro de cada una, por segmento
+		for (int r = 0, a = 0; r < removed.length || a < added.length;) {
+			int tokenId = Math.min(r < removed.length ? tokenOf(removed[r]) : Integer.MAX_VALUE,
+					a < added.length ? tokenOf(added[a]) : Integer.MAX_VALUE);
+			int removedFrom = r;
+			int addedFrom = a;
+			while (r < removed.length && tokenOf(removed[r]) == tokenId) {
+				r++;
+			}
+			while (a < added.length && tokenOf(added[a]) == tokenId) {
+				a++;
+			}
+			long[] removedKeys = new long[r - removedFrom];
+			for (int i = 0; i < removedKeys.length; i++) {
+				removedKeys[i] = base.segments[(int) removed[removedFrom + i]].key;
+			}
+			long[] addedKeys = new long[a - addedFrom];
+			for (int i = 0; i < addedKeys.length; i++) {
+				addedKeys[i] = segments[(int) added[addedFrom + i]].key;
+			}
+			long[] keys = tokenSegments[tokenId];
+			long[] updated = update(keys, removedKeys, addedKeys);
+			unused += (updated.length == 0 ? 1 : 0) - (keys.length == 0 ? 1 : 0);
+			tokenSegments[tokenId] = updated.length == 0 ? NO_SEGMENTS : updated;
+		}
+
+		if (unused <= tokenCount * MAX_UNUSED_RATIO) {
+			return new TitleIndex(vocabulary, segments, tokenSegments, unused, segmentSize, maxExpansions,
+					kept.size());
+		}
+		// Compactacion: las palabras en uso se renumeran en el mismo orden, asi que las
+		// listas de palabras de los segmentos siguen ordenadas
+		int[] newIds = new int[tokenCount];
+		String[] used = new String[tokenCount - unused];
+		long[][] compacted = new long[used.length][];
+		for (int id = 0, next = 0; id < tokenCount; id++) {
+			if (tokenSegments[id].length == 0) {
+				newIds[id] = -1;
+			} else {
+				newIds[id] = next;
+				used[next] = vocabulary.tokens[id];
+				compacted[next++] = tokenSegments[id];
+			}
+		}
+		Segment[] remapped = Arrays.stream(segments).map(segment -> segment.remap(newIds)).toArray(Segment[]::new);
+		return new TitleIndex(Vocabulary.EMPTY.extend(used), remapped, compacted, 0, segmentSize, maxExpansions,
+				kept.size());
+	}
+
+	/**
+	 * Pares (id de palabra, posicion del segmento) de los segmentos aceptados por
+	 * el filtro, ordenados.
+	 */
+	private static long[] tokenPairs(Segment[] segments, Predicate<Segment> filter) {
+		long[] pairs = new long[16];
+		int size = 0;
+		for (int s = 0; s < segments.length; s++) {
+			if (filter.test(segments[s])) {
+				for (int tokenId : segments[s].distinctTokenIds()) {
+					if (size == pairs.length) {
+						pairs = Arrays.copyOf(pairs, size * 2);
+					}
+					pairs[size++] = ((long) tokenId << 32) | s;
+				}
+			}
+		}
+		Arrays.sort(pairs, 0, size);
+		return Arrays.copyOf(pairs, size);
+	}
+
+	private static int tokenOf(long pair) {
+		return (int) (pair >>> 32);
+	}
+
+	/**
+	 * Quita de las claves ordenadas las eliminadas (todas presentes) y mezcla las
+	 * anadidas (ordenadas).
+	 */
+	private static long[] update(long[] keys, long[] removed, long[] added) {
+		long[] updated = new long[keys.length - removed.length + added.length];
+		int size = 0;
+		for (int k = 0, r = 0, a = 0; k < keys.length || a < added.length;) {
+			if (k < keys.length && r < removed.length && keys[k] == removed[r]) {
+				k++;
+				r++;
+			} else if (a == added.length || (k < keys.length && keys[k] < added[a])) {
+				updated[size++] = keys[k++];
+			} else {
+				updated[size++] = added[a++];
+			}
+		}
+		return updated;
+	}
+
+	/**
+	 * Busca los albumes y fotos cuyos titulos contienen todos los terminos de la
+	 * consulta.
+	 *
+	 * @param query consulta
+	 * @param limit numero maximo de resultados
+	 * @return resultados ordenados por puntuacion descendente
+	 */
+	List<SearchHit> search(String query, int limit) {
+		List<String> terms = tokenize(query).stream().distinct().toList();
+		if (terms.isEmpty() || limit < 1) {
+			return List.of();
+		}
+		int[][] tokenIds = new int[terms.size()][];
+		int[][] scores = new int[terms.size()][];
+		for (int t = 0; t < terms.size(); t++) {
+			if (!vocabulary.expand(terms.get(t), maxExpansions, t, tokenIds, scores)) {
+				return List.of();
+			}
+		}
+
+		// Solo se recorren los segmentos que contienen alguna palabra de cada termino
+		BitSet candidates = null;
+		int maxScore = 0;
+		for (int t = 0; t < terms.size(); t++) {
+			BitSet termSegments = new BitSet(segments.length);
+			for (int tokenId : tokenIds[t]) {
+				for (long key : tokenSegments[tokenId]) {
+					termSegments.set(Arrays.binarySearch(segmentKeys, key));
+				}
+			}
+			if (candidates == null) {
+				candidates = termSegments;
+			} else {
+				candidates.and(termSegments);
+			}
+			maxScore += Arrays.stream(scores[t]).max().orElse(0);
+		}
+
+		TopHits top = new TopHits(limit, maxScore);
+		Scratch scratch = new Scratch(maxWords, terms.size());
+		for (int kind = KIND_ALBUM; kind <= KIND_PHOTO && !top.isComplete(); kind++) {
+			for (int s = candidates.nextSetBit(0); s >= 0 && !top.isComplete(); s = candidates.nextSetBit(s + 1)) {
+				Postings postings = kind == KIND_ALBUM ? segments[s].albumPostings : segments[s].photoPostings;
+				scratch.match(postings, tokenIds, scores, kind, s, top);
+			}
+		}
+		return top.drain().stream().map(this::resolve).toList();
+	}
+
+	int getTokenCount() {
+		return vocabulary.tokens.length;
+	}
+
+	int getUnusedTokenCount() {
+		return unusedTokens;
+	}
+
+	int getSegmentCount() {
+		return segments.length;
+	}
+
+	/**
+	 * Memoria aproximada de las listas de documentos y de palabras de los segmentos
+	 * y de las listas de segmentos por palabra, en bytes.
+	 */
+	long getPostingsMemory() {
+		long memory = 8L * segmentKeys.length;
+		for (long[] keys : tokenSegments) {
+			memory += 4L + (keys.length == 0 ? 0 : 16L + 8L * keys.length);
+		}
+		for (Segment segment : segments) {
+			memory += segment.albumPostings.getMemory() + segment.photoPostings.getMemory()
+					+ 4L * segment.photoStarts.length;
+		}
+		return memory;
+	}
+
+	int getReusedSegmentCount() {
+		return reusedSegments;
+	}
+
+	private SearchHit resolve(Hit hit) {
+		Segment segment = segments[hit.segment()];
+		if (hit.kind() == KIND_ALBUM) {
+			AlbumView album = segment.albums.get(hit.doc());
+			return new SearchHit(SearchHit.TYPE_ALBUM, album.id(), album.id(), album.title(), hit.score());
+		}
+		int albumIndex = segment.albumOf(hit.doc());
+		AlbumView album = segment.albums.get(albumIndex);
+		PhotoView photo = album.photos().get(hit.doc() - segment.photoStarts[albumIndex]);
+		return new SearchHit(SearchHit.TYPE_PHOTO, photo.id(), album.id(), photo.title(), hit.score());
+	}
+
+	/**
+	 * Divide un texto en palabras en minusculas y sin acentos.
+	 */
+	static List<String> tokenize(String text) {
+		List<String> tokens = new ArrayList<>();
+		if (text == null) {
+			return tokens;
+		}
+		String normalized = isAscii(text) ? text : Normalizer.normalize(text, Normalizer.Form.NFD);
+		StringBuilder token = new StringBuilder();
+		for (int i = 0; i < normalized.length(); i++) {
+			char c = normalized.charAt(i);
+			if (Character.isLetterOrDigit(c)) {
+				token.append(Character.toLowerCase(c));
+			} else if (Character.getType(c) != Character.NON_SPACING_MARK && !token.isEmpty()) {
+				tokens.add(token.toString());
+				token.setLength(0);
+			}
+		}
+		if (!token.isEmpty()) {
+			tokens.add(token.toString());
+		}
+		return tokens;
+	}
+
+	private static boolean isAscii(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Palabras indexadas con su id y, para los terminos parciales, los ids de las
+	 * palabras que contienen cada trigrama (ordenados).
+	 */
+	static final class Vocabulary {
+
+		static final Vocabulary EMPTY = new Vocabulary(Map.of(), new String[0], Map.of());
+
+		private static final int[] NO_IDS = new int[0];
+
+		private final Map<String, Integer> ids;
+		private final String[] tokens;
+		private final Map<String, int[]> trigrams;
+
+		private Vocabulary(Map<String, Integer> ids, String[] tokens, Map<String, int[]> trigrams) {
+			this.ids = ids;
+			this.tokens = tokens;
+			this.trigrams = trigrams;
+		}
+
+		/**
+		 * Vocabulario con las palabras anadidas a continuacion de las actuales. Solo
+		 * se calculan los trigramas de las palabras nuevas: sus ids son mayores que
+		 * los existentes, asi que se anaden al final de cada lista, que sigue
+		 * ordenada.
+		 *
+		 * @param added palabras nuevas, en orden de id
+		 */
+		Vocabulary extend(String[] added) {
+			Map<String, Integer> extendedIds = new HashMap<>(ids);
+			String[] extendedTokens = Arrays.copyOf(tokens, tokens.length + added.length);
+			// Primera pasada: ids nuevos por trigrama; segunda: se anaden a las listas
+			Map<String, int[]> counts = new HashMap<>();
+			for (int i = 0; i < added.length; i++) {
+				extendedIds.put(added[i], tokens.length + i);
+				extendedTokens[tokens.length + i] = added[i];
+				forEachGram(added[i], gram -> counts.computeIfAbsent(gram, ignored -> new int[1])[0]++);
+			}
+			Map<String, int[]> extendedTrigrams = new HashMap<>(trigrams);
+			counts.forEach((gram, count) -> {
+				int[] list = trigrams.getOrDefault(gram, NO_IDS);
+				extendedTrigrams.put(gram, Arrays.copyOf(list, list.length + count[0]));
+				count[0] = list.length; // Pasa a ser la siguiente posicion libre
+			});
+			for (int i = 0; i < added.length; i++) {
+				int id = tokens.length + i;
+				forEachGram(added[i], gram -> extendedTrigrams.get(gram)[counts.get(gram)[0]++] = id);
+			}
+			return new Vocabulary(extendedIds, extendedTokens, extendedTrigrams);
+		}
+
+		/**
+		 * Recorre los trigramas distintos de una palabra.
+		 */
+		private static void forEachGram(String token, Consumer<String> action) {
+			for (int i = 0; i + GRAM <= token.length(); i++) {
+				String gram = token.substring(i, i + GRAM);
+				// Una palabra con un trigrama repetido solo se anade una vez
+				if (token.indexOf(gram) == i) {
+					action.accept(gram);
+				}
+			}
+		}
+
+		/**
+		 * Resuelve las palabras de un termino: la palabra exacta y, si el termino
+		 * tiene al menos {@link #GRAM} caracteres, las palabras que lo contienen.
+		 *
+		 * @return false si ninguna palabra coincide con el termino
+		 */
+		boolean expand(String term, int maxExpansions, int t, int[][] tokenIds, int[][] scores) {
+			Integer exact = ids.get(term);
+			int[] candidates = new int[0];
+			if (term.length() >= GRAM) {
+				candidates = null;
+				for (int i = 0; i + GRAM <= term.length(); i++) {
+					int[] list = trigrams.get(term.substring(i, i + GRAM));
+					if (list == null) {
+						candidates = new int[0];
+						break;
+					}
+					if (candidates == null || list.length < candidates.length) {
+						candidates = list;
+					}
+				}
+			}
+			int[] matchIds = new int[1 + Math.min(maxExpansions, candidates.length)];
+			int[] matchScores = new int[matchIds.length];
+			int count = 0;
+			if (exact != null) {
+				matchIds[count] = exact;
+				matchScores[count++] = EXACT_SCORE;
+			}
+			for (int j = 0, partials = 0; j < candidates.length && partials < maxExpansions; j++) {
+				int id = candidates[j];
+				if ((exact == null || id != exact) && tokens[id].contains(term)) {
+					matchIds[count] = id;
+					matchScores[count++] = PARTIAL_SCORE;
+					partials++;
+				}
+			}
+			tokenIds[t] = Arrays.copyOf(matchIds, count);
+			scores[t] = Arrays.copyOf(matchScores, count);
+			return count > 0;
+		}
+	}
+
+	/**
+	 * Vocabulario en construccion, compartido por los segmentos que se indexan en
+	 * paralelo. Parte de las palabras del vocabulario anterior para que los
+	 * segmentos reutilizados sigan siendo validos y solo guarda aparte las nuevas.
+	 */
+	static final class VocabularyBuilder {
+
+		private final Vocabulary previous;
+		private final ConcurrentHashMap<String, Integer> added = new ConcurrentHashMap<>();
+		private final AtomicInteger next;
+
+		VocabularyBuilder(Vocabulary previous) {
+			this.previous = previous == null ? Vocabulary.EMPTY : previous;
+			this.next = new AtomicInteger(this.previous.tokens.length);
+		}
+
+		int id(String token) {
+			Integer id = previous.ids.get(token);
+			if (id == null) {
+				id = added.get(token);
+			}
+			return id != null ? id : added.computeIfAbsent(token, ignored -> next.getAndIncrement());
+		}
+
+		Vocabulary build() {
+			if (added.isEmpty()) {
+				return previous;
+			}
+			int from = previous.tokens.length;
+			String[] tokens = new String[next.get() - from];
+			added.forEach((token, id) -> tokens[id - from] = token);
+			return previous.extend(tokens);
+		}
+	}
+
+	/**
+	 * Albumes de un rango de ids con las listas de documentos de sus titulos. Los
+	 * documentos de albumes son su posicion en el segmento y los de fotos su
+	 * posicion en la concatenacion de las fotos de los albumes
+	 * ({@code photoStarts}).
+	 */
+	static final class Segment {
+
+		private final long key;
+		private final List<AlbumView> albums;
+		private final int[] photoStarts;
+		private final Postings albumPostings;
+		private final Postings photoPostings;
+
+		private Segment(long key, List<AlbumView> albums, int[] photoStarts, Postings albumPostings,
+				Postings photoPostings) {
+			this.key = key;
+			this.albums = albums;
+			this.photoStarts = photoStarts;
+			this.albumPostings = albumPostings;
+			this.photoPostings = photoPostings;
+		}
+
+		static Segment build(List<AlbumView> albums, int segmentSize, VocabularyBuilder vocabulary) {
+			int[] photoStarts = new int[albums.size() + 1];
+			PostingsBuilder albumPostings = new PostingsBuilder(albums.size() * 4);
+			PostingsBuilder photoPostings = new PostingsBuilder(albums.size() * 32);
+			int photoDoc = 0;
+			for (int a = 0; a < albums.size(); a++) {
+				AlbumView album = albums.get(a);
+				photoStarts[a] = photoDoc;
+				albumPostings.add(album.title(), a, vocabulary);
+				if (album.photos() != null) {
+					for (PhotoView photo : album.photos()) {
+						photoPostings.add(photo.title(), photoDoc++, vocabulary);
+					}
+				}
+			}
+			photoStarts[albums.size()] = photoDoc;
+			return new Segment(Math.floorDiv(albums.get(0).id(), segmentSize), List.copyOf(albums), photoStarts,
+					albumPostings.build(albums.size()), photoPostings.build(photoDoc));
+		}
+
+		Segment withAlbums(List<AlbumView> albums) {
+			return new Segment(key, List.copyOf(albums), photoStarts, albumPostings, photoPostings);
+		}
+
+		/**
+		 * Segmento con los ids de palabra renumerados al compactar el vocabulario.
+		 */
+		Segment remap(int[] newIds) {
+			return new Segment(key, albums, photoStarts, albumPostings.remap(newIds), photoPostings.remap(newIds));
+		}
+
+		/**
+		 * Ids distintos y ordenados de las palabras del segmento, de albumes y fotos.
+		 */
+		int[] distinctTokenIds() {
+			int[] albumIds = albumPostings.tokenIds;
+			int[] photoIds = photoPostings.tokenIds;
+			int[] ids = new int[albumIds.length + photoIds.length];
+			int size = 0;
+			for (int a = 0, p = 0; a < albumIds.length || p < photoIds.length;) {
+				int id = p == photoIds.length || (a < albumIds.length && albumIds[a] <= photoIds[p]) ? albumIds[a]
+						: photoIds[p];
+				if (a < albumIds.length && albumIds[a] == id) {
+					a++;
+				}
+				if (p < photoIds.length && photoIds[p] == id) {
+					p++;
+				}
+				ids[size++] = id;
+			}
+			return Arrays.copyOf(ids, size);
+		}
+
+		int maxWords() {
+			return Math.max(albumPostings.wordCount(), photoPostings.wordCount());
+		}
+
+		/**
+		 * Indica si los albumes tienen los mismos ids y titulos (propios y de sus
+		 * fotos) que los de este segmento.
+		 */
+		boolean hasSameTitles(List<AlbumView> other) {
+			if (other.size() != albums.size()) {
+				return false;
+			}
+			for (int a = 0; a < albums.size(); a++) {
+				AlbumView album = albums.get(a);
+				AlbumView candidate = other.get(a);
+				if (!album.id().equals(candidate.id()) || !Objects.equals(album.title(), candidate.title())) {
+					return false;
+				}
+				List<PhotoView> photos = candidate.photos() == null ? List.of() : candidate.photos();
+				if (photos.size() != photoStarts[a + 1] - photoStarts[a]) {
+					return false;
+				}
+				if (photos == album.photos()) {
+					continue;
+				}
+				for (int p = 0; p < photos.size(); p++) {
+					PhotoView photo = album.photos().get(p);
+					PhotoView photoCandidate = photos.get(p);
+					if (!Objects.equals(photo.id(), photoCandidate.id())
+							|| !Objects.equals(photo.title(), photoCandidate.title())) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Posicion del album al que pertenece la foto: el ultimo con
+		 * {@code photoStarts[i] <= doc}.
+		 */
+		int albumOf(int doc) {
+			int low = 0;
+			int high = albums.size() - 1;
+			while (low < high) {
+				int mid = (low + high + 1) >>> 1;
+				if (photoStarts[mid] <= doc) {
+					low = mid;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * Listas de documentos por palabra: ids de palabra ordenados y, para cada uno,
+	 * sus documentos en orden creciente. Las listas dispersas se guardan como
+	 * diferencias codificadas en varint en {@code data} y las densas (al menos un
+	 * documento de cada 16, como en Roaring) como mapa de bits en {@code words},
+	 * que se combina palabra a palabra.
+	 */
+	static final class Postings {
+
+		private final int docCount;
+		private final int[] tokenIds;
+		private final int[] offsets;
+		private final int[] bitmaps;
+		private final byte[] data;
+		private final long[] words;
+
+		Postings(int docCount, int[] tokenIds, int[] offsets, int[] bitmaps, byte[] data, long[] words) {
+			this.docCount = docCount;
+			this.tokenIds = tokenIds;
+			this.offsets = offsets;
+			this.bitmaps = bitmaps;
+			this.data = data;
+			this.words = words;
+		}
+
+		int find(int tokenId) {
+			return Arrays.binarySearch(tokenIds, tokenId);
+		}
+
+		/**
+		 * Listas con los ids de palabra renumerados; la renumeracion conserva el
+		 * orden, asi que el resto de arrays se comparten.
+		 */
+		Postings remap(int[] newIds) {
+			int[] remapped = new int[tokenIds.length];
+			for (int i = 0; i < tokenIds.length; i++) {
+				remapped[i] = newIds[tokenIds[i]];
+			}
+			return new Postings(docCount, remapped, offsets, bitmaps, data, words);
+		}
+
+		int wordCount() {
+			return (docCount + 63) >>> 6;
+		}
+
+		/**
+		 * @return true si la lista de la palabra se guarda como mapa de bits
+		 */
+		boolean isBitmap(int slot) {
+			return bitmaps[slot] >= 0;
+		}
+
+		/**
+		 * Anade los documentos de la palabra al mapa de bits.
+		 */
+		void or(int slot, long[] target) {
+			if (isBitmap(slot)) {
+				for (int w = 0, from = bitmaps[slot], count = wordCount(); w < count; w++) {
+					target[w] |= words[from + w];
+				}
+				return;
+			}
+			int position = offsets[slot];
+			int end = offsets[slot + 1];
+			int doc = -1;
+			while (position < end) {
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = data[position++];
+					delta |= (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				doc += delta + 1;
+				target[doc >>> 6] |= 1L << doc;
+			}
+		}
+
+		long getMemory() {
+			return 4L * tokenIds.length + 4L * offsets.length + 4L * bitmaps.length + data.length + 8L * words.length;
+		}
+	}
+
+	static final class PostingsBuilder {
+
+		// Pares (id de palabra, documento) en un long para ordenarlos sin objetos
+		private long[] pairs;
+		private int size;
+		private int[] docTokens = new int[16];
+
+		PostingsBuilder(int capacity) {
+			this.pairs = new long[Math.max(capacity, 16)];
+		}
+
+		void add(String title, int doc, VocabularyBuilder vocabulary) {
+			List<String> tokens = tokenize(title);
+			if (docTokens.length < tokens.size()) {
+				docTokens = new int[tokens.size()];
+			}
+			for (int i = 0; i < tokens.size(); i++) {
+				docTokens[i] = vocabulary.id(tokens.get(i));
+			}
+			Arrays.sort(docTokens, 0, tokens.size());
+			for (int i = 0; i < tokens.size(); i++) {
+				if (i > 0 && docTokens[i] == docTokens[i - 1]) {
+					continue;
+				}
+				if (size == pairs.length) {
+					pairs = Arrays.copyOf(pairs, size * 2);
+				}
+				pairs[size++] = ((long) docTokens[i] << 32) | doc;
+			}
+		}
+
+		Postings build(int docCount) {
+			Arrays.sort(pairs, 0, size);
+			int tokenCount = 0;
+			for (int i = 0; i < size; i++) {
+				if (i == 0 || tokenOf(i) != tokenOf(i - 1)) {
+					tokenCount++;
+				}
+			}
+			int wordCount = (docCount + 63) >>> 6;
+			int[] tokenIds = new int[tokenCount];
+			int[] offsets = new int[tokenCount + 1];
+			int[] bitmaps = new int[tokenCount];
+			byte[] data = new byte[16];
+			long[] words = new long[0];
+			int position = 0;
+			int wordPosition = 0;
+			int slot = 0;
+			for (int from = 0; from < size; slot++) {
+				int tokenId = tokenOf(from);
+				int to = from + 1;
+				while (to < size && tokenOf(to) == tokenId) {
+					to++;
+				}
+				tokenIds[slot] = tokenId;
+				offsets[slot] = position;
+				if ((to - from) * 16L >= docCount) {
+					if (words.length < wordPosition + wordCount) {
+						words = Arrays.copyOf(words, Math.max(words.length * 2, wordPosition + wordCount));
+					}
+					for (int i = from; i < to; i++) {
+						int doc = (int) pairs[i];
+						words[wordPosition + (doc >>> 6)] |= 1L << doc;
+					}
+					bitmaps[slot] = wordPosition;
+					wordPosition += wordCount;
+				} else {
+					bitmaps[slot] = -1;
+					int previousDoc = -1;
+					for (int i = from; i < to; i++) {
+						if (data.length - position < 5) {
+							data = Arrays.copyOf(data, data.length * 2 + 5);
+						}
+						int doc = (int) pairs[i];
+						int delta = doc - previousDoc - 1;
+						while ((delta & ~0x7F) != 0) {
+							data[position++] = (byte) ((delta & 0x7F) | 0x80);
+							delta >>>= 7;
+						}
+						data[position++] = (byte) delta;
+						previousDoc = doc;
+					}
+				}
+				from = to;
+			}
+			offsets[tokenCount] = position;
+			return new Postings(docCount, tokenIds, offsets, bitmaps, Arrays.copyOf(data, position),
+					Arrays.copyOf(words, wordPosition));
+		}
+
+		private int tokenOf(int i) {
+			return (int) (pairs[i] >>> 32);
+		}
+	}
+
+	/**
+	 * Estado de una consulta en un segmento: por termino, el mapa de bits de los
+	 * documentos que contienen alguna de sus palabras y, si el termino tiene
+	 * palabra exacta y parciales, el de los que contienen la exacta.
+	 */
+	private static final class Scratch {
+
+		private static final int ONLY_EXACT = 0;
+		private static final int ONLY_PARTIAL = 1;
+		private static final int MIXED = 2;
+
+		private final long[][] any;
+		private final long[][] exact;
+		private final int[] modes;
+		private final long[] matches;
+
+		Scratch(int maxWords, int terms) {
+			this.any = new long[terms][maxWords];
+			this.exact = new long[terms][maxWords];
+			this.modes = new int[terms];
+			this.matches = new long[maxWords];
+		}
+
+		void match(Postings postings, int[][] tokenIds, int[][] scores, int kind, int segment, TopHits top) {
+			int wordCount = postings.wordCount();
+			int terms = tokenIds.length;
+			for (int t = 0; t < terms; t++) {
+				Arrays.fill(any[t], 0, wordCount, 0L);
+				int exactSlot = -1;
+				boolean partial = false;
+				for (int i = 0; i < tokenIds[t].length; i++) {
+					int slot = postings.find(tokenIds[t][i]);
+					if (slot >= 0) {
+						postings.or(slot, any[t]);
+						if (scores[t][i] == EXACT_SCORE) {
+							exactSlot = slot;
+						} else {
+							partial = true;
+						}
+					}
+				}
+				if (exactSlot < 0 && !partial) {
+					return;
+				}
+				modes[t] = exactSlot < 0 ? ONLY_PARTIAL : partial ? MIXED : ONLY_EXACT;
+				if (modes[t] == MIXED) {
+					Arrays.fill(exact[t], 0, wordCount, 0L);
+					postings.or(exactSlot, exact[t]);
+				}
+			}
+
+			boolean empty = true;
+			for (int w = 0; w < wordCount; w++) {
+				long bits = any[0][w];
+				for (int t = 1; t < terms && bits != 0; t++) {
+					bits &= any[t][w];
+				}
+				matches[w] = bits;
+				empty &= bits == 0;
+			}
+			if (empty) {
+				return;
+			}
+			for (int w = 0; w < wordCount; w++) {
+				for (long bits = matches[w]; bits != 0; bits &= bits - 1) {
+					int bit = Long.numberOfTrailingZeros(bits);
+					int score = 0;
+					for (int t = 0; t < terms; t++) {
+						score += switch (modes[t]) {
+						case ONLY_EXACT -> EXACT_SCORE;
+						case ONLY_PARTIAL -> PARTIAL_SCORE;
+						default -> (exact[t][w] & (1L << bit)) != 0 ? EXACT_SCORE : PARTIAL_SCORE;
+						};
+					}
+					top.offer(score, kind, segment, (w << 6) + bit);
+				}
+			}
+		}
+	}
+
+	private record Hit(int score, long sequence, int kind, int segment, int doc) {
+	}
+
+	/**
+	 * Los {@code limit} mejores resultados. Los documentos se ofrecen en el orden
+	 * de desempate (albumes, segmento y documento), asi que un resultado solo
+	 * desplaza al peor si tiene mayor puntuacion.
+	 */
+	private static final class TopHits {
+
+		private final int limit;
+		private final int maxScore;
+		private final PriorityQueue<Hit> heap;
+		private long sequence;
+
+		TopHits(int limit, int maxScore) {
+			this.limit = limit;
+			this.maxScore = maxScore;
+			this.heap = new PriorityQueue<>(Math.min(limit, 1024) + 1, (a, b) -> a.score() != b.score()
+					? Integer.compare(a.score(), b.score())
+					: Long.compare(b.sequence(), a.sequence()));
+		}
+
+		void offer(int score, int kind, int segment, int doc) {
+			if (heap.size() < limit) {
+				heap.add(new Hit(score, sequence++, kind, segment, doc));
+			} else if (score > heap.peek().score()) {
+				heap.poll();
+				heap.add(new Hit(score, sequence++, kind, segment, doc));
+			}
+		}
+
+		boolean isComplete() {
+			return heap.size() == limit && heap.peek().score() == maxScore;
+		}
+
+		List<Hit> drain() {
+			Hit[] hits = heap.toArray(Hit[]::new);
+			Arrays.sort(hits, (a, b) -> a.score() != b.score() ? Integer.compare(b.score(), a.score())
+					: Long.compare(a.sequence(), b.sequence()));
+			return Arrays.asList(hits);
+		}
+	}
+}
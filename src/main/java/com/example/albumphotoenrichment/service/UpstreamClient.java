@@ -0,0 +1,508 @@
+package com.example.albumphotoenrichment.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import com.example.albumphotoenrichment.constant.AlbumPhotoConstants;
+import com.example.albumphotoenrichment.factory.HttpClientFactory;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.PhotoColumns;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Cliente asincrono de la API externa de albumes y fotos. Las peticiones se
+ * envian con el {@link HttpClient} compartido y devuelven un CompletableFuture;
+ * el cuerpo se lee y se deserializa segun llega, sin bloquear ningun hilo
+ * mientras se espera a la red.
+ * <p>
+ * Cuando se conoce la instantanea anterior de un recurso las peticiones son
+ * condicionales (If-None-Match / If-Modified-Since): si el upstream responde 304
+ * se devuelve la instantanea anterior sin leer ningun cuerpo. Ademas se guarda
+ * un hash del contenido de cada respuesta; si el upstream no soporta
+ * validadores y devuelve exactamente los mismos bytes, tambien se devuelve la
+ * instantanea anterior, de forma que los consumidores pueden detectar que nada
+ * ha cambiado comparando por identidad.
+ * <p>
+ * Las fotos pueden descargarse en particiones ({@code album.upstream.photos.*}):
+ * por rangos de albumes ({@code ?albumId=}) o por rangos de posiciones
+ * ({@code _start}/{@code _limit}), con un numero maximo de peticiones en curso.
+ * Cada particion es una peticion condicional independiente.
+ * <p>
+ * Cada descarga se mide en el temporizador {@code album.phase} (fase
+ * {@code fetch.albums} o {@code fetch.photos}, desde el envio hasta el final
+ * del cuerpo), el tiempo de deserializacion en las fases
+ * {@code deserialize.albums} y {@code deserialize.photos}, y el tamano de los
+ * cuerpos en {@code album.upstream.payload}.
+ */
+@Service
+public class UpstreamClient {
+
+	private final HttpClientFactory httpClientFactory;
+	private final HttpClient httpClient;
+	private final ObjectMapper objectMapper;
+	private final String baseUrl;
+	private final Map<String, Validators> validatorsByUrl = new ConcurrentHashMap<>();
+	private final MeterRegistry meterRegistry;
+	private final String partitionMode;
+	private final int partitionSize;
+	private final int maxInFlight;
+	private final Map<String, Map<Long, List<PhotoView>>> partitionsByUrl = new ConcurrentHashMap<>();
+	private final AtomicReference<List<String>> partitionUrls = new AtomicReference<>();
+
+	@Autowired
+	public UpstreamClient(HttpClientFactory httpClientFactory, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+			@Value("${album.upstream.base-url:" + AlbumPhotoConstants.UPSTREAM_BASE_URL + "}") String baseUrl,
+			@Value("${album.upstream.photos.partition-mode:" + AlbumPhotoConstants.PARTITION_NONE + "}") String partitionMode,
+			@Value("${album.upstream.photos.partition-size:10}") int partitionSize,
+			@Value("${album.upstream.photos.max-in-flight:4}") int maxInFlight) {
+		this.httpClientFactory = httpClientFactory;
+		this.httpClient = httpClientFactory.createHttpClient();
+		this.objectMapper = objectMapper;
+		this.meterRegistry = meterRegistry;
+		this.baseUrl = baseUrl;
+		if (!List.of(AlbumPhotoConstants.PARTITION_NONE, AlbumPhotoConstants.PARTITION_ALBUM,
+				AlbumPhotoConstants.PARTITION_OFFSET).contains(partitionMode)) {
+			throw new IllegalArgumentException("Unknown partition mode: " + partitionMode);
+		}
+		this.partitionMode = partitionMode;
+		this.partitionSize = Math.max(partitionSize, 1);
+		this.maxInFlight = Math.max(maxInFlight, 1);
+	}
+
+	/**
+	 * @return true si las fotos se descargan en particiones
+	 */
+	public boolean isPhotosPartitioned() {
+		return !AlbumPhotoConstants.PARTITION_NONE.equals(partitionMode);
+	}
+
+	/**
+	 * Descarga todos los albumes.
+	 *
+	 * @param previous instantanea anterior o null si no existe
+	 * @return Lista de albumes, o la instantanea anterior si no ha cambiado
+	 */
+	public CompletableFuture<List<AlbumView>> fetchAlbums(List<AlbumView> previous) {
+		return conditionalGet(AlbumPhotoConstants.ALBUMS, baseUrl + AlbumPhotoConstants.ALBUMS_PATH, previous,
+				AlbumPhotoConstants.ERROR_FETCH_ALBUMS, AlbumView.class, ArrayList::new, List::add, Function.identity());
+	}
+
+	/**
+	 * Descarga todas las fotos agrupadas por album. Cada foto se anade a las
+	 * columnas de un {@link PhotoColumns} segun llega, de forma que nunca existe
+	 * una copia intermedia del conjunto completo ni se retiene ningun
+	 * {@link PhotoView}; al terminar el cuerpo las columnas se ordenan por album.
+	 *
+	 * @param previous instantanea anterior o null si no existe
+	 * @return Fotos indexadas por id de album, o la instantanea anterior si no ha
+	 *         cambiado
+	 */
+	public CompletableFuture<Map<Long, List<PhotoView>>> fetchPhotosByAlbum(Map<Long, List<PhotoView>> previous) {
+		return fetchPhotoPartition(baseUrl + AlbumPhotoConstants.PHOTOS_PATH, previous);
+	}
+
+	/**
+	 * Descarga las fotos segun el modo de particionado configurado. Sin
+	 * particiones se hace una unica peticion y, segun se lee el cuerpo, cada
+	 * {@code partition-size} albumes nuevos o modificados respecto a la instantanea
+	 * anterior se entregan a {@code onPartition}; un album se da por terminado
+	 * cuando llega una foto de otro album. En el modo por
+	 * albumes cada particion contiene todas las fotos de sus albumes y se entrega
+	 * a {@code onPartition} en cuanto llega, para poder enriquecer esos albumes
+	 * sin esperar al resto. En el modo por posiciones un album puede quedar
+	 * repartido entre dos paginas: cada vez que se completa un tramo contiguo de
+	 * paginas desde la primera se entregan sus albumes salvo el ultimo, que puede
+	 * continuar en la pagina siguiente. Esto supone que el upstream devuelve las
+	 * fotos ordenadas por album; si no es asi, un album entregado puede estar
+	 * incompleto, por lo que los receptores deben comprobar lo adelantado contra
+	 * el resultado final.
+	 *
+	 * @param previous    instantanea anterior o null si no existe
+	 * @param albums      albumes actuales, para planificar las particiones
+	 * @param onPartition receptor de cada particion nueva o modificada
+	 * @return Fotos indexadas por id de album, o la instantanea anterior si ninguna
+	 *         particion ha cambiado
+	 */
+	public CompletableFuture<Map<Long, List<PhotoView>>> fetchPhotosByAlbum(Map<Long, List<PhotoView>> previous,
+			List<AlbumView> albums, Consumer<Map<Long, List<PhotoView>>> onPartition) {
+		String photosUrl = baseUrl + AlbumPhotoConstants.PHOTOS_PATH;
+		return switch (partitionMode) {
+		case AlbumPhotoConstants.PARTITION_NONE -> conditionalGet(AlbumPhotoConstants.PHOTOS, photosUrl, previous,
+				AlbumPhotoConstants.ERROR_FETCH_PHOTOS, PhotoView.class, () -> new StreamedPhotos(previous, onPartition),
+				StreamedPhotos::add, StreamedPhotos::finish);
+		case AlbumPhotoConstants.PARTITION_ALBUM -> {
+			List<Long> albumIds = albums.stream().map(AlbumView::id).filter(Objects::nonNull).distinct().sorted()
+					.toList();
+			List<String> urls = new ArrayList<>();
+			for (int from = 0; from < albumIds.size(); from += partitionSize) {
+				StringBuilder url = new StringBuilder(photosUrl);
+				for (Long albumId : albumIds.subList(from, Math.min(from + partitionSize, albumIds.size()))) {
+					url.append(url.length() == photosUrl.length() ? '?' : '&').append("albumId=").append(albumId);
+				}
+				urls.add(url.toString());
+			}
+			yield new PartitionedFetch(previous, index -> index < urls.size() ? urls.get(index) : null, 0,
+					onPartition).start();
+		}
+		case AlbumPhotoConstants.PARTITION_OFFSET -> new PartitionedFetch(previous,
+				index -> photosUrl + "?_start=" + (long) index * partitionSize + "&_limit=" + partitionSize,
+				partitionSize, onPartition).start();
+		default -> throw new IllegalStateException("Unknown partition mode: " + partitionMode); // Validado al crear
+		};
+	}
+
+	/**
+	 * Descarga un unico album sin sus fotos.
+	 *
+	 * @param id id del album
+	 * @return album, o null si el upstream responde 404
+	 */
+	public CompletableFuture<AlbumView> fetchAlbum(Long id) {
+		String url = baseUrl + AlbumPhotoConstants.ALBUMS_PATH + "/" + id;
+		return httpClient.sendAsync(httpClientFactory.newRequest(url).build(), HttpResponse.BodyHandlers.ofByteArray())
+				.thenApply(response -> {
+					if (response.statusCode() == 404) {
+						return null;
+					}
+					if (!isSuccessful(response.statusCode())) {
+						throw new UpstreamStatusException(AlbumPhotoConstants.ERROR_FETCH_ALBUMS, response.statusCode());
+					}
+					try {
+						return objectMapper.readValue(response.body(), AlbumView.class);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+	}
+
+	/**
+	 * Descarga las fotos de un unico album. Estas peticiones no son condicionales:
+	 * no se guardan validadores por album.
+	 *
+	 * @param id id del album
+	 * @return fotos del album, vacia si no tiene ninguna
+	 */
+	public CompletableFuture<List<PhotoView>> fetchAlbumPhotos(Long id) {
+		String url = baseUrl + AlbumPhotoConstants.ALBUMS_PATH + "/" + id + AlbumPhotoConstants.PHOTOS_PATH;
+		HttpResponse.BodyHandler<JsonArrayBodySubscriber.Body<List<PhotoView>>> bodyHandler = info -> isSuccessful(
+				info.statusCode())
+						? new JsonArrayBodySubscriber<>(objectMapper, PhotoView.class, new ArrayList<>(), List::add,
+								httpClientFactory.getReadTimeout())
+						: HttpResponse.BodySubscribers.replacing(null);
+		return timed(AlbumPhotoConstants.PHOTOS, httpClient.sendAsync(httpClientFactory.newRequest(url).build(), bodyHandler))
+				.thenApply(response -> {
+					if (!isSuccessful(response.statusCode())) {
+						throw new UpstreamStatusException(AlbumPhotoConstants.ERROR_FETCH_PHOTOS, response.statusCode());
+					}
+					return record(AlbumPhotoConstants.PHOTOS, response.body()).value();
+				});
+	}
+
+	private CompletableFuture<Map<Long, List<PhotoView>>> fetchPhotoPartition(String url,
+			Map<Long, List<PhotoView>> previous) {
+		return conditionalGet(AlbumPhotoConstants.PHOTOS, url, previous, AlbumPhotoConstants.ERROR_FETCH_PHOTOS,
+				PhotoView.class, PhotoColumns::builder, PhotoColumns.Builder::add, PhotoColumns.Builder::build);
+	}
+
+	private <E, A, R> CompletableFuture<R> conditionalGet(String resource, String url, R previous, String error,
+			Class<E> elementType, Supplier<A> resultFactory, BiConsumer<A, E> accumulator,
+			Function<A, ? extends R> finisher) {
+		Validators validators = previous == null ? null : validatorsByUrl.get(url);
+		HttpRequest.Builder request = httpClientFactory.newRequest(url);
+		if (validators != null && validators.etag() != null) {
+			request.header(HttpHeaders.IF_NONE_MATCH, validators.etag());
+		}
+		if (validators != null && validators.lastModified() != null) {
+			request.header(HttpHeaders.IF_MODIFIED_SINCE, validators.lastModified());
+		}
+		HttpResponse.BodyHandler<JsonArrayBodySubscriber.Body<A>> bodyHandler = info -> isSuccessful(info.statusCode())
+				? new JsonArrayBodySubscriber<>(objectMapper, elementType, resultFactory.get(), accumulator,
+						httpClientFactory.getReadTimeout())
+				: HttpResponse.BodySubscribers.replacing(null); // 304 o error: el cuerpo se descarta
+
+		return timed(resource, httpClient.sendAsync(request.build(), bodyHandler)).thenApply(response -> {
+			if (previous != null && response.statusCode() == 304) {
+				counter("album.upstream.not_modified", resource).increment();
+				return previous;
+			}
+			if (!isSuccessful(response.statusCode())) {
+				throw new UpstreamStatusException(error, response.statusCode());
+			}
+			JsonArrayBodySubscriber.Body<A> body = record(resource, response.body());
+			validatorsByUrl.put(url, new Validators(response.headers().firstValue(HttpHeaders.ETAG).orElse(null),
+					response.headers().firstValue(HttpHeaders.LAST_MODIFIED).orElse(null), body.contentHash()));
+			if (previous != null && validators != null && body.contentHash().equals(validators.contentHash())) {
+				counter("album.upstream.unchanged", resource).increment();
+				return previous;
+			}
+			return finisher.apply(body.value());
+		});
+	}
+
+	private <T> CompletableFuture<T> timed(String resource, CompletableFuture<T> future) {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		return future.whenComplete((result, ex) -> sample
+				.stop(meterRegistry.timer(AlbumPhotoConstants.METRIC_PHASE, "phase", "fetch." + resource)));
+	}
+
+	private <R> JsonArrayBodySubscriber.Body<R> record(String resource, JsonArrayBodySubscriber.Body<R> body) {
+		meterRegistry.timer(AlbumPhotoConstants.METRIC_PHASE, "phase", "deserialize." + resource)
+				.record(body.parseNanos(), TimeUnit.NANOSECONDS);
+		DistributionSummary.builder("album.upstream.payload").baseUnit("bytes").tag("resource", resource)
+				.register(meterRegistry).record(body.size());
+		return body;
+	}
+
+	private Counter counter(String name, String resource) {
+		return meterRegistry.counter(name, "resource", resource);
+	}
+
+	private static boolean isSuccessful(int statusCode) {
+		return statusCode >= 200 && statusCode < 300;
+	}
+
+	/**
+	 * Descarga de fotos por particiones con un maximo de peticiones en curso: cada
+	 * vez que termina una particion se lanza la siguiente. Las particiones se
+	 * identifican por su posicion; {@code urls} devuelve null cuando no quedan
+	 * mas. En el modo por posiciones ({@code pageSize > 0}) la primera particion
+	 * incompleta marca el final de los datos y las paginas se entregan por
+	 * albumes a medida que se completa el tramo contiguo desde la primera.
+	 */
+	private final class PartitionedFetch {
+
+		private final Map<Long, List<PhotoView>> previous;
+		private final IntFunction<String> urls;
+		private final int pageSize;
+		private final Consumer<Map<Long, List<PhotoView>>> onPartition;
+		private final Map<Integer, String> fetchedUrls = new ConcurrentHashMap<>();
+		private final Map<Integer, Map<Long, List<PhotoView>>> partitions = new ConcurrentHashMap<>();
+		private final AtomicInteger next = new AtomicInteger();
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicInteger end = new AtomicInteger(Integer.MAX_VALUE);
+		private final AtomicBoolean changed = new AtomicBoolean();
+		private final AtomicBoolean finished = new AtomicBoolean();
+		private final CompletableFuture<Map<Long, List<PhotoView>>> result = new CompletableFuture<>();
+		// Modo por posiciones: fragmentos de los albumes aun abiertos del tramo contiguo
+		private final Map<Long, List<List<PhotoView>>> openAlbums = new HashMap<>();
+		private final Set<Integer> changedPages = ConcurrentHashMap.newKeySet();
+		private final Set<Long> changedAlbums = new HashSet<>();
+		private int swept;
+		private Long lastAlbumId;
+
+		private PartitionedFetch(Map<Long, List<PhotoView>> previous, IntFunction<String> urls, int pageSize,
+				Consumer<Map<Long, List<PhotoView>>> onPartition) {
+			this.previous = previous;
+			this.urls = urls;
+			this.pageSize = pageSize;
+			this.onPartition = onPartition;
+		}
+
+		private CompletableFuture<Map<Long, List<PhotoView>>> start() {
+			inFlight.incrementAndGet(); // Evita terminar mientras se lanzan las primeras
+			for (int i = 0; i < maxInFlight; i++) {
+				launchNext();
+			}
+			completeOne();
+			return result;
+		}
+
+		private void launchNext() {
+			int index = next.getAndIncrement();
+			String url = index < end.get() ? urls.apply(index) : null;
+			if (url == null || result.isDone()) {
+				return;
+			}
+			inFlight.incrementAndGet();
+			fetchedUrls.put(index, url);
+			Map<Long, List<PhotoView>> previousPartition = previous == null ? null : partitionsByUrl.get(url);
+			fetchPhotoPartition(url, previousPartition).whenComplete((partition, ex) -> {
+				if (ex != null) {
+					result.completeExceptionally(ex);
+					return;
+				}
+				try {
+					partitions.put(index, partition);
+					partitionsByUrl.put(url, partition);
+					if (partition != previousPartition) {
+						changed.set(true);
+						changedPages.add(index);
+						if (pageSize == 0) {
+							onPartition.accept(partition);
+						}
+					}
+					if (pageSize > 0) {
+						if (partition.values().stream().mapToInt(List::size).sum() < pageSize) {
+							end.accumulateAndGet(index + 1, Math::min); // Ultima particion con datos
+						}
+						sweep();
+					}
+					launchNext();
+					completeOne();
+				} catch (RuntimeException e) {
+					result.completeExceptionally(e);
+				}
+			});
+		}
+
+		private void completeOne() {
+			if (inFlight.decrementAndGet() == 0 && !result.isDone() && finished.compareAndSet(false, true)) {
+				result.complete(merge());
+			}
+		}
+
+		/**
+		 * Recorre las paginas recibidas de forma contigua desde la ultima recorrida y
+		 * entrega los albumes modificados que ya no pueden continuar: todos salvo el
+		 * de mayor id de la ultima pagina recorrida, o todos si ya se ha llegado a la
+		 * pagina final.
+		 */
+		private synchronized void sweep() {
+			while (swept < end.get() && partitions.containsKey(swept)) {
+				boolean pageChanged = changedPages.contains(swept);
+				for (Map.Entry<Long, List<PhotoView>> entry : partitions.get(swept).entrySet()) {
+					openAlbums.computeIfAbsent(entry.getKey(), albumId -> new ArrayList<>()).add(entry.getValue());
+					if (pageChanged) {
+						changedAlbums.add(entry.getKey());
+					}
+					lastAlbumId = lastAlbumId == null ? entry.getKey() : Math.max(lastAlbumId, entry.getKey());
+				}
+				swept++;
+			}
+			boolean finalPage = swept >= end.get();
+			PhotoColumns.Builder ready = PhotoColumns.builder();
+			boolean deliver = false;
+			for (Iterator<Map.Entry<Long, List<List<PhotoView>>>> it = openAlbums.entrySet().iterator(); it.hasNext();) {
+				Map.Entry<Long, List<List<PhotoView>>> album = it.next();
+				if (!finalPage && album.getKey().equals(lastAlbumId)) {
+					continue; // Puede continuar en la pagina siguiente
+				}
+				if (changedAlbums.remove(album.getKey())) {
+					album.getValue().forEach(photos -> ready.addAlbum(album.getKey(), photos));
+					deliver = true;
+				}
+				it.remove();
+			}
+			if (deliver) {
+				onPartition.accept(ready.build());
+			}
+		}
+
+		private Map<Long, List<PhotoView>> merge() {
+			List<String> urlsInOrder = new ArrayList<>();
+			List<Map<Long, List<PhotoView>>> pages = new ArrayList<>();
+			for (int index = 0; index < Math.min(end.get(), next.get()) && partitions.containsKey(index); index++) {
+				urlsInOrder.add(fetchedUrls.get(index));
+				pages.add(partitions.get(index));
+			}
+			List<String> previousUrls = partitionUrls.getAndSet(urlsInOrder);
+			partitionsByUrl.keySet().retainAll(urlsInOrder);
+			if (previous != null && !changed.get() && urlsInOrder.equals(previousUrls)) {
+				return previous; // Ninguna particion ha cambiado
+			}
+			// Las columnas de cada particion se copian en un unico almacen; las fotos de
+			// un album repartido entre paginas quedan en el orden de las paginas
+			PhotoColumns.Builder merged = PhotoColumns.builder();
+			pages.forEach(merged::addAll);
+			return merged.build();
+		}
+	}
+
+	/**
+	 * Acumulador de la descarga sin particiones que, ademas de anadir cada foto a
+	 * las columnas, agrupa las fotos del album en curso y entrega los albumes que
+	 * han cambiado en bloques de {@code partitionSize}. Si el upstream no ordena
+	 * las fotos por album, un album puede entregarse en varios trozos; los
+	 * receptores comprueban lo adelantado contra el resultado final.
+	 */
+	private final class StreamedPhotos {
+
+		private final Map<Long, List<PhotoView>> previous;
+		private final Consumer<Map<Long, List<PhotoView>>> onPartition;
+		private final PhotoColumns.Builder all = PhotoColumns.builder();
+		private PhotoColumns.Builder pending = PhotoColumns.builder();
+		private int pendingAlbums;
+		private Long albumId;
+		private List<PhotoView> albumPhotos = new ArrayList<>();
+
+		private StreamedPhotos(Map<Long, List<PhotoView>> previous, Consumer<Map<Long, List<PhotoView>>> onPartition) {
+			this.previous = previous;
+			this.onPartition = onPartition;
+		}
+
+		private void add(PhotoView photo) {
+			all.add(photo);
+			if (photo.albumId() == null) {
+				return;
+			}
+			if (!photo.albumId().equals(albumId)) {
+				closeAlbum();
+				albumId = photo.albumId();
+			}
+			albumPhotos.add(photo);
+		}
+
+		private PhotoColumns finish() {
+			closeAlbum();
+			deliver();
+			return all.build();
+		}
+
+		private void closeAlbum() {
+			if (albumId == null) {
+				return;
+			}
+			if (previous == null || !albumPhotos.equals(previous.get(albumId))) {
+				pending.addAlbum(albumId, albumPhotos);
+				if (++pendingAlbums >= partitionSize) {
+					deliver();
+				}
+			}
+			albumPhotos = new ArrayList<>();
+		}
+
+		private void deliver() {
+			if (pendingAlbums > 0) {
+				onPartition.accept(pending.build());
+				pending = PhotoColumns.builder();
+				pendingAlbums = 0;
+			}
+		}
+	}
+
+	private record Validators(String etag, String lastModified, String contentHash) {
+	}
+}
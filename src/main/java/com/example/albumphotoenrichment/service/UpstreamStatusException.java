@@ -0,0 +1,29 @@
+package com.example.albumphotoenrichment.service;
+
+/**
+ * El upstream ha respondido con un estado de error. {@link UpstreamClient} la
+ * lanza en lugar de una excepcion generica para que solo estos fallos (y los de
+ * conexion) se traduzcan en 502.
+ */
+public class UpstreamStatusException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int statusCode;
+
+	/**
+	 * @param message    descripcion de la peticion fallida
+	 * @param statusCode estado HTTP de la respuesta
+	 */
+	public UpstreamStatusException(String message, int statusCode) {
+		super(message + " (HTTP " + statusCode + ")");
+		this.statusCode = statusCode;
+	}
+
+	/**
+	 * @return estado HTTP de la respuesta
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+}
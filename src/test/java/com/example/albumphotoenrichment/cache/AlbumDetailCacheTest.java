@@ -0,0 +1,84 @@
+package com.example.albumphotoenrichment.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.metrics.cache.CacheMetricsRegistrar;
+import org.springframework.boot.actuate.metrics.cache.CaffeineCacheMeterBinderProvider;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.example.albumphotoenrichment.config.CacheConfig;
+import com.example.albumphotoenrichment.constant.AlbumPhotoConstants;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.PhotoColumns;
+import com.example.albumphotoenrichment.model.PhotoView;
+
+public class AlbumDetailCacheTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final AtomicInteger loads = new AtomicInteger();
+	private final Function<Long, CompletableFuture<AlbumView>> loader = id -> {
+		loads.incrementAndGet();
+		return CompletableFuture.completedFuture(id > 100 ? null : new AlbumView(id, 1L, "Album" + id));
+	};
+
+	// La cache se acota por el tamano estimado de los albumes y registra aciertos
+	// y fallos
+	@Test
+	void testAlbumsAreBoundedByEstimatedBytes() {
+		AlbumDetailCache cache = newCache("maximumWeight=2000");
+
+		cache.get(1L, loader).join();
+		cache.get(1L, loader).join();
+		for (long id = 2; id <= 50; id++) {
+			cache.get(id, loader).join();
+		}
+
+		assertEquals(50, loads.get());
+		assertTrue(cache.size() < 50, "size=" + cache.size());
+		assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", AlbumPhotoConstants.CACHE_ALBUMS)
+				.tag("result", "hit").functionCounter().count());
+	}
+
+	// Las fotos en columnas se pesan sobre las columnas y pesan como las mismas
+	// fotos en una lista
+	@Test
+	void testColumnPhotosAreWeighedFromColumns() {
+		List<PhotoView> photos = List.of(new PhotoView(1L, 1L, "accusamus beatae", "url1", "thumb1"),
+				new PhotoView(2L, 1L, "sunt qui", "url2", "thumb2"));
+		PhotoColumns columns = PhotoColumns.builder().addAlbum(1L, photos).build();
+
+		long fromColumns = EstimatedSizeWeigher.estimate(columns.getPhotos(1L));
+
+		assertTrue(fromColumns > 0 && fromColumns < EstimatedSizeWeigher.estimate(photos),
+				"columns=" + fromColumns);
+	}
+
+	// Los albumes que no existen no se guardan
+	@Test
+	void testMissingAlbumIsNotCached() {
+		AlbumDetailCache cache = newCache("maximumSize=10");
+
+		assertNull(cache.get(500L, loader).join());
+		assertNull(cache.get(500L, loader).join());
+
+		assertEquals(2, loads.get());
+		assertEquals(0, cache.size());
+	}
+
+	private AlbumDetailCache newCache(String spec) {
+		CaffeineCacheManager cacheManager = new CacheConfig().cacheManager(meterRegistry, "maximumSize=10", spec);
+		new CacheMetricsRegistrar(meterRegistry, List.of(new CaffeineCacheMeterBinderProvider()))
+				.bindCacheToRegistry(cacheManager.getCache(AlbumPhotoConstants.CACHE_ALBUMS));
+		return new AlbumDetailCache(cacheManager);
+	}
+}
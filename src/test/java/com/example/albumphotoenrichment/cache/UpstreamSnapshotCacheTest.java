@@ -0,0 +1,130 @@
+package com.example.albumphotoenrichment.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class UpstreamSnapshotCacheTest {
+
+	private final AtomicInteger loads = new AtomicInteger();
+	private final Function<Integer, CompletableFuture<Integer>> loader = previous -> CompletableFuture
+			.supplyAsync(loads::incrementAndGet);
+
+	// Mientras la instantanea es fresca no se vuelve a llamar al loader
+	@Test
+	void testFreshEntryIsServedFromCache() throws Exception {
+		UpstreamSnapshotCache cache = newCache(60000, 600000);
+
+		assertEquals(1, cache.get("albums", loader).get());
+		assertEquals(1, cache.get("albums", loader).get());
+		assertEquals(1, loads.get());
+	}
+
+	// Pasado el TTL se sirve el valor anterior y se revalida en segundo plano
+	@Test
+	void testStaleEntryIsServedWhileRevalidating() throws Exception {
+		UpstreamSnapshotCache cache = newCache(0, 600000);
+
+		assertEquals(1, cache.get("albums", loader).get());
+		assertEquals(1, cache.get("albums", loader).get());
+
+		assertTrue(awaitValue(cache, 2) >= 2);
+	}
+
+	// Superado el maximo de obsolescencia la carga es sincrona
+	@Test
+	void testExpiredEntryIsReloaded() throws Exception {
+		UpstreamSnapshotCache cache = newCache(0, 0);
+
+		assertEquals(1, cache.get("albums", loader).get());
+		assertEquals(2, cache.get("albums", loader).get());
+	}
+
+	// Refrescar revalida la entrada aunque siga fresca
+	@Test
+	void testRefreshIgnoresTtl() throws Exception {
+		UpstreamSnapshotCache cache = newCache(60000, 600000);
+		cache.get("albums", loader).get();
+
+		assertEquals(2, cache.refresh("albums", loader).get());
+		assertEquals(2, cache.get("albums", loader).get());
+	}
+
+	// Una descarga en curso al invalidar no vuelve a guardar su resultado y las
+	// llamadas posteriores no se unen a ella
+	@Test
+	void testInvalidateAllDiscardsInFlightLoad() throws Exception {
+		UpstreamSnapshotCache cache = newCache(60000, 600000);
+		CompletableFuture<Void> release = new CompletableFuture<>();
+		Function<Integer, CompletableFuture<Integer>> slowLoader = previous -> release
+				.thenApply(ignored -> loads.incrementAndGet());
+
+		CompletableFuture<Integer> inFlight = cache.get("photos", slowLoader);
+		cache.invalidateAll();
+		CompletableFuture<Integer> afterInvalidation = cache.get("photos", slowLoader);
+		release.complete(null);
+
+		assertNotEquals(inFlight.get(), afterInvalidation.get());
+		assertEquals(2, loads.get());
+		// Solo se guarda el resultado de la descarga posterior a la invalidacion
+		assertEquals(afterInvalidation.get(), cache.get("photos", loader).get());
+		assertEquals(2, loads.get());
+	}
+
+	// Las llamadas concurrentes con la cache fria comparten una unica descarga
+	@Test
+	void testConcurrentColdCallsShareOneFetch() throws Exception {
+		UpstreamSnapshotCache cache = newCache(60000, 600000);
+		CompletableFuture<Void> release = new CompletableFuture<>();
+		Function<Integer, CompletableFuture<Integer>> slowLoader = previous -> release
+				.thenApply(ignored -> loads.incrementAndGet());
+
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			futures.add(cache.get("photos", slowLoader));
+		}
+		release.complete(null);
+
+		for (CompletableFuture<Integer> future : futures) {
+			assertEquals(1, future.get());
+		}
+		assertEquals(1, loads.get());
+		assertEquals(199, cache.getCoalescedCount());
+	}
+
+	// La revalidacion forzada recibe la instantanea anterior
+	@Test
+	void testRefreshReceivesPreviousValue() throws Exception {
+		UpstreamSnapshotCache cache = newCache(60000, 600000);
+		cache.get("albums", loader).get();
+
+		assertEquals(11, cache.refresh("albums", (Integer previous) -> CompletableFuture.completedFuture(previous + 10)).get());
+		assertEquals(11, cache.get("albums", loader).get());
+	}
+
+	private UpstreamSnapshotCache newCache(long ttlMs, long maxStaleMs) {
+		return new UpstreamSnapshotCache(ttlMs, maxStaleMs, new SimpleMeterRegistry());
+	}
+
+	// Espera a que la cache publique un valor revalidado
+	private int awaitValue(UpstreamSnapshotCache cache, int expected) throws Exception {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		int value = cache.get("albums", loader).get();
+		while (value < expected && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+			value = cache.get("albums", loader).get();
+		}
+		return value;
+	}
+}
@@ -0,0 +1,71 @@
+package com.example.albumphotoenrichment.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.example.albumphotoenrichment.constant.AlbumPhotoConstants;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+public class CacheConfigTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	// Las caches se acotan por bytes estimados y registran aciertos, fallos y
+	// desalojos
+	@Test
+	void testCachesAreBoundedByEstimatedBytes() {
+		CaffeineCacheManager cacheManager = new CacheConfig().cacheManager(meterRegistry, "maximumSize=10",
+				"maximumWeight=20000,expireAfterAccess=1m");
+		CaffeineCache albums = (CaffeineCache) cacheManager.getCache(AlbumPhotoConstants.CACHE_ALBUMS);
+		Cache<Object, Object> nativeCache = albums.getNativeCache();
+
+		for (long id = 1; id <= 100; id++) {
+			albums.put(id, album(id));
+		}
+		nativeCache.cleanUp();
+		albums.get(1000L);
+
+		long weight = nativeCache.policy().eviction().orElseThrow().weightedSize().orElseThrow();
+		assertTrue(weight > 0 && weight <= 20000, "weight=" + weight);
+		assertTrue(nativeCache.estimatedSize() < 100);
+		CacheStats stats = nativeCache.stats();
+		assertEquals(1, stats.missCount());
+		assertTrue(stats.evictionCount() > 0);
+		assertEquals(weight, meterRegistry.get("album.cache.weight").tag("cache", AlbumPhotoConstants.CACHE_ALBUMS)
+				.gauge().value());
+	}
+
+	// Una entrada mayor que el peso maximo de la cache no se conserva
+	@Test
+	void testOversizedEntryIsNotRetained() {
+		CaffeineCacheManager cacheManager = new CacheConfig().cacheManager(meterRegistry, "maximumWeight=200",
+				"maximumWeight=20000");
+		// Las caches no configuradas usan la especificacion por defecto
+		CaffeineCache photos = (CaffeineCache) cacheManager.getCache("photos");
+
+		photos.put(1L, album(1L).photos());
+		photos.getNativeCache().cleanUp();
+
+		assertNull(photos.get(1L));
+	}
+
+	private static AlbumView album(long id) {
+		return new AlbumView(id, 1L, "Album " + id, List.of(
+				new PhotoView(id * 10, id, "Photo " + id, "https://via.placeholder.com/600/92c952",
+						"https://via.placeholder.com/150/92c952"),
+				new PhotoView(id * 10 + 1, id, "Photo " + id, "https://via.placeholder.com/600/771796",
+						"https://via.placeholder.com/150/771796")));
+	}
+}
@@ -6,6 +6,7 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -22,26 +23,24 @@ public class AlbumControllerIntegrationTest {
 	// Prueba de integración para el endpoint GET /albums
 	@Test
 	void testGetAlbums() throws Exception {
-		// Realiza una solicitud GET a /albums y verifica el resultado
-		mockMvc.perform(get("/albums")).andExpect(status().isOk()) // Verifica que el estado de la respuesta sea 200 OK
-				.andExpect(jsonPath("$").isArray()); // Verifica que la respuesta sea un array JSON
+		// El endpoint es asincrono: se completa el despacho asincrono y se verifica
+		// que la respuesta sea 200 OK con un array JSON
+		MvcResult result = mockMvc.perform(get("/albums")).andExpect(request().asyncStarted()).andReturn();
+		mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk()).andExpect(jsonPath("$").isArray());
 	}
 
 	// Prueba de integración para el endpoint PUT /albums/refresh
 	@Test
 	void testRefreshAlbums() throws Exception {
-		// Realiza una solicitud PUT a /albums/refresh y verifica el resultado
-		mockMvc.perform(put("/albums/refresh")).andExpect(status().isOk()) // Verifica que el estado de la respuesta sea
-																			// 200 OK
-				.andExpect(jsonPath("$").isArray()); // Verifica que la respuesta sea un array JSON
+		MvcResult result = mockMvc.perform(put("/albums/refresh")).andExpect(request().asyncStarted()).andReturn();
+		mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk()).andExpect(jsonPath("$").isArray());
 	}
 
 	// Prueba de integración para el endpoint PUT /albums/refresh-and-save
 	@Test
 	void testRefreshAndSaveAlbums() throws Exception {
-		// Realiza una solicitud PUT a /albums/refresh-and-save y verifica el resultado
-		mockMvc.perform(put("/albums/refresh-and-save")).andExpect(status().isOk()) // Verifica que el estado de la
-																					// respuesta sea 200 OK
-				.andExpect(jsonPath("$").isArray()); // Verifica que la respuesta sea un array JSON
+		MvcResult result = mockMvc.perform(put("/albums/refresh-and-save")).andExpect(request().asyncStarted())
+				.andReturn();
+		mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk()).andExpect(jsonPath("$").isArray());
 	}
 }
@@ -1,31 +1,83 @@
 package com.example.albumphotoenrichment.controller;
 
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.net.http.HttpTimeoutException;
+import java.time.Instant;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import jakarta.servlet.ServletException;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.mockito.Spy;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.example.albumphotoenrichment.constant.AlbumPhotoConstants;
+import com.example.albumphotoenrichment.factory.EnrichedSnapshotFactory;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.example.albumphotoenrichment.model.RefreshJobStatus;
+import com.example.albumphotoenrichment.model.SearchHit;
+import com.example.albumphotoenrichment.model.SearchResult;
+import com.example.albumphotoenrichment.service.AlbumNdjsonWriter;
+import com.example.albumphotoenrichment.service.AlbumQueryService;
+import com.example.albumphotoenrichment.service.AlbumSearchService;
 import com.example.albumphotoenrichment.service.AlbumService;
+import com.example.albumphotoenrichment.service.RefreshJobService;
+import com.example.albumphotoenrichment.service.UpstreamStatusException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
-@WebMvcTest(AlbumController.class)
 public class AlbumControllerTest {
 
 	// Mock para el servicio AlbumService
 	@Mock
 	private AlbumService albumService;
 
+	// Mock para el servicio de trabajos de refresco
+	@Mock
+	private RefreshJobService refreshJobService;
+
+	// Mock para el servicio de busqueda por titulo
+	@Mock
+	private AlbumSearchService albumSearchService;
+
+	// Servicio de consultas real sobre la instantanea
+	@Spy
+	private AlbumQueryService albumQueryService = new AlbumQueryService(new ObjectMapper(), new SimpleMeterRegistry());
+
+	// Escritor NDJSON real
+	@Spy
+	private AlbumNdjsonWriter albumNdjsonWriter = new AlbumNdjsonWriter(new ObjectMapper(), new SimpleMeterRegistry());
+
 	// Inyecta el controlador con los mocks
 	@InjectMocks
 	private AlbumController albumController;
@@ -40,29 +92,157 @@ public class AlbumControllerTest {
 		MockitoAnnotations.openMocks(this);
 
 		// Configura MockMvc con el controlador inyectado
-		mockMvc = MockMvcBuilders.standaloneSetup(albumController).build();
+		mockMvc = MockMvcBuilders.standaloneSetup(albumController).setControllerAdvice(new AlbumExceptionHandler())
+				.build();
 	}
 
 	// Prueba para el endpoint GET /albums
 	@Test
 	void testGetAlbums() throws Exception {
-		// Configura el mock del servicio para devolver una lista vacía
-		when(albumService.enrichAlbums()).thenReturn(Collections.emptyList());
+		// Configura el mock del servicio para devolver una instantanea vacía
+		when(albumService.getSnapshotAsync(null)).thenReturn(completed(emptySnapshot()));
 
 		// Realiza una solicitud GET a /albums y verifica el resultado
-		mockMvc.perform(get("/albums")).andExpect(status().isOk()) // Verifica que el estado de la respuesta sea 200 OK
+		perform(get("/albums")).andExpect(status().isOk()) // Verifica que el estado de la respuesta sea 200 OK
 				.andExpect(jsonPath("$").isArray()) // Verifica que la respuesta sea un array JSON
 				.andExpect(jsonPath("$").isEmpty()); // Verifica que el array JSON esté vacío
 	}
 
+	// Prueba del endpoint GET /albums con If-None-Match igual al ETag actual
+	@Test
+	void testGetAlbumsNotModified() throws Exception {
+		EnrichedSnapshot snapshot = emptySnapshot();
+		when(albumService.getSnapshotAsync(null)).thenReturn(completed(snapshot));
+
+		perform(get("/albums").header(HttpHeaders.IF_NONE_MATCH, snapshot.getEtag()))
+				.andExpect(status().isNotModified()) // Verifica que el estado de la respuesta sea 304
+				.andExpect(header().string(HttpHeaders.ETAG, snapshot.getEtag()));
+	}
+
+	// Prueba del endpoint GET /albums cuando el cliente acepta gzip
+	@Test
+	void testGetAlbumsGzip() throws Exception {
+		EnrichedSnapshot snapshot = emptySnapshot();
+		when(albumService.getSnapshotAsync(null)).thenReturn(completed(snapshot));
+
+		perform(get("/albums").header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+				.andExpect(status().isOk()) // Verifica que el estado de la respuesta sea 200 OK
+				.andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+				.andExpect(content().bytes(snapshot.getGzipJson()));
+	}
+
+	// Prueba del endpoint GET /albums cuando el cliente rechaza gzip con q=0
+	@Test
+	void testGetAlbumsGzipRejected() throws Exception {
+		EnrichedSnapshot snapshot = emptySnapshot();
+		when(albumService.getSnapshotAsync(null)).thenReturn(completed(snapshot));
+
+		perform(get("/albums").header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, identity"))
+				.andExpect(status().isOk()) // Verifica que el estado de la respuesta sea 200 OK
+				.andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+				.andExpect(content().bytes(snapshot.getJson()));
+	}
+
+	// Prueba del analisis de Accept-Encoding con q-values y tokens parecidos
+	@Test
+	void testAcceptsGzip() {
+		assertTrue(AlbumController.acceptsGzip("deflate, gzip;q=0.5"));
+		assertTrue(AlbumController.acceptsGzip("*"));
+		assertFalse(AlbumController.acceptsGzip("gzip;q=0"));
+		assertFalse(AlbumController.acceptsGzip("x-gzip-foo"));
+		assertFalse(AlbumController.acceptsGzip("gzip;q=0, *"));
+		assertFalse(AlbumController.acceptsGzip(null));
+	}
+
+	// Prueba del endpoint GET /albums leyendo de la base de datos
+	@Test
+	void testGetAlbumsFromDb() throws Exception {
+		when(albumService.getSnapshotAsync("db")).thenReturn(completed(emptySnapshot()));
+
+		perform(get("/albums").param("source", "db")).andExpect(status().isOk())
+				.andExpect(jsonPath("$").isEmpty());
+		perform(get("/albums").param("source", "cache")).andExpect(status().isBadRequest());
+	}
+
+	// Prueba del endpoint GET /albums/{id}
+	@Test
+	void testGetAlbum() throws Exception {
+		AlbumView album = new AlbumView(1L, 1L, "Album1",
+				List.of(new PhotoView(1L, 1L, "Photo1", "url1", "thumbnail1")));
+		when(albumService.getAlbumAsync(1L)).thenReturn(CompletableFuture.completedFuture(album));
+
+		perform(get("/albums/1")).andExpect(status().isOk()) // Verifica que el estado de la respuesta sea 200 OK
+				.andExpect(jsonPath("$.title").value("Album1"))
+				.andExpect(jsonPath("$.photos[0].title").value("Photo1"));
+	}
+
+	// Prueba del endpoint GET /albums/{id} con un album que no existe
+	@Test
+	void testGetAlbumNotFound() throws Exception {
+		when(albumService.getAlbumAsync(2L)).thenReturn(CompletableFuture.completedFuture(null));
+
+		perform(get("/albums/2")).andExpect(status().isNotFound()); // Verifica que el estado sea 404
+	}
+
+	// Prueba del endpoint GET /albums con filtro, paginacion y proyeccion
+	@Test
+	void testGetAlbumsQuery() throws Exception {
+		List<AlbumView> albums = List.of(new AlbumView(1L, 1L, "A"), new AlbumView(2L, 1L, "B"), new AlbumView(3L, 2L, "C"));
+		Map<Long, List<PhotoView>> photos = Map.of(2L, List.of(new PhotoView(10L, 2L, "P", "url", "thumb")));
+		when(albumService.getSnapshotAsync(null)).thenReturn(completed(new EnrichedSnapshotFactory(new ObjectMapper()).create(albums, photos)));
+
+		perform(get("/albums").param("userId", "1").param("size", "1").param("cursor", "1")
+				.param("fields", "id,photos").param("photoFields", "url")).andExpect(status().isOk())
+				.andExpect(jsonPath("$.total").value(2)) // Solo los albumes del usuario 1
+				.andExpect(jsonPath("$.items.length()").value(1))
+				.andExpect(jsonPath("$.items[0].id").value(2)) // Primer album tras el cursor
+				.andExpect(jsonPath("$.items[0].title").doesNotExist()) // Campo no solicitado
+				.andExpect(jsonPath("$.items[0].photos[0].url").value("url"))
+				.andExpect(jsonPath("$.items[0].photos[0].title").doesNotExist())
+				.andExpect(jsonPath("$.nextCursor").doesNotExist()); // Ultima pagina
+	}
+
+	// Prueba del endpoint GET /albums con parametros no validos
+	@Test
+	void testGetAlbumsQueryBadRequest() throws Exception {
+		when(albumService.getSnapshotAsync(null)).thenReturn(completed(emptySnapshot()));
+
+		perform(get("/albums").param("fields", "id,unknown")).andExpect(status().isBadRequest());
+		perform(get("/albums").param("size", "0")).andExpect(status().isBadRequest());
+		perform(get("/albums").param("page", "-1")).andExpect(status().isBadRequest());
+	}
+
+	// Prueba del endpoint GET /albums en modo streaming NDJSON
+	@Test
+	void testGetAlbumsNdjson() throws Exception {
+		List<AlbumView> albums = List.of(new AlbumView(1L, 1L, "A"), new AlbumView(2L, 1L, "B"));
+		when(albumService.getSnapshotAsync(null)).thenReturn(completed(
+				new EnrichedSnapshotFactory(new ObjectMapper()).create(albums, Collections.emptyMap())));
+
+		perform(get("/albums").header(HttpHeaders.ACCEPT, "application/x-ndjson")).andExpect(status().isOk())
+				.andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+				.andExpect(content().string("{\"id\":1,\"userId\":1,\"title\":\"A\",\"photos\":null}\n"
+						+ "{\"id\":2,\"userId\":1,\"title\":\"B\",\"photos\":null}\n")); // Un album por linea
+	}
+
+	// Prueba del endpoint PUT /albums/refresh en modo streaming NDJSON
+	@Test
+	void testRefreshAlbumsNdjson() throws Exception {
+		when(albumService.refreshSnapshotAsync()).thenReturn(completed(
+				new EnrichedSnapshotFactory(new ObjectMapper()).create(List.of(new AlbumView(1L, 1L, "A")), Collections.emptyMap())));
+
+		perform(put("/albums/refresh").header(HttpHeaders.ACCEPT, "application/x-ndjson")).andExpect(status().isOk())
+				.andExpect(content().string("{\"id\":1,\"userId\":1,\"title\":\"A\",\"photos\":null}\n"));
+	}
+
 	// Prueba para el endpoint PUT /albums/refresh
 	@Test
 	void testRefreshAlbums() throws Exception {
 		// Configura el mock del servicio para devolver una lista vacía
-		when(albumService.refreshAlbums()).thenReturn(Collections.emptyList());
+		when(albumService.refreshSnapshotAsync()).thenReturn(completed(emptySnapshot()));
 
 		// Realiza una solicitud PUT a /albums/refresh y verifica el resultado
-		mockMvc.perform(put("/albums/refresh")).andExpect(status().isOk()) // Verifica que el estado de la respuesta sea
+		perform(put("/albums/refresh")).andExpect(status().isOk()) // Verifica que el estado de la respuesta sea
 																			// 200 OK
 				.andExpect(jsonPath("$").isArray()) // Verifica que la respuesta sea un array JSON
 				.andExpect(jsonPath("$").isEmpty()); // Verifica que el array JSON esté vacío
@@ -72,12 +252,101 @@ public class AlbumControllerTest {
 	@Test
 	void testRefreshAndSaveAlbums() throws Exception {
 		// Configura el mock del servicio para devolver una lista vacía
-		when(albumService.refreshAlbumsAndSave()).thenReturn(Collections.emptyList());
+		when(albumService.refreshAlbumsAndSaveAsync()).thenReturn(CompletableFuture.completedFuture(Collections.emptyList()));
 
 		// Realiza una solicitud PUT a /albums/refresh-and-save y verifica el resultado
-		mockMvc.perform(put("/albums/refresh-and-save")).andExpect(status().isOk()) // Verifica que el estado de la
+		perform(put("/albums/refresh-and-save")).andExpect(status().isOk()) // Verifica que el estado de la
 																					// respuesta sea 200 OK
 				.andExpect(jsonPath("$").isArray()) // Verifica que la respuesta sea un array JSON
 				.andExpect(jsonPath("$").isEmpty()); // Verifica que el array JSON esté vacío
 	}
+
+	// Prueba del modo trabajo de PUT /albums/refresh-and-save: 202 con la URL del trabajo
+	@Test
+	void testRefreshAndSaveJob() throws Exception {
+		RefreshJobStatus job = new RefreshJobStatus("job-1", RefreshJobStatus.Phase.FETCHING, Instant.now(), null, 0,
+				0, 0, 0, List.of());
+		when(refreshJobService.start()).thenReturn(job);
+		when(refreshJobService.getStatus("job-1")).thenReturn(job);
+
+		perform(put("/albums/refresh-and-save").param("async", "true")).andExpect(status().isAccepted())
+				.andExpect(header().string(HttpHeaders.LOCATION, "/albums/jobs/job-1"))
+				.andExpect(jsonPath("$.id").value("job-1"));
+		perform(get("/albums/jobs/job-1")).andExpect(status().isOk()).andExpect(jsonPath("$.phase").value("FETCHING"));
+		perform(get("/albums/jobs/unknown")).andExpect(status().isNotFound());
+	}
+
+	// Prueba del endpoint GET /albums/search y de la validacion de sus parametros
+	@Test
+	void testSearchAlbums() throws Exception {
+		SearchResult result = new SearchResult("sunt", 5,
+				List.of(new SearchHit(SearchHit.TYPE_PHOTO, 10L, 2L, "sunt qui", 2)));
+		when(albumSearchService.search("sunt", 5)).thenReturn(CompletableFuture.completedFuture(result));
+
+		perform(get("/albums/search").param("q", "sunt").param("limit", "5")).andExpect(status().isOk())
+				.andExpect(jsonPath("$.hits[0].type").value("photo"))
+				.andExpect(jsonPath("$.hits[0].albumId").value(2));
+		perform(get("/albums/search").param("q", " ")).andExpect(status().isBadRequest());
+		perform(get("/albums/search").param("q", "sunt").param("limit", "0")).andExpect(status().isBadRequest());
+	}
+
+	// Prueba de un timeout del upstream, que se traduce en 504
+	@Test
+	void testUpstreamTimeoutIsGatewayTimeout() throws Exception {
+		when(albumService.getSnapshotAsync(null))
+				.thenReturn(CompletableFuture.failedFuture(new HttpTimeoutException("request timed out")));
+
+		perform(get("/albums")).andExpect(status().isGatewayTimeout());
+	}
+
+	// Prueba de un estado de error del upstream, que se traduce en 502
+	@Test
+	void testUpstreamErrorStatusIsBadGateway() throws Exception {
+		when(albumService.getSnapshotAsync(null)).thenReturn(CompletableFuture.failedFuture(
+				new CompletionException(new UpstreamStatusException(AlbumPhotoConstants.ERROR_FETCH_ALBUMS, 500))));
+
+		perform(get("/albums")).andExpect(status().isBadGateway());
+	}
+
+	// Un fallo interno que no viene del upstream no se traduce en 502: llega sin
+	// tratar al contenedor, que responde 500
+	@Test
+	void testInternalStateErrorIsNotBadGateway() {
+		when(albumService.getSnapshotAsync(null)).thenReturn(
+				CompletableFuture.failedFuture(new CompletionException(new IllegalStateException("unexpected state"))));
+
+		ServletException e = assertThrows(ServletException.class, () -> perform(get("/albums")));
+		assertInstanceOf(IllegalStateException.class, e.getRootCause());
+	}
+
+	// Prueba de una tarea rechazada por el executor, que se traduce en 503
+	@Test
+	void testRejectedTaskIsServiceUnavailable() throws Exception {
+		when(albumService.getSnapshotAsync(null))
+				.thenReturn(CompletableFuture.failedFuture(new RejectedExecutionException("queue full")));
+
+		perform(get("/albums")).andExpect(status().isServiceUnavailable());
+	}
+
+	/**
+	 * Ejecuta la peticion y, si el controlador responde de forma asincrona,
+	 * completa los despachos asincronos hasta obtener la respuesta final.
+	 */
+	private ResultActions perform(RequestBuilder requestBuilder) throws Exception {
+		ResultActions actions = mockMvc.perform(requestBuilder);
+		MvcResult result = actions.andReturn();
+		while (result.getRequest().isAsyncStarted()) {
+			actions = mockMvc.perform(asyncDispatch(result));
+			result = actions.andReturn();
+		}
+		return actions;
+	}
+
+	private static CompletableFuture<EnrichedSnapshot> completed(EnrichedSnapshot snapshot) {
+		return CompletableFuture.completedFuture(snapshot);
+	}
+
+	private EnrichedSnapshot emptySnapshot() {
+		return new EnrichedSnapshotFactory(new ObjectMapper()).create(Collections.emptyList(), Collections.emptyMap());
+	}
 }
@@ -0,0 +1,155 @@
+package com.example.albumphotoenrichment.factory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ExecutorServiceFactoryTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	// Prueba de que cada modo ejecuta tareas y registra sus tiempos
+	@ParameterizedTest
+	@ValueSource(strings = { ExecutorServiceFactory.MODE_VIRTUAL, ExecutorServiceFactory.MODE_BOUNDED,
+			ExecutorServiceFactory.MODE_FORK_JOIN })
+	void testModes(String mode) {
+		ExecutorServiceFactory factory = newFactory(mode);
+		try {
+			String thread = CompletableFuture.supplyAsync(() -> Thread.currentThread().getName(),
+					factory.createExecutorService()).join();
+			CompletableFuture.runAsync(() -> {
+			}, factory.createComputeExecutorService()).join();
+
+			assertNotNull(thread);
+			// Tiempo de ejecucion y de espera de las tareas (se registran justo despues de
+			// completar el futuro)
+			assertEquals(1, awaitCount("executor", "album.io"));
+			assertEquals(1, awaitCount("executor.idle", "album.io"));
+			assertEquals(1, awaitCount("executor", "album.compute"));
+		} finally {
+			factory.shutdown();
+		}
+	}
+
+	// Prueba de las metricas del pool acotado
+	@Test
+	void testBoundedPoolMetrics() {
+		ExecutorServiceFactory factory = newFactory(ExecutorServiceFactory.MODE_BOUNDED);
+		try {
+			assertNotNull(meterRegistry.get("executor.active").tag("name", "album.io").gauge());
+			assertNotNull(meterRegistry.get("executor.queued").tag("name", "album.io").gauge());
+		} finally {
+			factory.shutdown();
+		}
+	}
+
+	// Prueba de las metricas del executor de hilos virtuales, que Micrometer no sabe
+	// medir: tareas en curso y terminadas
+	@Test
+	void testVirtualMetrics() {
+		ExecutorServiceFactory factory = newFactory(ExecutorServiceFactory.MODE_VIRTUAL);
+		try {
+			CountDownLatch release = new CountDownLatch(1);
+			CompletableFuture<Void> running = CompletableFuture.runAsync(() -> await(release),
+					factory.createExecutorService());
+
+			assertEquals(1, meterRegistry.get("executor.active").tag("name", "album.io").gauge().value());
+			release.countDown();
+			running.join();
+			assertEquals(1, awaitCount("executor", "album.io"));
+			assertEquals(0, meterRegistry.get("executor.active").tag("name", "album.io").gauge().value());
+			assertEquals(1, meterRegistry.get("executor.completed").tag("name", "album.io").counter().count());
+		} finally {
+			factory.shutdown();
+		}
+	}
+
+	// Prueba de que el pool acotado rechaza las tareas con la cola llena en lugar de
+	// ejecutarlas en el hilo que las envia
+	@Test
+	void testBoundedPoolRejectsWhenFull() {
+		ExecutorServiceFactory factory = new ExecutorServiceFactory(meterRegistry, ExecutorServiceFactory.MODE_BOUNDED, 1,
+				1, ExecutorServiceFactory.MODE_BOUNDED, 1, 1, 5000);
+		ExecutorService executor = factory.createExecutorService();
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			executor.execute(() -> await(release)); // Ocupa el unico hilo
+			executor.execute(() -> {
+			}); // Llena la cola
+
+			assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {
+			}));
+		} finally {
+			release.countDown();
+			factory.shutdown();
+		}
+	}
+
+	// Prueba del cierre ordenado: las tareas en curso terminan y no se aceptan mas
+	@Test
+	void testShutdown() {
+		ExecutorServiceFactory factory = newFactory(ExecutorServiceFactory.MODE_BOUNDED);
+		ExecutorService executor = factory.createExecutorService();
+		CompletableFuture<Void> running = CompletableFuture.runAsync(() -> sleep(100), executor);
+
+		factory.shutdown();
+
+		assertTrue(running.isDone());
+		assertTrue(executor.isShutdown());
+	}
+
+	// Prueba de que el ForkJoinPool comun no se cierra
+	@Test
+	void testShutdownKeepsCommonPool() {
+		newFactory(ExecutorServiceFactory.MODE_FORK_JOIN).shutdown();
+
+		assertFalse(ForkJoinPool.commonPool().isShutdown());
+	}
+
+	// Prueba de un modo desconocido
+	@Test
+	void testUnknownMode() {
+		assertThrows(IllegalArgumentException.class, () -> newFactory("unknown"));
+	}
+
+	private ExecutorServiceFactory newFactory(String mode) {
+		return new ExecutorServiceFactory(meterRegistry, mode, 2, 10, mode, 2, 10, 5000);
+	}
+
+	private long awaitCount(String timer, String name) {
+		for (int i = 0; i < 100 && meterRegistry.get(timer).tag("name", name).timer().count() == 0; i++) {
+			sleep(10);
+		}
+		return meterRegistry.get(timer).tag("name", name).timer().count();
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
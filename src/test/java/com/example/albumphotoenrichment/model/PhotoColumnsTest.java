@@ -0,0 +1,118 @@
+package com.example.albumphotoenrichment.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class PhotoColumnsTest {
+
+	// Las fotos se agrupan por album conservando el orden de llegada de cada album
+	@Test
+	void testGroupsPhotosByAlbumInArrivalOrder() {
+		PhotoColumns columns = PhotoColumns.builder().add(new PhotoView(3L, 2L, "Photo3", "url3", "thumb3"))
+				.add(new PhotoView(1L, 1L, "Photo1", "url1", "thumb1")).add(new PhotoView(2L, 2L, "Photo2", "url2", "thumb2"))
+				.add(new PhotoView(4L, null, "Photo4", "url4", "thumb4")).build();
+
+		assertEquals(2, columns.size());
+		assertEquals(3, columns.getPhotoCount());
+		assertEquals(List.of(3L, 2L), columns.get(2L).stream().map(PhotoView::id).toList());
+		PhotoView photo = columns.getPhotos(1L).get(0);
+		assertEquals(1L, photo.albumId());
+		assertEquals("Photo1", photo.title());
+		assertEquals("url1", photo.url());
+		assertEquals("thumb1", photo.thumbnailUrl());
+		assertNull(columns.get(3L));
+		assertEquals(List.of(1L, 2L), columns.keySet().stream().toList());
+	}
+
+	// La lista de cada album es siempre la misma vista y no se puede modificar
+	@Test
+	void testAlbumViewsAreStableAndReadOnly() {
+		PhotoColumns columns = PhotoColumns.builder().add(new PhotoView(1L, 1L, "Photo1", "url1", "thumb1")).addAlbum(5L)
+				.build();
+
+		assertSame(columns.get(1L), columns.get(1L));
+		assertTrue(columns.get(5L).isEmpty());
+		assertThrows(UnsupportedOperationException.class,
+				() -> columns.get(1L).add(new PhotoView(2L, 1L, "Photo2", "url2", "thumb2")));
+	}
+
+	// El modelo de lectura comparte las vistas de las columnas y copia las listas
+	// mutables, de forma que un album publicado no puede cambiar
+	@Test
+	void testAlbumViewCopiesOnlyMutablePhotoLists() {
+		PhotoColumns columns = PhotoColumns.builder().add(new PhotoView(1L, 1L, "Photo1", "url1", "thumb1")).build();
+		List<PhotoView> mutable = new ArrayList<>(columns.get(1L));
+
+		AlbumView shared = new AlbumView(1L, 1L, "Album1").withPhotos(columns.get(1L));
+		AlbumView copied = new AlbumView(1L, 1L, "Album1").withPhotos(mutable);
+		mutable.clear();
+
+		assertSame(columns.get(1L), shared.photos());
+		assertEquals(1, copied.photos().size());
+		assertThrows(UnsupportedOperationException.class, () -> copied.photos().clear());
+	}
+
+	// Las URLs se guardan con el diccionario de prefijos y se serializan igual
+	// que las fotos normales, incluidas las nulas y las que necesitan escapado
+	@Test
+	void testUrlDictionaryRoundTripAndJson() throws Exception {
+		List<PhotoView> photos = List.of(
+				new PhotoView(1L, 1L, "Photo1", "https://via.placeholder.com/600/92c952",
+						"https://via.placeholder.com/150/92c952"),
+				new PhotoView(2L, 1L, "Photo \"2\"", "https://via.placeholder.com/600/771796", null),
+				new PhotoView(null, 1L, null, "sin-barra-\u00f1", "https://via.placeholder.com/150/\"q\""));
+		PhotoColumns.Builder builder = PhotoColumns.builder();
+		photos.forEach(builder::add);
+		PhotoColumns columns = builder.build();
+		ObjectMapper objectMapper = new ObjectMapper();
+
+		List<PhotoView> view = columns.get(1L);
+		for (int i = 0; i < photos.size(); i++) {
+			assertEquals(photos.get(i).url(), view.get(i).url());
+			assertEquals(photos.get(i).thumbnailUrl(), view.get(i).thumbnailUrl());
+		}
+		assertEquals(objectMapper.writeValueAsString(photos), objectMapper.writeValueAsString(view));
+		assertEquals(objectMapper.writeValueAsString(photos),
+				new String(objectMapper.writeValueAsBytes(view), StandardCharsets.UTF_8));
+		assertEquals(objectMapper.writeValueAsString(new ArrayList<>(view)), objectMapper.writeValueAsString(view));
+		assertTrue(columns.getUrlMemory() < columns.getPlainUrlMemory());
+	}
+
+	// Copiar albumes de otros almacenes conserva las columnas y el orden de las
+	// paginas, y la comparacion entre vistas de columnas equivale a la de listas
+	@Test
+	void testAddAlbumCopiesColumnsAndComparesContent() {
+		PhotoColumns first = PhotoColumns.builder()
+				.add(new PhotoView(1L, 1L, "Photo1", "https://via.placeholder.com/600/1", "https://via.placeholder.com/150/1"))
+				.add(new PhotoView(2L, 2L, "Photo2", "https://via.placeholder.com/600/2", null)).build();
+		PhotoColumns second = PhotoColumns.builder()
+				.add(new PhotoView(3L, 2L, "Photo3", "sin-barra", "https://via.placeholder.com/150/3")).addAlbum(4L)
+				.build();
+
+		PhotoColumns merged = PhotoColumns.builder().addAll(first).addAll(second).build();
+
+		assertEquals(3, merged.size());
+		assertEquals(List.of(2L, 3L), merged.get(2L).stream().map(PhotoView::id).toList());
+		assertTrue(merged.get(4L).isEmpty());
+		assertEquals(first.get(1L), merged.get(1L));
+		assertEquals(new ArrayList<>(merged.get(2L)), merged.get(2L));
+		assertEquals(merged.get(2L), new ArrayList<>(merged.get(2L)));
+		assertNotEquals(first.get(2L), merged.get(2L));
+		assertNotEquals(first.get(1L), PhotoColumns.builder()
+				.add(new PhotoView(1L, 1L, "Photo1", "https://via.placeholder.com/600/1", "https://via.placeholder.com/150/9"))
+				.build().get(1L));
+		assertEquals(new ArrayList<>(merged.get(2L)).hashCode(), merged.get(2L).hashCode());
+	}
+}
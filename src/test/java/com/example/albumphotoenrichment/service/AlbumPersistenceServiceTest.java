@@ -0,0 +1,208 @@
+package com.example.albumphotoenrichment.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.example.albumphotoenrichment.model.Album;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.PersistenceDelta;
+import com.example.albumphotoenrichment.model.Photo;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.example.albumphotoenrichment.repository.AlbumBulkRepository;
+import com.example.albumphotoenrichment.repository.AlbumRepository;
+
+import jakarta.persistence.EntityManager;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Import({ AlbumPersistenceService.class, AlbumBulkRepository.class, AlbumPersistenceServiceTest.MetricsConfig.class })
+public class AlbumPersistenceServiceTest {
+
+	@Autowired
+	private AlbumPersistenceService albumPersistenceService;
+
+	@Autowired
+	private AlbumRepository albumRepository;
+
+	@Autowired
+	private AlbumBulkRepository albumBulkRepository;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	// La primera instantanea se inserta completa
+	@Test
+	void testFirstSnapshotIsInserted() {
+		PersistenceDelta delta = albumPersistenceService.persist(snapshot("Album1", "Photo1"));
+
+		assertEquals(new PersistenceDelta(2, 0, 0, 3, 0, 0), delta);
+		assertEquals(2, reload().size());
+	}
+
+	// Guardar la misma instantanea otra vez no escribe nada
+	@Test
+	void testUnchangedSnapshotWritesNothing() {
+		albumPersistenceService.persist(snapshot("Album1", "Photo1"));
+		flushAndClear();
+
+		PersistenceDelta delta = albumPersistenceService.persist(snapshot("Album1", "Photo1"));
+
+		assertTrue(delta.isEmpty());
+	}
+
+	// Solo se escriben los albumes y fotos modificados, nuevos o eliminados
+	@Test
+	void testOnlyChangesAreWritten() {
+		albumPersistenceService.persist(snapshot("Album1", "Photo1"));
+		flushAndClear();
+
+		List<AlbumView> changed = snapshot("Album1 editado", "Photo1 editada");
+		List<PhotoView> photos = new ArrayList<>(changed.get(1).photos());
+		photos.remove(1); // Se elimina la foto 3
+		photos.add(new PhotoView(4L, 2L, "Photo4", "url4", "thumbnail4"));
+		changed.set(1, changed.get(1).withPhotos(photos));
+		PersistenceDelta delta = albumPersistenceService.persist(changed);
+		flushAndClear();
+
+		assertEquals(new PersistenceDelta(0, 1, 0, 1, 1, 1), delta);
+		List<Album> stored = reload();
+		assertEquals("Album1 editado", stored.get(0).getTitle());
+		assertEquals("Photo1 editada", stored.get(0).getPhotos().get(0).getTitle());
+		assertEquals(List.of(2L, 4L), stored.get(1).getPhotos().stream().map(Photo::getId).sorted().toList());
+	}
+
+	// Los albumes que desaparecen del upstream se eliminan con sus fotos
+	@Test
+	void testMissingAlbumIsDeleted() {
+		albumPersistenceService.persist(snapshot("Album1", "Photo1"));
+		flushAndClear();
+
+		PersistenceDelta delta = albumPersistenceService.persist(snapshot("Album1", "Photo1").subList(0, 1));
+		flushAndClear();
+
+		assertEquals(new PersistenceDelta(0, 0, 1, 0, 0, 2), delta);
+		assertEquals(1, reload().size());
+	}
+
+	// La lectura carga albumes y fotos con dos consultas, sin una por album
+	@Test
+	void testLoadAlbumsUsesTwoQueries() {
+		albumPersistenceService.persist(snapshot("Album1", "Photo1"));
+		flushAndClear();
+		Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+		statistics.clear();
+
+		List<AlbumView> albums = albumPersistenceService.loadAlbums();
+
+		assertEquals(2, statistics.getPrepareStatementCount());
+		assertEquals(List.of(1L, 2L), albums.stream().map(AlbumView::id).toList());
+		assertEquals(List.of(2L, 3L), albums.get(1).photos().stream().map(PhotoView::id).toList());
+		assertEquals("Photo1", albums.get(0).photos().get(0).title());
+	}
+
+	// La carga masiva escribe en particiones paralelas, cada una en su transaccion
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void testBulkModeMergesAndDeletes() {
+		// Lotes de 2 filas y 2 particiones para ejercitar los lotes incompletos
+		AlbumPersistenceService bulk = new AlbumPersistenceService(albumRepository, albumBulkRepository, entityManager,
+				transactionManager, meterRegistry, AlbumPersistenceService.MODE_BULK, 2, 2);
+		try {
+			PersistenceDelta first = bulk.persist(snapshot("Album1", "Photo1"));
+			assertEquals(new PersistenceDelta(2, 0, 0, 3, 0, 0), first);
+
+			List<AlbumView> changed = snapshot("Album1 editado", "Photo1 editada").subList(0, 1);
+			PersistenceDelta second = bulk.persist(changed);
+			assertEquals(new PersistenceDelta(0, 1, 1, 0, 1, 2), second);
+
+			List<Album> stored = reload();
+			assertEquals(1, stored.size());
+			assertEquals("Album1 editado", stored.get(0).getTitle());
+			assertEquals("Photo1 editada", stored.get(0).getPhotos().get(0).getTitle());
+		} finally {
+			albumRepository.deleteAll();
+		}
+	}
+
+	// Si una particion de fotos falla la carga queda parcial: los albumes y las
+	// demas particiones se confirman, no se borra nada y el siguiente guardado la
+	// completa
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void testBulkModeFailedPartitionLeavesPartialLoad() {
+		AlbumBulkRepository failing = spy(albumBulkRepository);
+		doThrow(new IllegalStateException("partition failed")).when(failing)
+				.mergePhotos(argThat(photos -> photos.stream().anyMatch(photo -> photo.id() == 3L)), anyInt());
+		AlbumPersistenceService bulk = new AlbumPersistenceService(albumRepository, failing, entityManager,
+				transactionManager, meterRegistry, AlbumPersistenceService.MODE_BULK, 2, 2);
+		AlbumPersistenceService retry = new AlbumPersistenceService(albumRepository, albumBulkRepository,
+				entityManager, transactionManager, meterRegistry, AlbumPersistenceService.MODE_BULK, 2, 2);
+		try {
+			assertThrows(CompletionException.class, () -> bulk.persist(snapshot("Album1", "Photo1")));
+			assertEquals(Set.of(1L, 2L), albumBulkRepository.findAlbumIds());
+			assertEquals(Set.of(1L, 2L), albumBulkRepository.findPhotoIds());
+
+			PersistenceDelta delta = retry.persist(snapshot("Album1", "Photo1"));
+			assertEquals(new PersistenceDelta(0, 2, 0, 1, 2, 0), delta);
+			assertEquals(Set.of(1L, 2L, 3L), albumBulkRepository.findPhotoIds());
+		} finally {
+			albumRepository.deleteAll();
+		}
+	}
+
+	private List<AlbumView> snapshot(String firstAlbumTitle, String firstPhotoTitle) {
+		AlbumView album1 = new AlbumView(1L, 1L, firstAlbumTitle,
+				List.of(new PhotoView(1L, 1L, firstPhotoTitle, "url1", "thumbnail1")));
+		AlbumView album2 = new AlbumView(2L, 1L, "Album2", List.of(new PhotoView(2L, 2L, "Photo2", "url2", "thumbnail2"),
+				new PhotoView(3L, 2L, "Photo3", "url3", "thumbnail3")));
+		return new ArrayList<>(List.of(album1, album2));
+	}
+
+	private List<Album> reload() {
+		return albumRepository.findAllWithPhotos().stream()
+				.sorted((a, b) -> Long.compare(a.getId(), b.getId())).toList();
+	}
+
+	private void flushAndClear() {
+		entityManager.flush();
+		entityManager.clear();
+	}
+
+	@TestConfiguration
+	static class MetricsConfig {
+		@Bean
+		MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+	}
+}
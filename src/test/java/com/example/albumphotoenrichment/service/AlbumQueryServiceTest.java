@@ -0,0 +1,105 @@
+package com.example.albumphotoenrichment.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.example.albumphotoenrichment.factory.EnrichedSnapshotFactory;
+import com.example.albumphotoenrichment.model.AlbumPage;
+import com.example.albumphotoenrichment.model.AlbumQuery;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class AlbumQueryServiceTest {
+
+	private AlbumQueryService albumQueryService;
+
+	private EnrichedSnapshot snapshot;
+
+	// Instantanea con 10 albumes desordenados: los pares del usuario 1 y los
+	// impares del usuario 2
+	@BeforeEach
+	void setUp() {
+		ObjectMapper objectMapper = new ObjectMapper();
+		albumQueryService = new AlbumQueryService(objectMapper, new SimpleMeterRegistry());
+		List<AlbumView> albums = new ArrayList<>();
+		for (long id = 10; id >= 1; id--) {
+			albums.add(new AlbumView(id, id % 2 == 0 ? 1L : 2L, "Album " + id));
+		}
+		snapshot = new EnrichedSnapshotFactory(objectMapper).create(albums, Collections.emptyMap());
+	}
+
+	// Prueba de paginacion por numero de pagina, ordenada por id
+	@Test
+	void testQueryByPage() {
+		AlbumPage page = albumQueryService.query(snapshot, query(null, 1, 3, null));
+
+		assertEquals(10, page.total());
+		assertEquals(List.of(4L, 5L, 6L), ids(page));
+		assertEquals(6L, page.nextCursor());
+	}
+
+	// Prueba de paginacion por cursor recorriendo todas las paginas
+	@Test
+	void testQueryByCursor() {
+		List<Long> seen = new ArrayList<>();
+		Long cursor = null;
+		do {
+			AlbumPage page = albumQueryService.query(snapshot, query(null, 0, 4, cursor));
+			seen.addAll(ids(page));
+			cursor = page.nextCursor();
+		} while (cursor != null);
+
+		assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L), seen);
+	}
+
+	// Prueba del filtro por usuario con el indice secundario
+	@Test
+	void testQueryByUserId() {
+		AlbumPage page = albumQueryService.query(snapshot, query(1L, 0, 20, null));
+
+		assertEquals(5, page.total());
+		assertEquals(List.of(2L, 4L, 6L, 8L, 10L), ids(page));
+		assertNull(page.nextCursor());
+	}
+
+	// Prueba de la proyeccion de campos
+	@Test
+	void testQueryProjection() {
+		AlbumPage page = albumQueryService.query(snapshot,
+				new AlbumQuery(null, 0, 1, null, Set.of("title"), AlbumQuery.PHOTO_FIELDS));
+
+		assertEquals("Album 1", page.items().get(0).get("title").asText());
+		assertFalse(page.items().get(0).has("id"));
+		assertFalse(page.items().get(0).has("photos"));
+	}
+
+	// Prueba de una pagina fuera de rango
+	@Test
+	void testQueryPageOutOfRange() {
+		AlbumPage page = albumQueryService.query(snapshot, query(null, 5, 5, null));
+
+		assertTrue(page.items().isEmpty());
+		assertNull(page.nextCursor());
+	}
+
+	private static AlbumQuery query(Long userId, int page, int size, Long cursor) {
+		return new AlbumQuery(userId, page, size, cursor, AlbumQuery.ALBUM_FIELDS, AlbumQuery.PHOTO_FIELDS);
+	}
+
+	private static List<Long> ids(AlbumPage page) {
+		return page.items().stream().map(item -> item.get("id").asLong()).toList();
+	}
+}
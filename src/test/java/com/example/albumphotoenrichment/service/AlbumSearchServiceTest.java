@@ -0,0 +1,182 @@
+package com.example.albumphotoenrichment.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.example.albumphotoenrichment.factory.EnrichedSnapshotFactory;
+import com.example.albumphotoenrichment.factory.ExecutorServiceFactory;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.example.albumphotoenrichment.model.SearchHit;
+import com.example.albumphotoenrichment.model.SearchResult;
+import com.example.albumphotoenrichment.model.SnapshotPublishedEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class AlbumSearchServiceTest {
+
+	private final EnrichedSnapshotFactory factory = new EnrichedSnapshotFactory(new ObjectMapper());
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final ExecutorService computeExecutor = Executors.newSingleThreadExecutor();
+
+	@AfterEach
+	void tearDown() {
+		computeExecutor.shutdownNow();
+	}
+
+	// Los terminos exactos puntuan mas que los parciales y a igual puntuacion los
+	// albumes van antes que las fotos
+	@Test
+	void testSearchRanksExactMatchesFirst() {
+		AlbumSearchService service = newService(snapshot());
+
+		SearchResult result = service.search("Sunt", 10).join();
+
+		assertEquals(List.of("album:2:2", "photo:20:2", "photo:10:1"), describe(result.hits()));
+		assertEquals(1, meterRegistry.timer("album.phase", "phase", "search").count());
+	}
+
+	// Todos los terminos deben coincidir; los acentos y mayusculas se ignoran
+	@Test
+	void testSearchRequiresAllTerms() {
+		AlbumSearchService service = newService(snapshot());
+
+		assertEquals(List.of("album:2:4", "photo:20:4"), describe(service.search("QUI súnt", 10).join().hits()));
+		assertEquals(List.of("album:1:2"), describe(service.search("accusamus", 10).join().hits()));
+		assertTrue(service.search("sunt nada", 10).join().hits().isEmpty());
+		// Los terminos de menos de 3 caracteres solo coinciden con palabras completas
+		assertTrue(service.search("su", 10).join().hits().isEmpty());
+	}
+
+	// El limite recorta los resultados conservando los mejores
+	@Test
+	void testSearchLimit() {
+		AlbumSearchService service = newService(snapshot());
+
+		assertEquals(List.of("album:2:2"), describe(service.search("sunt", 1).join().hits()));
+		assertEquals(List.of("album:2:2", "photo:20:2"), describe(service.search("sunt", 2).join().hits()));
+	}
+
+	// Al indexar una nueva instantanea solo se reconstruyen los segmentos cuyos
+	// titulos han cambiado
+	@Test
+	void testIndexReusesUnchangedSegments() {
+		List<AlbumView> albums = new ArrayList<>();
+		for (long id = 1; id <= 10; id++) {
+			albums.add(new AlbumView(id, 1L, "album " + id));
+		}
+		Map<Long, List<PhotoView>> photos = Map.of(9L, List.of(new PhotoView(90L, 9L, "quidem", "url", "thumb")));
+		TitleIndex first = TitleIndex.build(factory.create(albums, photos), null, 4, 64, Runnable::run).join();
+
+		albums.set(9, new AlbumView(10L, 1L, "quidem molestiae"));
+		TitleIndex second = TitleIndex.build(factory.create(albums, photos), first, 4, 64, Runnable::run).join();
+
+		assertEquals(3, second.getSegmentCount());
+		assertEquals(2, second.getReusedSegmentCount());
+		assertEquals(List.of("album:10:2", "photo:90:2"), describe(second.search("quidem", 10)));
+		assertEquals(List.of("album:10:1"), describe(second.search("molest", 10)));
+	}
+
+	// Las palabras que dejan de usarse se conservan hasta superar la proporcion
+	// maxima del vocabulario; entonces se compacta y las busquedas siguen igual
+	@Test
+	void testVocabularyIsCompactedWhenUnusedWordsGrow() {
+		List<AlbumView> albums = new ArrayList<>();
+		for (long id = 1; id <= 10; id++) {
+			albums.add(new AlbumView(id, 1L, "album " + id));
+		}
+		TitleIndex index = TitleIndex.build(factory.create(albums, Map.of()), null, 4, 64, Runnable::run).join();
+		int initialTokens = index.getTokenCount();
+
+		for (int version = 0; version < 20; version++) {
+			albums.set(9, new AlbumView(10L, 1L, "version" + version));
+			index = TitleIndex.build(factory.create(albums, Map.of()), index, 4, 64, Runnable::run).join();
+			assertEquals(2, index.getReusedSegmentCount());
+			assertTrue(index.getUnusedTokenCount() <= index.getTokenCount() * TitleIndex.MAX_UNUSED_RATIO);
+		}
+
+		assertTrue(index.getTokenCount() < initialTokens + 5, "tokens=" + index.getTokenCount());
+		assertEquals(List.of("album:10:2"), describe(index.search("version19", 10)));
+		assertTrue(index.search("version18", 10).isEmpty());
+		assertEquals(List.of("album:10:1"), describe(index.search("sion19", 10)));
+		assertEquals(List.of("album:3:4"), describe(index.search("album 3", 10)));
+	}
+
+	// Sin indice las busquedas concurrentes comparten una unica construccion
+	@Test
+	void testConcurrentFirstSearchesShareOneIndex() {
+		CompletableFuture<EnrichedSnapshot> snapshot = new CompletableFuture<>();
+		AlbumService albumService = mock(AlbumService.class);
+		when(albumService.getSnapshotAsync()).thenReturn(snapshot);
+		AlbumSearchService service = newService(albumService);
+
+		CompletableFuture<SearchResult> first = service.search("sunt", 10);
+		CompletableFuture<SearchResult> second = service.search("qui", 10);
+		snapshot.complete(snapshot());
+
+		assertEquals(3, first.join().hits().size());
+		assertEquals(2, second.join().hits().size());
+		verify(albumService, times(1)).getSnapshotAsync();
+		assertEquals(1, meterRegistry.timer("album.phase", "phase", "index").count());
+	}
+
+	// Si la construccion del indice falla de forma sincrona, las instantaneas
+	// siguientes se siguen indexando
+	@Test
+	void testIndexingContinuesAfterSynchronousFailure() throws Exception {
+		AlbumSearchService service = newService(mock(AlbumService.class));
+		EnrichedSnapshot broken = mock(EnrichedSnapshot.class);
+		when(broken.getAlbumsSortedById()).thenThrow(new NullPointerException("albums"));
+
+		service.onSnapshotPublished(new SnapshotPublishedEvent(broken));
+		computeExecutor.submit(() -> {
+		}).get(); // Espera a que termine el primer intento
+		service.onSnapshotPublished(new SnapshotPublishedEvent(snapshot()));
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (meterRegistry.timer("album.phase", "phase", "index").count() == 0
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(3, service.search("sunt", 10).join().hits().size());
+	}
+
+	private AlbumSearchService newService(EnrichedSnapshot snapshot) {
+		AlbumService albumService = mock(AlbumService.class);
+		when(albumService.getSnapshotAsync()).thenReturn(CompletableFuture.completedFuture(snapshot));
+		return newService(albumService);
+	}
+
+	private AlbumSearchService newService(AlbumService albumService) {
+		ExecutorServiceFactory executorServiceFactory = mock(ExecutorServiceFactory.class);
+		when(executorServiceFactory.createComputeExecutorService()).thenReturn(computeExecutor);
+		return new AlbumSearchService(albumService, executorServiceFactory, meterRegistry, 256, 64);
+	}
+
+	private EnrichedSnapshot snapshot() {
+		return factory.create(
+				List.of(new AlbumView(1L, 1L, "accusamus beatae"), new AlbumView(2L, 1L, "sunt qui excepturi")),
+				Map.of(1L, List.of(new PhotoView(10L, 1L, "consuntur", "url", "thumb")), 2L,
+						List.of(new PhotoView(20L, 2L, "Qui sunt", "url", "thumb"))));
+	}
+
+	private static List<String> describe(List<SearchHit> hits) {
+		return hits.stream().map(hit -> hit.type() + ":" + hit.id() + ":" + hit.score()).toList();
+	}
+}
@@ -11,7 +11,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
 
-import com.example.albumphotoenrichment.model.Album;
+import com.example.albumphotoenrichment.model.AlbumView;
 
 @SpringBootTest
 @ActiveProfiles("test")
@@ -25,7 +25,7 @@ public class AlbumServiceIntegrationTest {
 	@Test
 	void testFetchAlbums() {
 		// Llama al método enrichAlbums() para obtener la lista de álbumes enriquecidos
-		List<Album> albums = albumService.enrichAlbums();
+		List<AlbumView> albums = albumService.enrichAlbums();
 
 		// Verifica que la lista de álbumes no sea nula
 		assertNotNull(albums);
@@ -40,7 +40,7 @@ public class AlbumServiceIntegrationTest {
 	void testEnrichAlbumsAndSave() {
 		// Llama al método enrichAlbumsAndSave() para obtener y guardar la lista de
 		// álbumes enriquecidos
-		List<Album> albums = albumService.enrichAlbumsAndSave();
+		List<AlbumView> albums = albumService.enrichAlbumsAndSave();
 
 		// Verifica que la lista de álbumes no sea nula
 		assertNotNull(albums);
@@ -49,6 +49,6 @@ public class AlbumServiceIntegrationTest {
 		assertFalse(albums.isEmpty());
 
 		// Verifica que el primer álbum de la lista contenga al menos una foto
-		assertTrue(albums.get(0).getPhotos().size() > 0);
+		assertTrue(albums.get(0).photos().size() > 0);
 	}
 }
@@ -1,111 +1,348 @@
 package com.example.albumphotoenrichment.service;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.context.ApplicationEventPublisher;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.example.albumphotoenrichment.cache.AlbumDetailCache;
+import com.example.albumphotoenrichment.cache.UpstreamSnapshotCache;
+import com.example.albumphotoenrichment.config.CacheConfig;
 import com.example.albumphotoenrichment.constant.AlbumPhotoConstants;
+import com.example.albumphotoenrichment.factory.EnrichedSnapshotFactory;
 import com.example.albumphotoenrichment.factory.ExecutorServiceFactory;
-import com.example.albumphotoenrichment.factory.RestTemplateFactory;
-import com.example.albumphotoenrichment.model.Album;
-import com.example.albumphotoenrichment.model.Photo;
-import com.example.albumphotoenrichment.repository.AlbumRepository;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.example.albumphotoenrichment.model.PersistenceDelta;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.example.albumphotoenrichment.model.SnapshotPublishedEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class AlbumServiceTest {
 
 	@Mock
-	private RestTemplateFactory restTemplateFactory;
+	private UpstreamClient upstreamClient;
 
 	@Mock
-	private AlbumRepository albumRepository;
+	private AlbumPersistenceService albumPersistenceService;
 
 	@Mock
 	private ExecutorServiceFactory executorServiceFactory;
 
 	@Mock
-	private RestTemplate restTemplate;
+	private ApplicationEventPublisher eventPublisher;
 
-	@InjectMocks
 	private AlbumService albumService;
 
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
 	@BeforeEach
 	void setUp() {
 		// Inicializa los mocks
 		MockitoAnnotations.openMocks(this);
 
-		// Configura los mocks para devolver instancias simuladas de RestTemplate y
-		// ExecutorService
-		when(restTemplateFactory.createRestTemplate()).thenReturn(restTemplate);
-		when(executorServiceFactory.createExecutorService()).thenReturn(Executors.newFixedThreadPool(10));
+		// Configura el mock para devolver los executors de calculo y de E/S
+		when(executorServiceFactory.createComputeExecutorService()).thenReturn(Executors.newFixedThreadPool(2));
+		when(executorServiceFactory.createExecutorService()).thenReturn(Executors.newFixedThreadPool(2));
+
+		// Crea el servicio una vez configurados los mocks que usa su constructor
+		UpstreamSnapshotCache upstreamSnapshotCache = new UpstreamSnapshotCache(60000, 600000, meterRegistry);
+		albumService = new AlbumService(upstreamClient, albumPersistenceService, upstreamSnapshotCache,
+				albumDetailCache(), new EnrichedSnapshotFactory(new ObjectMapper()),
+				executorServiceFactory, eventPublisher, meterRegistry, AlbumPhotoConstants.READ_MODE_UPSTREAM);
 	}
 
 	@Test
 	void testFetchAlbums() throws Exception {
-		// Prepara los datos de prueba
-		Album[] albumsArray = { new Album(1L, 1L, "Album1"), new Album(2L, 2L, "Album2") };
-
-		// Configura el mock RestTemplate para devolver los datos de prueba
-		when(restTemplate.getForObject(AlbumPhotoConstants.ALBUMS_URL, Album[].class)).thenReturn(albumsArray);
+		// Configura el mock del cliente para devolver los datos de prueba
+		when(upstreamClient.fetchAlbums(any())).thenReturn(
+				CompletableFuture.completedFuture(List.of(new AlbumView(1L, 1L, "Album1"), new AlbumView(2L, 2L, "Album2"))));
 
 		// Llama al método fetchAlbumsAsync y espera a que se complete
-		CompletableFuture<List<Album>> albumsFuture = albumService.fetchAlbumsAsync();
-		List<Album> albums = albumsFuture.get();
+		CompletableFuture<List<AlbumView>> albumsFuture = albumService.fetchAlbumsAsync();
+		List<AlbumView> albums = albumsFuture.get();
 
 		// Verifica que los datos devueltos sean correctos
 		assertEquals(2, albums.size());
-		assertEquals(1L, albums.get(0).getId());
-		assertEquals("Album1", albums.get(0).getTitle());
+		assertEquals(1L, albums.get(0).id());
+		assertEquals("Album1", albums.get(0).title());
 	}
 
 	@Test
 	void testFetchPhotos() throws Exception {
-		// Prepara los datos de prueba
-		Photo[] photosArray = { new Photo(1L, 1L, "Photo1", "url1", "thumbnail1"),
-				new Photo(2L, 2L, "Photo2", "url2", "thumbnail2") };
-
-		// Configura el mock RestTemplate para devolver los datos de prueba
-		when(restTemplate.getForObject(AlbumPhotoConstants.PHOTOS_URL, Photo[].class)).thenReturn(photosArray);
+		// Configura el mock del cliente para devolver los datos de prueba
+		when(upstreamClient.fetchPhotosByAlbum(any()))
+				.thenReturn(CompletableFuture.completedFuture(Map.of(1L,
+						List.of(new PhotoView(1L, 1L, "Photo1", "url1", "thumbnail1")), 2L,
+						List.of(new PhotoView(2L, 2L, "Photo2", "url2", "thumbnail2")))));
 
 		// Llama al método fetchPhotosAsync y espera a que se complete
-		CompletableFuture<List<Photo>> photosFuture = albumService.fetchPhotosAsync();
-		List<Photo> photos = photosFuture.get();
+		CompletableFuture<Map<Long, List<PhotoView>>> photosFuture = albumService.fetchPhotosAsync();
+		Map<Long, List<PhotoView>> photosByAlbum = photosFuture.get();
 
 		// Verifica que los datos devueltos sean correctos
-		assertEquals(2, photos.size());
-		assertEquals(1L, photos.get(0).getId());
-		assertEquals("Photo1", photos.get(0).getTitle());
+		assertEquals(2, photosByAlbum.size());
+		assertEquals(1L, photosByAlbum.get(1L).get(0).id());
+		assertEquals("Photo1", photosByAlbum.get(1L).get(0).title());
 	}
 
 	@Test
 	void testEnrichAlbums() throws Exception {
 		// Prepara los datos de prueba
-		Album album1 = new Album(1L, 1L, "Album1");
-		Album album2 = new Album(2L, 2L, "Album2");
-		Photo photo1 = new Photo(1L, 1L, "Photo1", "url1", "thumbnail1");
-		Photo photo2 = new Photo(2L, 2L, "Photo2", "url2", "thumbnail2");
+		AlbumView album1 = new AlbumView(1L, 1L, "Album1");
+		AlbumView album2 = new AlbumView(2L, 2L, "Album2");
+		PhotoView photo1 = new PhotoView(1L, 1L, "Photo1", "url1", "thumbnail1");
+		PhotoView photo2 = new PhotoView(2L, 2L, "Photo2", "url2", "thumbnail2");
 
-		// Configura los mocks RestTemplate para devolver los datos de prueba
-		when(restTemplate.getForObject(AlbumPhotoConstants.ALBUMS_URL, Album[].class))
-				.thenReturn(new Album[] { album1, album2 });
-		when(restTemplate.getForObject(AlbumPhotoConstants.PHOTOS_URL, Photo[].class))
-				.thenReturn(new Photo[] { photo1, photo2 });
+		// Configura el mock del cliente para devolver los datos de prueba
+		when(upstreamClient.fetchAlbums(any())).thenReturn(CompletableFuture.completedFuture(List.of(album1, album2)));
+		when(upstreamClient.fetchPhotosByAlbum(any()))
+				.thenReturn(CompletableFuture.completedFuture(Map.of(1L, List.of(photo1), 2L, List.of(photo2))));
 
 		// Llama al método enrichAlbums
-		List<Album> enrichedAlbums = albumService.enrichAlbums();
+		List<AlbumView> enrichedAlbums = albumService.enrichAlbums();
 
 		// Verifica que los álbumes enriquecidos contengan las fotos correctas
 		assertEquals(2, enrichedAlbums.size());
-		assertEquals(1, enrichedAlbums.get(0).getPhotos().size());
-		assertEquals("Photo1", enrichedAlbums.get(0).getPhotos().get(0).getTitle());
+		assertEquals(1, enrichedAlbums.get(0).photos().size());
+		assertEquals("Photo1", enrichedAlbums.get(0).photos().get(0).title());
+	}
+
+	// La instantanea se reutiliza mientras los datos upstream no cambien
+	@Test
+	void testSnapshotIsReusedWhileUpstreamIsUnchanged() {
+		when(upstreamClient.fetchAlbums(any()))
+				.thenReturn(CompletableFuture.completedFuture(List.of(new AlbumView(1L, 1L, "Album1"))));
+		when(upstreamClient.fetchPhotosByAlbum(any()))
+				.thenReturn(CompletableFuture.completedFuture(
+						Map.of(1L, List.of(new PhotoView(1L, 1L, "Photo1", "url1", "thumbnail1")))));
+
+		EnrichedSnapshot first = albumService.getSnapshot();
+		EnrichedSnapshot second = albumService.getSnapshot();
+
+		assertSame(first, second);
+		assertTrue(new String(first.getJson()).contains("\"thumbnailUrl\":\"thumbnail1\""));
+		verify(eventPublisher, times(1)).publishEvent(new SnapshotPublishedEvent(first));
+	}
+
+	// Si el upstream no ha cambiado, refrescar no vuelve a unir ni a guardar
+	@Test
+	void testRefreshIsSkippedWhenUpstreamIsUnchanged() {
+		List<AlbumView> albums = List.of(new AlbumView(1L, 1L, "Album1"));
+		Map<Long, List<PhotoView>> photosByAlbum = Map.of(1L, List.of(new PhotoView(1L, 1L, "Photo1", "url1", "thumbnail1")));
+		when(upstreamClient.fetchAlbums(any())).thenReturn(CompletableFuture.completedFuture(albums));
+		when(upstreamClient.fetchPhotosByAlbum(any())).thenReturn(CompletableFuture.completedFuture(photosByAlbum));
+		when(albumPersistenceService.persist(any())).thenReturn(new PersistenceDelta(1, 0, 0, 1, 0, 0));
+
+		EnrichedSnapshot first = albumService.getSnapshot();
+		albumService.refreshAlbumsAndSave();
+		List<AlbumView> refreshed = albumService.refreshAlbumsAndSave();
+
+		assertSame(first.getAlbums(), refreshed);
+		assertEquals(2.0, meterRegistry.counter("album.refresh.skipped").count());
+		assertEquals(1.0, meterRegistry.counter("album.save.skipped").count());
+		verify(albumPersistenceService).persist(any());
+	}
+
+	// Sin instantanea publicada las peticiones concurrentes comparten una unica
+	// construccion
+	@Test
+	void testConcurrentFirstReadsShareOneBuild() {
+		EnrichedSnapshotFactory factory = spy(new EnrichedSnapshotFactory(new ObjectMapper()));
+		albumService = new AlbumService(upstreamClient, albumPersistenceService,
+				new UpstreamSnapshotCache(60000, 600000, meterRegistry), albumDetailCache(),
+				factory, executorServiceFactory, eventPublisher, meterRegistry, AlbumPhotoConstants.READ_MODE_UPSTREAM);
+		CompletableFuture<List<AlbumView>> albums = new CompletableFuture<>();
+		when(upstreamClient.fetchAlbums(any())).thenReturn(albums);
+		when(upstreamClient.fetchPhotosByAlbum(any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+
+		CompletableFuture<EnrichedSnapshot> first = albumService.getSnapshotAsync();
+		CompletableFuture<EnrichedSnapshot> second = albumService.getSnapshotAsync();
+		albums.complete(List.of(new AlbumView(1L, 1L, "Album1")));
+
+		assertSame(first.join(), second.join());
+		verify(factory, times(1)).create(any(), any());
+		verify(eventPublisher, times(1)).publishEvent(any(SnapshotPublishedEvent.class));
+	}
+
+	// Una construccion que termina despues de que otra haya publicado no sustituye
+	// a la instantanea mas reciente ni se vuelve a publicar
+	@Test
+	void testSlowerBuildDoesNotReplaceNewerSnapshot() throws Exception {
+		CountDownLatch building = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		EnrichedSnapshotFactory factory = spy(new EnrichedSnapshotFactory(new ObjectMapper()));
+		doAnswer(invocation -> {
+			building.countDown();
+			release.await();
+			return invocation.callRealMethod();
+		}).doCallRealMethod().when(factory).create(any(), any());
+		albumService = new AlbumService(upstreamClient, albumPersistenceService,
+				new UpstreamSnapshotCache(60000, 600000, meterRegistry), albumDetailCache(),
+				factory, executorServiceFactory, eventPublisher, meterRegistry, AlbumPhotoConstants.READ_MODE_UPSTREAM);
+		when(upstreamClient.fetchAlbums(any())).thenReturn(
+				CompletableFuture.completedFuture(List.of(new AlbumView(1L, 1L, "Old"))),
+				CompletableFuture.completedFuture(List.of(new AlbumView(1L, 1L, "New"))));
+		when(upstreamClient.fetchPhotosByAlbum(any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+
+		CompletableFuture<EnrichedSnapshot> slower = albumService.getSnapshotAsync();
+		building.await();
+		EnrichedSnapshot newer = albumService.refreshSnapshot();
+		release.countDown();
+
+		assertSame(newer, slower.join());
+		assertSame(newer, albumService.getPublishedSnapshot());
+		assertEquals("New", newer.getAlbums().get(0).title());
+		verify(eventPublisher, times(1)).publishEvent(any(SnapshotPublishedEvent.class));
+		assertTrue(albumService.getRevalidatedAt() != null);
+	}
+
+	// Con descarga por particiones el JSON se compone con los fragmentos ya serializados
+	@Test
+	@SuppressWarnings("unchecked")
+	void testPartitionedSnapshotMatchesFullSerialization() {
+		List<AlbumView> albums = List.of(new AlbumView(1L, 1L, "Album1"), new AlbumView(2L, 2L, "Album2"),
+				new AlbumView(3L, 2L, "Album3"));
+		Map<Long, List<PhotoView>> photosByAlbum = Map.of(1L, List.of(new PhotoView(1L, 1L, "Photo1", "url1", "thumbnail1")),
+				2L, List.of(new PhotoView(2L, 2L, "Photo2", "url2", "thumbnail2")));
+		when(upstreamClient.isPhotosPartitioned()).thenReturn(true);
+		when(upstreamClient.fetchAlbums(any())).thenReturn(CompletableFuture.completedFuture(albums));
+		when(upstreamClient.fetchPhotosByAlbum(any(), any(), any())).thenAnswer(invocation -> {
+			Consumer<Map<Long, List<PhotoView>>> onPartition = invocation.getArgument(2);
+			onPartition.accept(Map.of(1L, photosByAlbum.get(1L)));
+			onPartition.accept(Map.of(2L, photosByAlbum.get(2L)));
+			return CompletableFuture.completedFuture(photosByAlbum);
+		});
+
+		EnrichedSnapshot snapshot = albumService.getSnapshot();
+
+		EnrichedSnapshot expected = new EnrichedSnapshotFactory(new ObjectMapper()).create(albums, photosByAlbum);
+		assertEquals(new String(expected.getJson()), new String(snapshot.getJson()));
+		assertEquals(expected.getEtag(), snapshot.getEtag());
+	}
+
+	// El receptor de un refresco solo recibe las particiones de ese refresco
+	@Test
+	@SuppressWarnings("unchecked")
+	void testPartitionListenerScopedToItsRefresh() throws Exception {
+		List<AlbumView> albums = List.of(new AlbumView(1L, 1L, "Album1"));
+		Map<Long, List<PhotoView>> photosByAlbum = Map.of(1L, List.of(new PhotoView(1L, 1L, "Photo1", "url1", "thumbnail1")));
+		when(upstreamClient.isPhotosPartitioned()).thenReturn(true);
+		when(upstreamClient.fetchAlbums(any())).thenReturn(CompletableFuture.completedFuture(albums));
+		when(upstreamClient.fetchPhotosByAlbum(any(), any(), any())).thenAnswer(invocation -> {
+			Consumer<Map<Long, List<PhotoView>>> onPartition = invocation.getArgument(2);
+			onPartition.accept(photosByAlbum);
+			return CompletableFuture.completedFuture(photosByAlbum);
+		});
+		List<Map<Long, List<PhotoView>>> received = new CopyOnWriteArrayList<>();
+
+		albumService.refreshSnapshotAsync((refreshAlbums, partition) -> received.add(partition)).get();
+		albumService.refreshSnapshotAsync().get();
+
+		assertEquals(List.of(photosByAlbum), received);
+	}
+
+	// Sin particiones (modo por defecto) el receptor tambien recibe los bloques con
+	// los albumes ya revalidados
+	@Test
+	@SuppressWarnings("unchecked")
+	void testPartitionListenerWithoutPartitions() throws Exception {
+		List<AlbumView> albums = List.of(new AlbumView(1L, 1L, "Album1"));
+		Map<Long, List<PhotoView>> photosByAlbum = Map.of(1L, List.of(new PhotoView(1L, 1L, "Photo1", "url1", "thumbnail1")));
+		when(upstreamClient.isPhotosPartitioned()).thenReturn(false);
+		when(upstreamClient.fetchAlbums(any())).thenReturn(CompletableFuture.completedFuture(albums));
+		when(upstreamClient.fetchPhotosByAlbum(any(), any(), any())).thenAnswer(invocation -> {
+			Consumer<Map<Long, List<PhotoView>>> onPartition = invocation.getArgument(2);
+			onPartition.accept(photosByAlbum);
+			return CompletableFuture.completedFuture(photosByAlbum);
+		});
+		List<List<AlbumView>> received = new CopyOnWriteArrayList<>();
+
+		EnrichedSnapshot snapshot = albumService
+				.refreshSnapshotAsync((refreshAlbums, partition) -> received.add(refreshAlbums)).get();
+
+		assertEquals(List.of(albums), received);
+		assertEquals("Photo1", snapshot.getAlbums().get(0).photos().get(0).title());
+		verify(upstreamClient, never()).fetchPhotosByAlbum(any());
+	}
+
+	// Sin instantanea solo se descarga el album pedido, y se guarda en la cache de detalle
+	@Test
+	void testGetAlbumWithoutSnapshotFetchesSingleAlbum() {
+		when(upstreamClient.fetchAlbum(1L)).thenReturn(CompletableFuture.completedFuture(new AlbumView(1L, 1L, "Album1")));
+		when(upstreamClient.fetchAlbumPhotos(1L)).thenReturn(
+				CompletableFuture.completedFuture(List.of(new PhotoView(1L, 1L, "Photo1", "url1", "thumbnail1"))));
+		when(upstreamClient.fetchAlbum(2L)).thenReturn(CompletableFuture.completedFuture(null));
+		when(upstreamClient.fetchAlbumPhotos(2L)).thenReturn(CompletableFuture.completedFuture(List.of()));
+
+		AlbumView album = albumService.getAlbum(1L);
+		albumService.getAlbum(1L);
+
+		assertEquals("Photo1", album.photos().get(0).title());
+		assertNull(albumService.getAlbum(2L));
+		verify(upstreamClient, times(1)).fetchAlbum(1L);
+		verify(upstreamClient, never()).fetchAlbums(any());
+	}
+
+	// Con una instantanea el album se resuelve con su indice sin llamar al upstream
+	@Test
+	void testGetAlbumFromSnapshot() {
+		when(upstreamClient.fetchAlbums(any()))
+				.thenReturn(CompletableFuture.completedFuture(List.of(new AlbumView(1L, 1L, "Album1"))));
+		when(upstreamClient.fetchPhotosByAlbum(any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+		EnrichedSnapshot snapshot = albumService.getSnapshot();
+
+		assertSame(snapshot.getAlbum(1L), albumService.getAlbum(1L));
+		assertNull(albumService.getAlbum(2L));
+		verify(upstreamClient, never()).fetchAlbum(anyLong());
+	}
+
+	// En modo base de datos la instantanea se lee una vez y se invalida al guardar
+	@Test
+	void testStoredSnapshotIsCachedUntilNextSave() {
+		AlbumView stored = new AlbumView(1L, 1L, "Album1",
+				List.of(new PhotoView(1L, 1L, "Photo1", "url1", "thumbnail1")));
+		when(albumPersistenceService.loadAlbums()).thenReturn(List.of(stored));
+		when(upstreamClient.fetchAlbums(any()))
+				.thenReturn(CompletableFuture.completedFuture(List.of(new AlbumView(2L, 1L, "Album2"))));
+		when(upstreamClient.fetchPhotosByAlbum(any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+		when(albumPersistenceService.persist(any())).thenReturn(new PersistenceDelta(1, 0, 0, 0, 0, 0));
+
+		EnrichedSnapshot first = albumService.getSnapshot(AlbumPhotoConstants.READ_MODE_DB);
+		assertSame(first, albumService.getSnapshot(AlbumPhotoConstants.READ_MODE_DB));
+		assertEquals("Photo1", first.getAlbum(1L).photos().get(0).title());
+
+		albumService.enrichAlbumsAndSave();
+		albumService.getSnapshot(AlbumPhotoConstants.READ_MODE_DB);
+
+		verify(albumPersistenceService, times(2)).loadAlbums();
+	}
+
+	private AlbumDetailCache albumDetailCache() {
+		return new AlbumDetailCache(new CacheConfig().cacheManager(meterRegistry, "maximumSize=100", "maximumSize=100"));
 	}
 }
@@ -0,0 +1,125 @@
+package com.example.albumphotoenrichment.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.example.albumphotoenrichment.factory.EnrichedSnapshotFactory;
+import com.example.albumphotoenrichment.factory.ExecutorServiceFactory;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.example.albumphotoenrichment.model.RefreshJobStatus;
+import com.example.albumphotoenrichment.model.RefreshJobStatus.Phase;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class RefreshJobServiceTest {
+
+	private final AlbumService albumService = mock(AlbumService.class);
+	private final AlbumPersistenceService albumPersistenceService = mock(AlbumPersistenceService.class);
+	private final ExecutorServiceFactory executorServiceFactory = mock(ExecutorServiceFactory.class);
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final ExecutorService ioExecutor = Executors.newFixedThreadPool(2);
+	private RefreshJobService refreshJobService;
+
+	@BeforeEach
+	void setUp() {
+		when(executorServiceFactory.createExecutorService()).thenReturn(ioExecutor);
+		refreshJobService = new RefreshJobService(albumService, albumPersistenceService, executorServiceFactory,
+				meterRegistry, 10, 10);
+	}
+
+	@AfterEach
+	void tearDown() {
+		ioExecutor.shutdownNow();
+	}
+
+	// Las particiones se escriben al llegar; el resto de albumes se escribe despues
+	// y se eliminan las filas que ya no existen
+	@SuppressWarnings("unchecked")
+	@Test
+	void testJobWritesPartitionsThenRemainingAlbums() throws Exception {
+		AlbumView album1 = new AlbumView(1L, 1L, "Album 1");
+		AlbumView album2 = new AlbumView(2L, 1L, "Album 2");
+		Map<Long, List<PhotoView>> photos = Map.of(1L, List.of(new PhotoView(1L, 1L, "Photo 1", "url1", "thumb1")));
+		EnrichedSnapshot snapshot = new EnrichedSnapshotFactory(new ObjectMapper()).create(List.of(album1, album2),
+				photos);
+		when(albumService.refreshSnapshotAsync(any(BiConsumer.class))).thenAnswer(invocation -> {
+			BiConsumer<List<AlbumView>, Map<Long, List<PhotoView>>> onPartition = invocation.getArgument(0);
+			onPartition.accept(List.of(album1, album2), photos);
+			return CompletableFuture.completedFuture(snapshot);
+		});
+		when(albumPersistenceService.mergeChunk(anyList())).thenAnswer(invocation -> {
+			List<AlbumView> chunk = invocation.getArgument(0);
+			return chunk.size() + chunk.stream().filter(album -> album.photos() != null)
+					.mapToInt(album -> album.photos().size()).sum();
+		});
+		when(albumPersistenceService.deleteMissing(anyList())).thenReturn(3);
+
+		RefreshJobStatus status = awaitFinished(refreshJobService.start().id());
+
+		assertEquals(Phase.DONE, status.phase());
+		assertEquals(2, status.chunksWritten());
+		assertEquals(3, status.rowsWritten());
+		assertEquals(3, status.rowsDeleted());
+		verify(albumService).markPersisted(snapshot);
+		assertEquals(1.0, meterRegistry.counter("album.jobs", "result", "success").count());
+	}
+
+	// Un fallo del refresco termina el trabajo con su error y no escribe nada
+	@SuppressWarnings("unchecked")
+	@Test
+	void testFailedJobReportsError() throws Exception {
+		when(albumService.refreshSnapshotAsync(any(BiConsumer.class)))
+				.thenReturn(CompletableFuture.failedFuture(new IllegalStateException("upstream down")));
+
+		RefreshJobStatus status = awaitFinished(refreshJobService.start().id());
+
+		assertEquals(Phase.FAILED, status.phase());
+		assertFalse(status.errors().isEmpty());
+		verify(albumPersistenceService, never()).deleteMissing(anyList());
+		assertNull(refreshJobService.getStatus("unknown"));
+	}
+
+	// Un fallo sincrono al lanzar el refresco tambien termina el trabajo
+	@SuppressWarnings("unchecked")
+	@Test
+	void testSynchronousRefreshFailureFinishesJob() throws Exception {
+		when(albumService.refreshSnapshotAsync(any(BiConsumer.class))).thenThrow(new IllegalStateException("boom"));
+
+		RefreshJobStatus status = awaitFinished(refreshJobService.start().id());
+
+		assertEquals(Phase.FAILED, status.phase());
+		assertFalse(status.errors().isEmpty());
+		assertEquals(1.0, meterRegistry.counter("album.jobs", "result", "failure").count());
+	}
+
+	private RefreshJobStatus awaitFinished(String id) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		RefreshJobStatus status = refreshJobService.getStatus(id);
+		while (status.finishedAt() == null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+			status = refreshJobService.getStatus(id);
+		}
+		return status;
+	}
+}
@@ -0,0 +1,85 @@
+package com.example.albumphotoenrichment.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import com.example.albumphotoenrichment.factory.EnrichedSnapshotFactory;
+import com.example.albumphotoenrichment.factory.ExecutorServiceFactory;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class SnapshotFileStoreTest {
+
+	private final EnrichedSnapshotFactory factory = new EnrichedSnapshotFactory(new ObjectMapper());
+
+	@TempDir
+	Path tempDir;
+
+	// El fichero binario reconstruye exactamente la misma instantanea, con el JSON,
+	// el gzip y el ETag guardados en lugar de volver a serializarla
+	@Test
+	void testWriteAndReadRoundTrip() throws Exception {
+		EnrichedSnapshot snapshot = factory.create(
+				List.of(new AlbumView(1L, 1L, "Álbum 1"), new AlbumView(2L, 2L, null), new AlbumView(3L, 2L, "Album3")),
+				Map.of(1L, List.of(new PhotoView(1L, 1L, "Photo1", "url1", "thumbnail1"),
+						new PhotoView(2L, 1L, "Photo2", null, "thumbnail2")), 2L, List.of()));
+		Path file = tempDir.resolve("snapshot.bin");
+
+		EnrichedSnapshotFactory restoreFactory = spy(factory);
+
+		SnapshotFileStore.write(snapshot, file);
+		EnrichedSnapshot restored = SnapshotFileStore.read(file, restoreFactory);
+
+		assertArrayEquals(snapshot.getJson(), restored.getJson());
+		assertArrayEquals(snapshot.getGzipJson(), restored.getGzipJson());
+		assertEquals(snapshot.getEtag(), restored.getEtag());
+		assertEquals("Photo2", restored.getAlbum(1L).photos().get(1).title());
+		assertNull(restored.getAlbum(3L).photos());
+		verify(restoreFactory, never()).create(any(), any());
+	}
+
+	// Al arrancar se publica la instantanea guardada; un fichero corrupto se ignora
+	@Test
+	void testRestoreOnStartup() throws Exception {
+		Path file = tempDir.resolve("snapshot.bin");
+		SnapshotFileStore.write(factory.create(List.of(new AlbumView(1L, 1L, "Album1")), Map.of()), file);
+		AlbumService albumService = mock(AlbumService.class);
+		when(albumService.restoreSnapshot(any())).thenReturn(true);
+
+		newStore(albumService, file).restore();
+
+		ArgumentCaptor<EnrichedSnapshot> restored = ArgumentCaptor.forClass(EnrichedSnapshot.class);
+		verify(albumService).restoreSnapshot(restored.capture());
+		assertEquals("Album1", restored.getValue().getAlbum(1L).title());
+
+		Files.write(file, new byte[] { 1, 2, 3 });
+		AlbumService other = mock(AlbumService.class);
+		newStore(other, file).restore();
+		verify(other, never()).restoreSnapshot(any());
+	}
+
+	private SnapshotFileStore newStore(AlbumService albumService, Path file) {
+		ExecutorServiceFactory executorServiceFactory = mock(ExecutorServiceFactory.class);
+		when(executorServiceFactory.createExecutorService()).thenReturn(Executors.newSingleThreadExecutor());
+		return new SnapshotFileStore(albumService, factory, executorServiceFactory, file.toString());
+	}
+}
@@ -0,0 +1,123 @@
+package com.example.albumphotoenrichment.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.example.albumphotoenrichment.factory.EnrichedSnapshotFactory;
+import com.example.albumphotoenrichment.model.EnrichedSnapshot;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class SnapshotRefresherTest {
+
+	private final AlbumService albumService = mock(AlbumService.class);
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+
+	@BeforeEach
+	void setUp() {
+		taskScheduler.initialize();
+	}
+
+	@AfterEach
+	void tearDown() {
+		taskScheduler.shutdown();
+	}
+
+	// El refresco se repite periodicamente y un fallo no detiene las siguientes ejecuciones
+	@Test
+	void testRefreshRunsPeriodicallyAndSurvivesFailures() {
+		when(albumService.refreshSnapshotAsync())
+				.thenReturn(CompletableFuture.failedFuture(new RuntimeException("upstream down")))
+				.thenReturn(CompletableFuture.completedFuture(null));
+		SnapshotRefresher refresher = new SnapshotRefresher(albumService, taskScheduler, meterRegistry, true, 10, 5, 0);
+
+		refresher.start();
+
+		verify(albumService, timeout(2000).atLeast(3)).refreshSnapshotAsync();
+		refresher.stop();
+		assertEquals(1.0, meterRegistry.counter("album.snapshot.refresh", "result", "failure").count());
+		assertTrue(meterRegistry.counter("album.snapshot.refresh", "result", "success").count() >= 2);
+	}
+
+	// Sin refresco habilitado no se programa ninguna ejecucion
+	@Test
+	void testDisabledRefresherDoesNotRun() throws Exception {
+		SnapshotRefresher refresher = new SnapshotRefresher(albumService, taskScheduler, meterRegistry, false, 10, 0, 0);
+
+		refresher.start();
+		TimeUnit.MILLISECONDS.sleep(100);
+
+		verify(albumService, never()).refreshSnapshotAsync();
+	}
+
+	// El refresco en curso no ocupa el hilo del planificador y la siguiente
+	// ejecucion solo se programa cuando termina
+	@Test
+	void testRefreshDoesNotBlockSchedulerThread() throws Exception {
+		CompletableFuture<EnrichedSnapshot> refreshing = new CompletableFuture<>();
+		when(albumService.refreshSnapshotAsync()).thenReturn(refreshing)
+				.thenReturn(CompletableFuture.completedFuture(null));
+		SnapshotRefresher refresher = new SnapshotRefresher(albumService, taskScheduler, meterRegistry, true, 10, 0, 0);
+
+		refresher.start();
+		verify(albumService, timeout(2000)).refreshSnapshotAsync();
+		// El planificador tiene un unico hilo, que sigue libre para otras tareas
+		CompletableFuture<Void> other = new CompletableFuture<>();
+		taskScheduler.schedule(() -> other.complete(null), Instant.now());
+		other.get(2, TimeUnit.SECONDS);
+		TimeUnit.MILLISECONDS.sleep(100);
+		verify(albumService, times(1)).refreshSnapshotAsync();
+
+		refreshing.complete(null);
+
+		verify(albumService, timeout(2000).atLeast(2)).refreshSnapshotAsync();
+		refresher.stop();
+	}
+
+	// La edad de la instantanea publicada se expone como metrica
+	@Test
+	void testSnapshotAgeGauge() {
+		new SnapshotRefresher(albumService, taskScheduler, meterRegistry, false, 10, 0, 0);
+		assertTrue(Double.isNaN(meterRegistry.get("album.snapshot.age").timeGauge().value()));
+
+		when(albumService.getPublishedSnapshot())
+				.thenReturn(new EnrichedSnapshotFactory(new ObjectMapper()).create(List.of(), Map.of()));
+
+		assertTrue(meterRegistry.get("album.snapshot.age").timeGauge().value(TimeUnit.MILLISECONDS) >= 0);
+	}
+
+	// Un refresco sin cambios en el upstream reinicia la edad aunque la instantanea
+	// publicada sea la misma
+	@Test
+	void testSnapshotAgeCountsFromLastRevalidation() {
+		new SnapshotRefresher(albumService, taskScheduler, meterRegistry, false, 10, 0, 0);
+		EnrichedSnapshot snapshot = mock(EnrichedSnapshot.class);
+		when(snapshot.getCreatedAt()).thenReturn(Instant.now().minusSeconds(3600));
+		when(albumService.getPublishedSnapshot()).thenReturn(snapshot);
+
+		assertTrue(meterRegistry.get("album.snapshot.age").timeGauge().value(TimeUnit.SECONDS) >= 3600);
+
+		when(albumService.getRevalidatedAt()).thenReturn(Instant.now());
+
+		assertTrue(meterRegistry.get("album.snapshot.age").timeGauge().value(TimeUnit.SECONDS) < 60);
+	}
+}
@@ -0,0 +1,124 @@
+package com.example.albumphotoenrichment.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.PhotoView;
+
+public class TitleIndexTest {
+
+	// Una palabra en 1 de cada 16 documentos se guarda como mapa de bits y una por
+	// debajo del umbral como diferencias en varint; ambas se decodifican igual
+	@Test
+	void testPostingsThresholdBetweenVarintAndBitmap() {
+		TitleIndex.VocabularyBuilder vocabulary = new TitleIndex.VocabularyBuilder(null);
+		TitleIndex.PostingsBuilder builder = new TitleIndex.PostingsBuilder(0);
+		for (int doc = 0; doc < 32; doc++) {
+			builder.add(doc % 16 == 0 ? "dense" : "other", doc, vocabulary);
+		}
+		builder.add("sparse", 31, vocabulary);
+		TitleIndex.Postings postings = builder.build(32);
+
+		int dense = postings.find(vocabulary.id("dense"));
+		int sparse = postings.find(vocabulary.id("sparse"));
+		assertTrue(postings.isBitmap(dense)); // 2 * 16 >= 32
+		assertFalse(postings.isBitmap(sparse)); // 1 * 16 < 32
+		assertEquals(List.of(0, 16), docs(postings, dense));
+		assertEquals(List.of(31), docs(postings, sparse));
+	}
+
+	// Las diferencias de mas de 7 bits ocupan varios bytes de varint
+	@Test
+	void testPostingsVarintWithLargeGaps() {
+		TitleIndex.VocabularyBuilder vocabulary = new TitleIndex.VocabularyBuilder(null);
+		TitleIndex.PostingsBuilder builder = new TitleIndex.PostingsBuilder(0);
+		for (int doc : new int[] { 0, 129, 20000, 20001 }) {
+			builder.add("word", doc, vocabulary);
+		}
+		TitleIndex.Postings postings = builder.build(20002);
+
+		int slot = postings.find(vocabulary.id("word"));
+		assertFalse(postings.isBitmap(slot));
+		assertEquals(List.of(0, 129, 20000, 20001), docs(postings, slot));
+	}
+
+	// Al ampliar el vocabulario los ids nuevos se anaden al final de las listas de
+	// trigramas, que siguen ordenadas
+	@Test
+	void testVocabularyExtendKeepsTrigramListsSorted() {
+		TitleIndex.Vocabulary vocabulary = TitleIndex.Vocabulary.EMPTY.extend(new String[] { "abcd", "xy", "xabc" })
+				.extend(new String[] { "zabcz", "abab" });
+
+		int[][] tokenIds = new int[1][];
+		int[][] scores = new int[1][];
+		assertTrue(vocabulary.expand("abc", 64, 0, tokenIds, scores));
+		assertArrayEquals(new int[] { 0, 2, 3 }, tokenIds[0]);
+		assertFalse(vocabulary.expand("ab", 64, 0, tokenIds, scores)); // Sin trigramas: solo la exacta
+		assertTrue(vocabulary.expand("abab", 64, 0, tokenIds, scores));
+		assertArrayEquals(new int[] { 4 }, tokenIds[0]);
+		assertArrayEquals(new int[] { TitleIndex.EXACT_SCORE }, scores[0]);
+	}
+
+	// La renumeracion de la compactacion conserva los documentos de cada palabra
+	@Test
+	void testPostingsRemap() {
+		TitleIndex.VocabularyBuilder vocabulary = new TitleIndex.VocabularyBuilder(null);
+		vocabulary.id("unused");
+		TitleIndex.PostingsBuilder builder = new TitleIndex.PostingsBuilder(0);
+		builder.add("alpha beta", 0, vocabulary);
+		builder.add("beta", 1, vocabulary);
+		TitleIndex.Postings postings = builder.build(2);
+
+		// Ids 0 (sin uso), 1 (alpha) y 2 (beta) pasan a -1, 0 y 1
+		TitleIndex.Postings remapped = postings.remap(new int[] { -1, 0, 1 });
+
+		assertEquals(List.of(0), docs(remapped, remapped.find(0)));
+		assertEquals(List.of(0, 1), docs(remapped, remapped.find(1)));
+		assertTrue(remapped.find(2) < 0);
+	}
+
+	// Una foto pertenece al album con su posicion, aunque haya albumes sin fotos
+	// antes, entre medias o al final
+	@Test
+	void testSegmentAlbumOfWithEmptyAlbums() {
+		List<AlbumView> albums = List.of(album(1, 0), album(2, 2), album(3, -1), album(4, 0), album(5, 1),
+				album(6, 0));
+		TitleIndex.Segment segment = TitleIndex.Segment.build(albums, 256, new TitleIndex.VocabularyBuilder(null));
+
+		assertEquals(1, segment.albumOf(0));
+		assertEquals(1, segment.albumOf(1));
+		assertEquals(4, segment.albumOf(2));
+	}
+
+	// Album con el numero de fotos indicado, o sin lista de fotos si es negativo
+	private static AlbumView album(long id, int photoCount) {
+		if (photoCount < 0) {
+			return new AlbumView(id, 1L, "album " + id);
+		}
+		List<PhotoView> photos = new ArrayList<>();
+		for (int p = 0; p < photoCount; p++) {
+			photos.add(new PhotoView(id * 100 + p, id, "photo " + p, "url", "thumb"));
+		}
+		return new AlbumView(id, 1L, "album " + id, photos);
+	}
+
+	private static List<Integer> docs(TitleIndex.Postings postings, int slot) {
+		long[] bits = new long[postings.wordCount()];
+		postings.or(slot, bits);
+		List<Integer> docs = new ArrayList<>();
+		for (int w = 0; w < bits.length; w++) {
+			for (long word = bits[w]; word != 0; word &= word - 1) {
+				docs.add((w << 6) + Long.numberOfTrailingZeros(word));
+			}
+		}
+		return docs;
+	}
+}
@@ -0,0 +1,386 @@
+package com.example.albumphotoenrichment.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.example.albumphotoenrichment.constant.AlbumPhotoConstants;
+import com.example.albumphotoenrichment.factory.HttpClientFactory;
+import com.example.albumphotoenrichment.model.AlbumView;
+import com.example.albumphotoenrichment.model.PhotoColumns;
+import com.example.albumphotoenrichment.model.PhotoView;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class UpstreamClientTest {
+
+	private static final String ALBUMS_JSON = "[{\"id\":1,\"userId\":1,\"title\":\"Album1\"}]";
+
+	private HttpServer server;
+	private HttpClientFactory httpClientFactory;
+	private UpstreamClient upstreamClient;
+	private final Map<String, Queue<StubResponse>> responses = new ConcurrentHashMap<>();
+	private final List<Headers> requests = new CopyOnWriteArrayList<>();
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private Function<HttpExchange, StubResponse> responder = this::nextQueuedResponse;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+
+	// Levanta un servidor HTTP local que responde con las respuestas encoladas
+	@BeforeEach
+	void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", this::handle);
+		server.start();
+		httpClientFactory = new HttpClientFactory(1000, 500);
+		upstreamClient = newClient(AlbumPhotoConstants.PARTITION_NONE, 10, 4);
+	}
+
+	@AfterEach
+	void tearDown() {
+		server.stop(0);
+		httpClientFactory.shutdown();
+	}
+
+	@Test
+	void testFetchAlbums() {
+		respond(AlbumPhotoConstants.ALBUMS_PATH, new StubResponse(200, ALBUMS_JSON, null, 0));
+
+		List<AlbumView> albums = upstreamClient.fetchAlbums(null).join();
+
+		assertEquals(1, albums.size());
+		assertEquals("Album1", albums.get(0).title());
+	}
+
+	// Cada descarga registra su fase, el tiempo de deserializacion y el tamano del cuerpo
+	@Test
+	void testFetchRecordsPhaseMetrics() {
+		respond(AlbumPhotoConstants.ALBUMS_PATH, new StubResponse(200, ALBUMS_JSON, null, 0));
+
+		upstreamClient.fetchAlbums(null).join();
+
+		assertEquals(1, meterRegistry.timer(AlbumPhotoConstants.METRIC_PHASE, "phase", "fetch.albums").count());
+		assertEquals(1, meterRegistry.timer(AlbumPhotoConstants.METRIC_PHASE, "phase", "deserialize.albums").count());
+		assertEquals(ALBUMS_JSON.getBytes(StandardCharsets.UTF_8).length,
+				meterRegistry.summary("album.upstream.payload", "resource", "albums").totalAmount());
+	}
+
+	// Las fotos se agrupan por album durante la lectura del cuerpo
+	@Test
+	void testFetchPhotosByAlbum() {
+		respond(AlbumPhotoConstants.PHOTOS_PATH, new StubResponse(200, """
+				[{"albumId":1,"id":1,"title":"Photo1","url":"url1","thumbnailUrl":"thumbnail1"},
+				 {"albumId":2,"id":2,"title":"Photo2","url":"url2","thumbnailUrl":"thumbnail2"},
+				 {"albumId":1,"id":3,"title":"Photo3","url":"url3","thumbnailUrl":"thumbnail3"}]
+				""", null, 0));
+
+		Map<Long, List<PhotoView>> photosByAlbum = upstreamClient.fetchPhotosByAlbum(null).join();
+
+		assertEquals(2, photosByAlbum.size());
+		assertEquals(List.of(1L, 3L), photosByAlbum.get(1L).stream().map(PhotoView::id).toList());
+		assertEquals("thumbnail2", photosByAlbum.get(2L).get(0).thumbnailUrl());
+	}
+
+	// Un cuerpo grande llega en muchos fragmentos y se lee de forma incremental
+	@Test
+	void testFetchLargeBodyInChunks() {
+		StringBuilder json = new StringBuilder("[");
+		for (int id = 1; id <= 5000; id++) {
+			json.append(id == 1 ? "" : ",").append("{\"albumId\":").append(id % 100).append(",\"id\":").append(id)
+					.append(",\"title\":\"Photo ").append(id).append("\",\"url\":\"https://via.placeholder.com/600/")
+					.append(id).append("\",\"thumbnailUrl\":\"https://via.placeholder.com/150/").append(id)
+					.append("\"}");
+		}
+		respond(AlbumPhotoConstants.PHOTOS_PATH, new StubResponse(200, json.append("]").toString(), null, 0));
+
+		Map<Long, List<PhotoView>> photosByAlbum = upstreamClient.fetchPhotosByAlbum(null).join();
+
+		assertEquals(100, photosByAlbum.size());
+		assertEquals(5000, photosByAlbum.values().stream().mapToInt(List::size).sum());
+	}
+
+	// Con una instantanea anterior la peticion es condicional y un 304 la reutiliza
+	@Test
+	void testNotModifiedReturnsPreviousSnapshot() {
+		respond(AlbumPhotoConstants.ALBUMS_PATH, new StubResponse(200, ALBUMS_JSON, "\"v1\"", 0));
+		respond(AlbumPhotoConstants.ALBUMS_PATH, new StubResponse(304, null, "\"v1\"", 0));
+
+		List<AlbumView> first = upstreamClient.fetchAlbums(null).join();
+		List<AlbumView> second = upstreamClient.fetchAlbums(first).join();
+
+		assertSame(first, second);
+		assertEquals("\"v1\"", requests.get(1).getFirst(HttpHeaders.IF_NONE_MATCH));
+		assertEquals(1.0, meterRegistry.counter("album.upstream.not_modified", "resource", "albums").count());
+	}
+
+	// Sin validadores, un cuerpo identico se detecta por su hash
+	@Test
+	void testIdenticalContentReturnsPreviousSnapshot() {
+		respond(AlbumPhotoConstants.ALBUMS_PATH, new StubResponse(200, ALBUMS_JSON, null, 0));
+		respond(AlbumPhotoConstants.ALBUMS_PATH, new StubResponse(200, ALBUMS_JSON, null, 0));
+
+		List<AlbumView> first = upstreamClient.fetchAlbums(null).join();
+		List<AlbumView> second = upstreamClient.fetchAlbums(first).join();
+
+		assertSame(first, second);
+		assertEquals(1.0, meterRegistry.counter("album.upstream.unchanged", "resource", "albums").count());
+	}
+
+	// Sin instantanea anterior nunca se envian validadores
+	@Test
+	void testNoPreviousSnapshotMakesUnconditionalRequest() {
+		respond(AlbumPhotoConstants.ALBUMS_PATH, new StubResponse(200, ALBUMS_JSON, "\"v1\"", 0));
+		respond(AlbumPhotoConstants.ALBUMS_PATH, new StubResponse(200, ALBUMS_JSON, "\"v1\"", 0));
+
+		List<AlbumView> first = upstreamClient.fetchAlbums(null).join();
+		List<AlbumView> second = upstreamClient.fetchAlbums(null).join();
+
+		assertNotSame(first, second);
+		assertNull(requests.get(1).getFirst(HttpHeaders.IF_NONE_MATCH));
+	}
+
+	// Un estado de error del upstream hace fallar el futuro
+	@Test
+	void testErrorStatusFails() {
+		respond(AlbumPhotoConstants.ALBUMS_PATH, new StubResponse(500, "error", null, 0));
+
+		CompletionException e = assertThrows(CompletionException.class,
+				() -> upstreamClient.fetchAlbums(null).join());
+		assertEquals(500, assertInstanceOf(UpstreamStatusException.class, e.getCause()).getStatusCode());
+	}
+
+	// Un cuerpo sin un array completo falla en lugar de leerse como una lista vacia
+	@Test
+	void testBodyWithoutCompleteArrayFails() {
+		for (String body : List.of("", "  \n", "[{\"id\": 1, \"userId\": 1, \"title\": \"a\"}")) {
+			respond(AlbumPhotoConstants.ALBUMS_PATH, new StubResponse(200, body, null, 0));
+
+			CompletionException e = assertThrows(CompletionException.class,
+					() -> upstreamClient.fetchAlbums(null).join(), body);
+			assertInstanceOf(IOException.class, e.getCause(), body);
+		}
+	}
+
+	// Si el upstream no responde a tiempo el futuro falla con un timeout
+	@Test
+	void testReadTimeout() {
+		respond(AlbumPhotoConstants.ALBUMS_PATH, new StubResponse(200, ALBUMS_JSON, null, 2000));
+
+		CompletionException e = assertThrows(CompletionException.class,
+				() -> upstreamClient.fetchAlbums(null).join());
+		assertInstanceOf(HttpTimeoutException.class, e.getCause());
+	}
+
+	// Un album individual se descarga con sus fotos; si no existe se devuelve null
+	@Test
+	void testFetchSingleAlbum() {
+		respond(AlbumPhotoConstants.ALBUMS_PATH + "/1", new StubResponse(200,
+				"{\"id\":1,\"userId\":1,\"title\":\"Album1\"}", null, 0));
+		respond(AlbumPhotoConstants.ALBUMS_PATH + "/1" + AlbumPhotoConstants.PHOTOS_PATH,
+				new StubResponse(200, "[{\"albumId\":1,\"id\":1},{\"albumId\":1,\"id\":2}]", null, 0));
+		respond(AlbumPhotoConstants.ALBUMS_PATH + "/2", new StubResponse(404, "{}", null, 0));
+
+		assertEquals("Album1", upstreamClient.fetchAlbum(1L).join().title());
+		assertEquals(2, upstreamClient.fetchAlbumPhotos(1L).join().size());
+		assertNull(upstreamClient.fetchAlbum(2L).join());
+	}
+
+	// Descarga por particiones de albumes con un maximo de peticiones en curso
+	@Test
+	void testFetchPhotosPartitionedByAlbum() {
+		responder = exchange -> {
+			// Cada album tiene dos fotos: ids albumId*10 y albumId*10+1
+			String query = exchange.getRequestURI().getQuery();
+			StringBuilder json = new StringBuilder("[");
+			for (String param : query.split("&")) {
+				long albumId = Long.parseLong(param.substring("albumId=".length()));
+				for (long id = albumId * 10; id <= albumId * 10 + 1; id++) {
+					json.append(json.length() > 1 ? "," : "").append("{\"albumId\":").append(albumId)
+							.append(",\"id\":").append(id).append("}");
+				}
+			}
+			return new StubResponse(200, json.append("]").toString(), null, 50);
+		};
+		UpstreamClient client = newClient(AlbumPhotoConstants.PARTITION_ALBUM, 3, 2);
+		List<AlbumView> albums = new ArrayList<>();
+		for (long id = 1; id <= 10; id++) {
+			albums.add(new AlbumView(id, 1L, "Album" + id));
+		}
+		List<Map<Long, List<PhotoView>>> partitions = new CopyOnWriteArrayList<>();
+
+		Map<Long, List<PhotoView>> photosByAlbum = client.fetchPhotosByAlbum(null, albums, partitions::add).join();
+
+		assertEquals(10, photosByAlbum.size());
+		assertEquals(List.of(70L, 71L), photosByAlbum.get(7L).stream().map(PhotoView::id).toList());
+		assertEquals(4, requests.size()); // 10 albumes en particiones de 3
+		assertEquals(4, partitions.size()); // Cada particion se entrega al llegar
+		assertTrue(maxInFlight.get() <= 2);
+	}
+
+	// Si ninguna particion cambia se devuelve la instantanea anterior
+	@Test
+	void testPartitionedFetchReturnsPreviousWhenUnchanged() {
+		responder = exchange -> {
+			String albumId = exchange.getRequestURI().getQuery().substring("albumId=".length());
+			return new StubResponse(200, "[{\"albumId\":" + albumId + ",\"id\":" + albumId + "}]", null, 0);
+		};
+		UpstreamClient client = newClient(AlbumPhotoConstants.PARTITION_ALBUM, 1, 2);
+		List<AlbumView> albums = List.of(new AlbumView(1L, 1L, "Album1"), new AlbumView(2L, 1L, "Album2"));
+		List<Map<Long, List<PhotoView>>> partitions = new CopyOnWriteArrayList<>();
+
+		Map<Long, List<PhotoView>> first = client.fetchPhotosByAlbum(null, albums, partition -> {
+		}).join();
+		Map<Long, List<PhotoView>> second = client.fetchPhotosByAlbum(first, albums, partitions::add).join();
+
+		assertSame(first, second);
+		assertTrue(partitions.isEmpty()); // Nada que volver a enriquecer
+	}
+
+	// Descarga por posiciones: la primera pagina incompleta marca el final y los
+	// albumes se entregan en cuanto no pueden continuar en la pagina siguiente
+	@Test
+	void testFetchPhotosPartitionedByOffset() {
+		responder = exchange -> {
+			Map<String, Integer> params = new HashMap<>();
+			for (String param : exchange.getRequestURI().getQuery().split("&")) {
+				params.put(param.substring(0, param.indexOf('=')), Integer.parseInt(param.substring(param.indexOf('=') + 1)));
+			}
+			StringBuilder json = new StringBuilder("[");
+			for (int id = params.get("_start") + 1; id <= Math.min(params.get("_start") + params.get("_limit"), 25); id++) {
+				json.append(json.length() > 1 ? "," : "").append("{\"albumId\":").append((id - 1) / 4 + 1)
+						.append(",\"id\":").append(id).append("}");
+			}
+			return new StubResponse(200, json.append("]").toString(), null, 0);
+		};
+		UpstreamClient client = newClient(AlbumPhotoConstants.PARTITION_OFFSET, 10, 2);
+		Map<Long, List<PhotoView>> delivered = new ConcurrentHashMap<>();
+
+		Map<Long, List<PhotoView>> photosByAlbum = client.fetchPhotosByAlbum(null, List.of(), partition -> {
+			partition.forEach((albumId, photos) -> assertNull(delivered.put(albumId, photos)));
+		}).join();
+
+		assertInstanceOf(PhotoColumns.class, photosByAlbum);
+		assertEquals(25, photosByAlbum.values().stream().mapToInt(List::size).sum());
+		// El album 3 (fotos 9 a 12) queda repartido entre las dos primeras paginas
+		assertEquals(List.of(9L, 10L, 11L, 12L), photosByAlbum.get(3L).stream().map(PhotoView::id).toList());
+		// Cada album se entrega una sola vez y completo
+		assertEquals(photosByAlbum, delivered);
+	}
+
+	// Sin particiones, los albumes modificados se entregan en bloques de
+	// partition-size segun se lee el cuerpo
+	@Test
+	void testFetchPhotosWithoutPartitionsDeliversChangedAlbumBlocks() {
+		UpstreamClient client = newClient(AlbumPhotoConstants.PARTITION_NONE, 2, 4);
+		respond(AlbumPhotoConstants.PHOTOS_PATH, new StubResponse(200, photosJson("Photo"), null, 0));
+		List<Map<Long, List<PhotoView>>> delivered = new ArrayList<>();
+
+		Map<Long, List<PhotoView>> first = client.fetchPhotosByAlbum(null, List.of(), delivered::add).join();
+
+		assertEquals(List.of(2, 2, 1), delivered.stream().map(Map::size).toList());
+		Map<Long, List<PhotoView>> merged = new HashMap<>();
+		delivered.forEach(merged::putAll);
+		assertEquals(first, merged);
+
+		// Solo cambia el titulo de una foto del album 4
+		respond(AlbumPhotoConstants.PHOTOS_PATH,
+				new StubResponse(200, photosJson("Photo").replace("\"Photo 7\"", "\"Changed\""), null, 0));
+		delivered.clear();
+
+		Map<Long, List<PhotoView>> second = client.fetchPhotosByAlbum(first, List.of(), delivered::add).join();
+
+		assertEquals(1, delivered.size());
+		assertEquals(Map.of(4L, second.get(4L)), delivered.get(0));
+	}
+
+	// Un modo de particionado desconocido falla al crear el cliente, no en la
+	// primera descarga
+	@Test
+	void testUnknownPartitionModeFailsAtStartup() {
+		assertThrows(IllegalArgumentException.class, () -> newClient("pages", 10, 4));
+	}
+
+	private UpstreamClient newClient(String partitionMode, int partitionSize, int maxInFlight) {
+		return new UpstreamClient(httpClientFactory, new ObjectMapper(), meterRegistry,
+				"http://127.0.0.1:" + server.getAddress().getPort(), partitionMode, partitionSize, maxInFlight);
+	}
+
+	// Diez fotos de cinco albumes, ordenadas por album
+	private static String photosJson(String title) {
+		StringBuilder json = new StringBuilder("[");
+		for (int id = 1; id <= 10; id++) {
+			json.append(id == 1 ? "" : ",").append("{\"albumId\":").append((id + 1) / 2).append(",\"id\":").append(id)
+					.append(",\"title\":\"").append(title).append(' ').append(id).append("\"}");
+		}
+		return json.append("]").toString();
+	}
+
+	private StubResponse nextQueuedResponse(HttpExchange exchange) {
+		return responses.get(exchange.getRequestURI().getPath()).poll();
+	}
+
+	private void respond(String path, StubResponse response) {
+		responses.computeIfAbsent(path, key -> new ArrayDeque<>()).add(response);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.add(exchange.getRequestHeaders());
+		maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+		StubResponse response = responder.apply(exchange);
+		try {
+			Thread.sleep(response.delayMs());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			inFlight.decrementAndGet();
+		}
+		if (response.etag() != null) {
+			exchange.getResponseHeaders().set(HttpHeaders.ETAG, response.etag());
+		}
+		if (response.body() == null) {
+			exchange.sendResponseHeaders(response.status(), -1);
+		} else {
+			byte[] body = response.body().getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(response.status(), 0); // Cuerpo chunked
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+		exchange.close();
+	}
+
+	private record StubResponse(int status, String body, String etag, long delayMs) {
+	}
+}